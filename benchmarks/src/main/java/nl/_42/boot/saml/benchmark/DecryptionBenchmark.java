@@ -0,0 +1,103 @@
+package nl._42.boot.saml.benchmark;
+
+import nl._42.boot.saml.key.SAMLDecrypter;
+import nl._42.boot.saml.parser.ParserPoolProperties;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.encryption.Decrypter;
+import org.opensaml.saml2.encryption.EncryptedElementTypeEncryptedKeyResolver;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.encryption.ChainingEncryptedKeyResolver;
+import org.opensaml.xml.encryption.InlineEncryptedKeyResolver;
+import org.opensaml.xml.encryption.SimpleRetrievalMethodEncryptedKeyResolver;
+import org.opensaml.xml.parse.ParserPool;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.keyinfo.StaticKeyInfoCredentialResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.security.saml.key.JKSKeyManager;
+import org.springframework.security.saml.key.KeyManager;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayInputStream;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decryption of an {@code EncryptedAssertion}. The {@code perMessage} benchmark mirrors
+ * {@code SAMLContextProviderImpl}, which looks up the key and creates a new decrypter for
+ * each message, the {@code shared} benchmark uses the {@link SAMLDecrypter} that is kept
+ * by the context provider.
+ * <p>
+ * Run with {@code -prof gc} to compare the bytes allocated per decryption.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecryptionBenchmark {
+
+    private static final String KEY = "apollo";
+
+    @Param({ "10", "100" })
+    private int attributes;
+
+    private KeyManager keyManager;
+
+    private ChainingEncryptedKeyResolver encryptedKeyResolver;
+
+    private SAMLDecrypter decrypter;
+
+    private EncryptedAssertion encrypted;
+
+    @Setup
+    public void setUp() throws Exception {
+        DefaultBootstrap.bootstrap();
+
+        keyManager = new JKSKeyManager(new ClassPathResource("benchmark-saml.jks"), "nalle123", Collections.singletonMap(KEY, "nalle123"), KEY);
+        Credential credential = keyManager.getDefaultCredential();
+
+        encryptedKeyResolver = new ChainingEncryptedKeyResolver();
+        encryptedKeyResolver.getResolverChain().add(new InlineEncryptedKeyResolver());
+        encryptedKeyResolver.getResolverChain().add(new EncryptedElementTypeEncryptedKeyResolver());
+        encryptedKeyResolver.getResolverChain().add(new SimpleRetrievalMethodEncryptedKeyResolver());
+
+        ParserPool parserPool = new ParserPoolProperties().getParserPool();
+        decrypter = new SAMLDecrypter(Collections.singletonList(credential));
+
+        SAMLResponseFactory responses = new SAMLResponseFactory("https://idp", "https://sp", "https://sp/saml/SSO", credential, credential);
+        byte[] xml = Base64.getDecoder().decode(responses.buildResponse(attributes, true));
+        Document document = parserPool.parse(new ByteArrayInputStream(xml));
+        Response response = (Response) Configuration.getUnmarshallerFactory().getUnmarshaller(document.getDocumentElement()).unmarshall(document.getDocumentElement());
+        encrypted = response.getEncryptedAssertions().get(0);
+    }
+
+    @Benchmark
+    public Assertion perMessage() throws Exception {
+        Credential credential = keyManager.getCredential(KEY);
+        Decrypter decrypter = new Decrypter(null, new StaticKeyInfoCredentialResolver(credential), encryptedKeyResolver);
+        decrypter.setRootInNewDocument(true);
+        return decrypter.decrypt(encrypted);
+    }
+
+    @Benchmark
+    public Assertion shared() throws Exception {
+        return decrypter.decrypt(encrypted);
+    }
+
+}
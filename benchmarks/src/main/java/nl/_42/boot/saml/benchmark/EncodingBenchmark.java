@@ -0,0 +1,140 @@
+package nl._42.boot.saml.benchmark;
+
+import nl._42.boot.saml.binding.HTTPPostFormEncoder;
+import nl._42.boot.saml.binding.HTTPRedirectEncoder;
+import org.joda.time.DateTime;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.common.SAMLVersion;
+import org.opensaml.common.binding.BasicSAMLMessageContext;
+import org.opensaml.common.binding.SAMLMessageContext;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.binding.encoding.HTTPPostEncoder;
+import org.opensaml.saml2.binding.encoding.HTTPRedirectDeflateEncoder;
+import org.opensaml.saml2.core.AuthnRequest;
+import org.opensaml.saml2.core.Issuer;
+import org.opensaml.saml2.metadata.SingleSignOnService;
+import org.opensaml.ws.message.encoder.MessageEncoder;
+import org.opensaml.ws.transport.http.HttpServletResponseAdapter;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.XMLObjectBuilderFactory;
+import org.opensaml.xml.security.credential.Credential;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.saml.key.JKSKeyManager;
+import org.springframework.security.saml.util.VelocityFactory;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of an outbound {@code AuthnRequest}, as sent on each SP initiated login.
+ * A new request is built for each operation, so marshalling is included. Redirects
+ * are signed when {@code signed} is set, POST messages are never signed.
+ * <p>
+ * Run with {@code -prof gc} to compare the bytes allocated per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodingBenchmark {
+
+    private static final String RELAY_STATE = "https://sp/secured?page=1";
+
+    @Param({ "false", "true" })
+    private boolean signed;
+
+    private XMLObjectBuilderFactory builders;
+
+    private Credential credential;
+
+    private MessageEncoder postVelocity;
+
+    private MessageEncoder postStreaming;
+
+    private MessageEncoder redirectDefault;
+
+    private MessageEncoder redirectPooled;
+
+    @Setup
+    public void setUp() throws Exception {
+        DefaultBootstrap.bootstrap();
+        builders = Configuration.getBuilderFactory();
+        credential = new JKSKeyManager(new ClassPathResource("benchmark-saml.jks"), "nalle123", Collections.singletonMap("apollo", "nalle123"), "apollo").getDefaultCredential();
+
+        postVelocity = new HTTPPostEncoder(VelocityFactory.getEngine(), "/templates/saml2-post-binding.vm");
+        postStreaming = new HTTPPostFormEncoder();
+        redirectDefault = new HTTPRedirectDeflateEncoder();
+        redirectPooled = new HTTPRedirectEncoder();
+    }
+
+    @Benchmark
+    public MockHttpServletResponse postVelocity() throws Exception {
+        return encode(postVelocity, null);
+    }
+
+    @Benchmark
+    public MockHttpServletResponse postStreaming() throws Exception {
+        return encode(postStreaming, null);
+    }
+
+    @Benchmark
+    public MockHttpServletResponse redirectDefault() throws Exception {
+        return encode(redirectDefault, signed ? credential : null);
+    }
+
+    @Benchmark
+    public MockHttpServletResponse redirectPooled() throws Exception {
+        return encode(redirectPooled, signed ? credential : null);
+    }
+
+    private MockHttpServletResponse encode(MessageEncoder encoder, Credential signingCredential) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        SAMLMessageContext context = new BasicSAMLMessageContext();
+        context.setOutboundSAMLMessage(buildRequest());
+        context.setOutboundSAMLMessageSigningCredential(signingCredential);
+        context.setPeerEntityEndpoint(buildEndpoint());
+        context.setRelayState(RELAY_STATE);
+        context.setOutboundMessageTransport(new HttpServletResponseAdapter(response, true));
+
+        encoder.encode(context);
+        return response;
+    }
+
+    private AuthnRequest buildRequest() {
+        Issuer issuer = (Issuer) builders.getBuilder(Issuer.DEFAULT_ELEMENT_NAME).buildObject(Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setValue("https://sp");
+
+        AuthnRequest request = (AuthnRequest) builders.getBuilder(AuthnRequest.DEFAULT_ELEMENT_NAME).buildObject(AuthnRequest.DEFAULT_ELEMENT_NAME);
+        request.setID("_" + System.nanoTime());
+        request.setVersion(SAMLVersion.VERSION_20);
+        request.setIssueInstant(new DateTime());
+        request.setDestination("https://idp/sso");
+        request.setAssertionConsumerServiceURL("https://sp/saml/SSO");
+        request.setProtocolBinding(SAMLConstants.SAML2_POST_BINDING_URI);
+        request.setIssuer(issuer);
+        return request;
+    }
+
+    private SingleSignOnService buildEndpoint() {
+        SingleSignOnService service = (SingleSignOnService) builders.getBuilder(SingleSignOnService.DEFAULT_ELEMENT_NAME).buildObject(SingleSignOnService.DEFAULT_ELEMENT_NAME);
+        service.setBinding(SAMLConstants.SAML2_POST_BINDING_URI);
+        service.setLocation("https://idp/sso");
+        return service;
+    }
+
+}
@@ -0,0 +1,101 @@
+package nl._42.boot.saml.benchmark;
+
+import nl._42.boot.saml.web.SAMLFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+
+import javax.servlet.FilterChain;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of the {@link SAMLFilter} on ordinary application traffic, which is
+ * passed straight on to the filter chain. The {@code antPathMatchers} benchmark
+ * shows the cost of matching the same registrations one by one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+    private static final String[] URLS = {
+        "/saml/login/**",
+        "/saml/logout/**",
+        "/saml/metadata/**",
+        "/saml/SSO/**",
+        "/saml/SSOHoK/**",
+        "/saml/SingleLogout/**",
+        "/saml/discovery/**"
+    };
+
+    @Param({ "/api/users/42", "/saml/unknown" })
+    private String path;
+
+    private SAMLBenchmarkContext context;
+
+    private SAMLFilter filter;
+
+    private List<AntPathRequestMatcher> matchers;
+
+    private MockHttpServletRequest request;
+
+    private MockHttpServletResponse response;
+
+    private FilterChain chain;
+
+    @Setup(Level.Trial)
+    public void start(Blackhole blackhole) throws Exception {
+        context = new SAMLBenchmarkContext();
+        filter = context.getBean(SAMLFilter.class);
+
+        matchers = new ArrayList<>();
+        for (String url : URLS) {
+            matchers.add(new AntPathRequestMatcher(url));
+        }
+
+        request = new MockHttpServletRequest("GET", path);
+        request.setServletPath(path);
+        response = new MockHttpServletResponse();
+        chain = (req, res) -> blackhole.consume(req);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public void passThrough() throws Exception {
+        filter.doFilter(request, response, chain);
+    }
+
+    @Benchmark
+    public boolean antPathMatchers() {
+        for (AntPathRequestMatcher matcher : matchers) {
+            if (matcher.matches(request)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
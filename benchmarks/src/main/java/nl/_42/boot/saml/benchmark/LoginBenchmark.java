@@ -0,0 +1,75 @@
+package nl._42.boot.saml.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full browser SSO consumption path: {@code SAMLProcessingFilter}, HTTP-POST binding
+ * decode, {@code WebSSOProfileConsumerImpl} signature and condition checks,
+ * {@code SAMLUserService} user mapping and the {@code SAMLSuccessRedirectHandler}.
+ * <p>
+ * Run with {@code -prof gc} to see the bytes allocated per login ({@code gc.alloc.rate.norm}).
+ * The throughput of a single benchmark thread equals the logins per second per core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class LoginBenchmark {
+
+    public enum ResponseType {
+        SIGNED,
+        SIGNED_ENCRYPTED
+    }
+
+    @Param({ "10", "100", "1000" })
+    private int attributes;
+
+    @Param({ "SIGNED", "SIGNED_ENCRYPTED" })
+    private ResponseType type;
+
+    private SAMLBenchmarkContext context;
+
+    private String response;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        context = new SAMLBenchmarkContext();
+    }
+
+    /**
+     * Responses are only valid for a short period after issuing, so each iteration gets a fresh one.
+     */
+    @Setup(Level.Iteration)
+    public void issue() throws Exception {
+        response = context.buildResponse(attributes, type == ResponseType.SIGNED_ENCRYPTED);
+        context.verify(response);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public MockHttpServletResponse login() throws Exception {
+        return context.login(response);
+    }
+
+}
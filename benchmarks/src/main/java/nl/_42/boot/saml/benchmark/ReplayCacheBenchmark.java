@@ -0,0 +1,155 @@
+package nl._42.boot.saml.benchmark;
+
+import nl._42.boot.saml.replay.TimeWheelReplayCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Constructor;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registration of consumed assertions in the {@link TimeWheelReplayCache}, which is enabled
+ * by default. The {@code LoginBenchmark} posts the same response on each invocation, so it
+ * runs with the replay cache disabled; this benchmark measures the cost it adds per login.
+ * <p>
+ * Each invocation registers a new assertion identifier, valid for five minutes. The cache runs
+ * on a simulated clock that advances with each invocation, so the {@code window} is the number
+ * of logins within five minutes: 1.000.000 equals 3.333 logins per second. The size of the cache
+ * then matches production, rather than the much higher rate of the benchmark itself. The
+ * {@code id} benchmark measures building the identifiers alone, to subtract from the others.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplayCacheBenchmark {
+
+    private static final long EXPIRATION = TimeUnit.MINUTES.toMillis(5);
+
+    private static final int BATCH = 64;
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    @Param({ "10000", "1000000" })
+    private int window;
+
+    private final AtomicLong micros = new AtomicLong();
+
+    private long step;
+
+    private TimeWheelReplayCache cache;
+
+    @Setup
+    public void setUp() throws Exception {
+        micros.set(TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()));
+        step = TimeUnit.MILLISECONDS.toMicros(EXPIRATION) * BATCH / window;
+
+        // The clock is package private, as only tests and benchmarks replace it
+        Constructor<TimeWheelReplayCache> constructor = TimeWheelReplayCache.class.getDeclaredConstructor(Clock.class);
+        constructor.setAccessible(true);
+        cache = constructor.newInstance(new SimulatedClock(micros));
+    }
+
+    /**
+     * Identifiers of a single benchmark thread, unique across threads and trials.
+     */
+    @State(Scope.Thread)
+    public static class Identifiers {
+
+        private String prefix;
+
+        private long next;
+
+        @Setup
+        public void setUp() {
+            prefix = "_" + UUID.randomUUID() + "-" + THREADS.incrementAndGet() + "-";
+        }
+
+        String next() {
+            return prefix + next++;
+        }
+
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String id(Identifiers identifiers) {
+        return identifiers.next();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean add(Identifiers identifiers) {
+        return register(identifiers);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean addContended(Identifiers identifiers) {
+        return register(identifiers);
+    }
+
+    private boolean register(Identifiers identifiers) {
+        String assertionId = identifiers.next();
+        // Advance the clock in batches, to not measure contention on the clock itself
+        if ((identifiers.next & (BATCH - 1)) == 0) {
+            micros.addAndGet(step);
+        }
+
+        long now = TimeUnit.MICROSECONDS.toMillis(micros.get());
+        if (!cache.add(assertionId, now + EXPIRATION)) {
+            throw new IllegalStateException("Assertion was rejected as replayed");
+        }
+        return true;
+    }
+
+    private static final class SimulatedClock extends Clock {
+
+        private final AtomicLong micros;
+
+        private SimulatedClock(AtomicLong micros) {
+            this.micros = micros;
+        }
+
+        @Override
+        public long millis() {
+            return TimeUnit.MICROSECONDS.toMillis(micros.get());
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+    }
+
+}
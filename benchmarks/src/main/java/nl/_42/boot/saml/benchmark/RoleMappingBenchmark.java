@@ -0,0 +1,145 @@
+package nl._42.boot.saml.benchmark;
+
+import nl._42.boot.saml.user.RoleMapper;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Mapping of the role values of a user onto authorities, with 200 exact rules and optionally
+ * a prefix and LDAP DN suffix rule. The {@code stream} benchmark mirrors the previous exact
+ * match only implementation, {@code mapper} uses the compiled {@link RoleMapper}. Each
+ * invocation maps the roles of another user, sharing most groups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoleMappingBenchmark {
+
+    private static final int DISTINCT_SETS = 64;
+
+    @Param({ "10", "5000" })
+    private int groups;
+
+    @Param({ "false", "true" })
+    private boolean wildcards;
+
+    private Map<String, String> rules;
+
+    private RoleMapper mapper;
+
+    private Collection<String>[] roles;
+
+    private int next;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        String[] shared = new String[groups - 1];
+        for (int index = 0; index < shared.length; index++) {
+            shared[index] = "cn=group-" + (index + 1) + ",ou=groups,dc=42,dc=nl";
+        }
+
+        rules = new HashMap<>();
+        for (int index = 0; index < 200; index++) {
+            rules.put("cn=group-" + index + ",ou=groups,dc=42,dc=nl", "ROLE_" + (index % 10));
+        }
+        if (wildcards) {
+            rules.put("cn=app-*", "ROLE_APP");
+            rules.put("*,ou=staff,dc=42,dc=nl", "ROLE_STAFF");
+        }
+        mapper = new RoleMapper(rules);
+
+        roles = new Collection[DISTINCT_SETS];
+        for (int set = 0; set < DISTINCT_SETS; set++) {
+            roles[set] = new Roles("cn=user-" + set + ",ou=staff,dc=42,dc=nl", shared);
+        }
+    }
+
+    @Benchmark
+    public Collection<GrantedAuthority> stream() {
+        next = (next + 1) % DISTINCT_SETS;
+        return roles[next].stream()
+                       .map(rules::get)
+                       .filter(StringUtils::isNotBlank)
+                       .distinct()
+                       .sorted()
+                       .map(SimpleGrantedAuthority::new)
+                       .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public Collection<GrantedAuthority> mapper() {
+        next = (next + 1) % DISTINCT_SETS;
+        return mapper.getAuthorities(roles[next]);
+    }
+
+    /**
+     * Roles of a single user, sharing the group values with all other users.
+     */
+    private static final class Roles extends AbstractCollection<String> {
+
+        private final String user;
+
+        private final String[] groups;
+
+        private Roles(String user, String[] groups) {
+            this.user = user;
+            this.groups = groups;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+
+                private int index = -1;
+
+                @Override
+                public boolean hasNext() {
+                    return index < groups.length;
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    String value = index < 0 ? user : groups[index];
+                    index++;
+                    return value;
+                }
+
+            };
+        }
+
+        @Override
+        public int size() {
+            return groups.length + 1;
+        }
+
+    }
+
+}
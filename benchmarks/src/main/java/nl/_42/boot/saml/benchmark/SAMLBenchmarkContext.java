@@ -0,0 +1,171 @@
+package nl._42.boot.saml.benchmark;
+
+import nl._42.boot.saml.SAMLAutoConfiguration;
+import nl._42.boot.saml.web.SAMLFilter;
+import org.opensaml.saml2.metadata.provider.DOMMetadataProvider;
+import org.opensaml.xml.parse.ParserPool;
+import org.opensaml.xml.security.credential.Credential;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.saml.key.KeyManager;
+import org.springframework.security.saml.metadata.CachingMetadataManager;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+import org.w3c.dom.Document;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Spring application context wired by {@link SAMLAutoConfiguration}, exactly
+ * as an application would, with a local identity provider registered in its
+ * metadata. Drives logins through the SAML filter chain without a servlet container.
+ */
+class SAMLBenchmarkContext implements AutoCloseable {
+
+    static final String IDP_ENTITY_ID = "https://idp.bench.local";
+    static final String SP_ENTITY_ID = "urn:nl:42:saml:benchmark";
+    static final String SP_HOST = "sp.bench.local";
+    static final String SP_BASE_URL = "http://" + SP_HOST;
+    static final String SUCCESS_URL = "/dashboard";
+
+    private static final String CONSUMER_PATH = "/saml/SSO";
+
+    private final ConfigurableApplicationContext context;
+    private final SAMLFilter filter;
+    private final SAMLResponseFactory responses;
+
+    SAMLBenchmarkContext() throws Exception {
+        this(new HashMap<>());
+    }
+
+    SAMLBenchmarkContext(Map<String, Object> overrides) throws Exception {
+        Map<String, Object> properties = getDefaultProperties();
+        properties.putAll(overrides);
+
+        this.context = new SpringApplicationBuilder(BenchmarkConfiguration.class)
+            .web(WebApplicationType.NONE)
+            .bannerMode(Banner.Mode.OFF)
+            .properties(properties)
+            .run();
+
+        this.filter = context.getBean(SAMLFilter.class);
+
+        Credential credential = context.getBean(KeyManager.class).getDefaultCredential();
+        this.responses = new SAMLResponseFactory(IDP_ENTITY_ID, SP_ENTITY_ID, SP_BASE_URL + CONSUMER_PATH, credential, credential);
+
+        registerIdentityProvider();
+    }
+
+    private static Map<String, Object> getDefaultProperties() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("logging.level.root", "WARN");
+        // The metadata URL is never reachable, our identity provider is registered directly
+        properties.put("logging.level.org.opensaml.saml2.metadata.provider", "OFF");
+        properties.put("logging.level.org.springframework.security.saml.metadata", "OFF");
+        properties.put("saml.enabled", "true");
+        properties.put("saml.idp_url", IDP_ENTITY_ID);
+        properties.put("saml.metadata_url", IDP_ENTITY_ID + "/metadata");
+        properties.put("saml.sp_id", SP_ENTITY_ID);
+        properties.put("saml.sp_base_url", SP_BASE_URL);
+        properties.put("saml.success_url", SUCCESS_URL);
+        properties.put("saml.forbidden_url", "/forbidden");
+        properties.put("saml.expired_url", "/expired");
+        properties.put("saml.attributes.user", SAMLResponseFactory.USER_ATTRIBUTE);
+        properties.put("saml.attributes.role", SAMLResponseFactory.ROLE_ATTRIBUTE);
+        properties.put("saml.roles.medewerker", "ROLE_USER");
+        properties.put("saml.keystore.file_name", "classpath:benchmark-saml.jks");
+        properties.put("saml.keystore.key", "apollo");
+        properties.put("saml.keystore.user", "apollo");
+        properties.put("saml.keystore.password", "nalle123");
+        // Each iteration posts the same response, which would be rejected as replayed
+        properties.put("saml.replay_cache.enabled", "false");
+        return properties;
+    }
+
+    private void registerIdentityProvider() throws Exception {
+        ParserPool parserPool = context.getBean(ParserPool.class);
+        Document document = parserPool.parse(new StringReader(responses.buildMetadata()));
+
+        DOMMetadataProvider provider = new DOMMetadataProvider(document.getDocumentElement());
+        provider.initialize();
+
+        ExtendedMetadataDelegate delegate = new ExtendedMetadataDelegate(provider);
+        delegate.setMetadataTrustCheck(false);
+
+        CachingMetadataManager metadata = context.getBean(CachingMetadataManager.class);
+        metadata.addMetadataProvider(delegate);
+        metadata.refreshMetadata();
+    }
+
+    /**
+     * Build a fresh response, responses are only accepted shortly after being issued.
+     * @param attributes the number of attributes
+     * @param encrypted whether the assertion should be encrypted
+     * @return the Base64 encoded response
+     */
+    String buildResponse(int attributes, boolean encrypted) throws Exception {
+        return responses.buildResponse(attributes, encrypted);
+    }
+
+    /**
+     * Post the response to the assertion consumer service, like a browser would.
+     * @param response the Base64 encoded response
+     * @return the servlet response
+     */
+    MockHttpServletResponse login(String response) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", CONSUMER_PATH);
+        request.setServerName(SP_HOST);
+        request.setServerPort(80);
+        request.setServletPath(CONSUMER_PATH);
+        request.setParameter("SAMLResponse", response);
+
+        MockHttpServletResponse result = new MockHttpServletResponse();
+        try {
+            filter.doFilter(request, result, new MockFilterChain());
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+        return result;
+    }
+
+    /**
+     * Perform a login and verify the user was redirected to the success URL,
+     * so that we never measure the failure path by accident.
+     * @param response the Base64 encoded response
+     */
+    void verify(String response) throws Exception {
+        MockHttpServletResponse result = login(response);
+
+        String location = result.getHeader("Location");
+        if (result.getStatus() != HttpStatus.SEE_OTHER.value() || !SUCCESS_URL.equals(location)) {
+            throw new IllegalStateException("Login failed with status " + result.getStatus() + " and location " + location);
+        }
+    }
+
+    <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+
+    @Configuration
+    @EnableConfigurationProperties
+    @Import(SAMLAutoConfiguration.class)
+    static class BenchmarkConfiguration {
+    }
+
+}
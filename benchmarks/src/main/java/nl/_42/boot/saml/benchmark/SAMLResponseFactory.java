@@ -0,0 +1,271 @@
+package nl._42.boot.saml.benchmark;
+
+import org.joda.time.DateTime;
+import org.opensaml.Configuration;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Attribute;
+import org.opensaml.saml2.core.AttributeStatement;
+import org.opensaml.saml2.core.AttributeValue;
+import org.opensaml.saml2.core.Audience;
+import org.opensaml.saml2.core.AudienceRestriction;
+import org.opensaml.saml2.core.AuthnContext;
+import org.opensaml.saml2.core.AuthnContextClassRef;
+import org.opensaml.saml2.core.AuthnStatement;
+import org.opensaml.saml2.core.Conditions;
+import org.opensaml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml2.core.Issuer;
+import org.opensaml.saml2.core.NameID;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.core.Status;
+import org.opensaml.saml2.core.StatusCode;
+import org.opensaml.saml2.core.Subject;
+import org.opensaml.saml2.core.SubjectConfirmation;
+import org.opensaml.saml2.core.SubjectConfirmationData;
+import org.opensaml.saml2.encryption.Encrypter;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml2.metadata.KeyDescriptor;
+import org.opensaml.saml2.metadata.SingleSignOnService;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.XMLObjectBuilderFactory;
+import org.opensaml.xml.encryption.EncryptionConstants;
+import org.opensaml.xml.encryption.EncryptionParameters;
+import org.opensaml.xml.encryption.KeyEncryptionParameters;
+import org.opensaml.xml.io.MarshallingException;
+import org.opensaml.xml.schema.XSString;
+import org.opensaml.xml.security.SecurityHelper;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.credential.UsageType;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.Signer;
+import org.opensaml.xml.util.XMLHelper;
+import org.w3c.dom.Element;
+
+import javax.xml.namespace.QName;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Builds identity provider metadata and signed, optionally encrypted,
+ * authentication responses the way a real identity provider would.
+ */
+class SAMLResponseFactory {
+
+    static final String USER_ATTRIBUTE = "urn:oid:user";
+    static final String ROLE_ATTRIBUTE = "urn:oid:role";
+
+    private static final String FILLER_ATTRIBUTE = "urn:oid:filler:";
+
+    private final XMLObjectBuilderFactory builders = Configuration.getBuilderFactory();
+
+    private final String idpEntityId;
+    private final String spEntityId;
+    private final String consumerUrl;
+
+    /**
+     * Credential used by the identity provider to sign.
+     */
+    private final Credential signing;
+
+    /**
+     * Credential of the service provider, used to encrypt.
+     */
+    private final Credential encryption;
+
+    SAMLResponseFactory(String idpEntityId, String spEntityId, String consumerUrl, Credential signing, Credential encryption) {
+        this.idpEntityId = idpEntityId;
+        this.spEntityId = spEntityId;
+        this.consumerUrl = consumerUrl;
+        this.signing = signing;
+        this.encryption = encryption;
+    }
+
+    /**
+     * Build the metadata of our identity provider.
+     * @return the metadata document
+     */
+    String buildMetadata() throws Exception {
+        EntityDescriptor descriptor = build(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+        descriptor.setEntityID(idpEntityId);
+
+        IDPSSODescriptor idp = build(IDPSSODescriptor.DEFAULT_ELEMENT_NAME);
+        idp.addSupportedProtocol(SAMLConstants.SAML20P_NS);
+
+        KeyDescriptor key = build(KeyDescriptor.DEFAULT_ELEMENT_NAME);
+        key.setUse(UsageType.SIGNING);
+        key.setKeyInfo(SecurityHelper.getKeyInfoGenerator(signing, null, null).generate(signing));
+        idp.getKeyDescriptors().add(key);
+
+        SingleSignOnService sso = build(SingleSignOnService.DEFAULT_ELEMENT_NAME);
+        sso.setBinding(SAMLConstants.SAML2_REDIRECT_BINDING_URI);
+        sso.setLocation(idpEntityId + "/sso");
+        idp.getSingleSignOnServices().add(sso);
+
+        descriptor.getRoleDescriptors().add(idp);
+        return XMLHelper.nodeToString(marshall(descriptor));
+    }
+
+    /**
+     * Build a Base64 encoded response, as posted by the browser.
+     * @param attributes the number of attributes, including user and role
+     * @param encrypted whether the assertion should be encrypted
+     * @return the encoded response
+     */
+    String buildResponse(int attributes, boolean encrypted) throws Exception {
+        DateTime now = new DateTime();
+
+        Response response = build(Response.DEFAULT_ELEMENT_NAME);
+        response.setID(generateId());
+        response.setIssueInstant(now);
+        response.setDestination(consumerUrl);
+        response.setIssuer(buildIssuer());
+        response.setStatus(buildStatus());
+
+        Assertion assertion = buildAssertion(now, attributes);
+        sign(assertion);
+
+        if (encrypted) {
+            response.getEncryptedAssertions().add(encrypt(assertion));
+        } else {
+            response.getAssertions().add(assertion);
+        }
+
+        String xml = XMLHelper.nodeToString(marshall(response));
+        return Base64.getEncoder().encodeToString(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Assertion buildAssertion(DateTime now, int attributes) {
+        Assertion assertion = build(Assertion.DEFAULT_ELEMENT_NAME);
+        assertion.setID(generateId());
+        assertion.setIssueInstant(now);
+        assertion.setIssuer(buildIssuer());
+        assertion.setSubject(buildSubject(now));
+        assertion.setConditions(buildConditions(now));
+        assertion.getAuthnStatements().add(buildAuthnStatement(now));
+        assertion.getAttributeStatements().add(buildAttributes(attributes));
+        return assertion;
+    }
+
+    private Subject buildSubject(DateTime now) {
+        NameID nameId = build(NameID.DEFAULT_ELEMENT_NAME);
+        nameId.setFormat(NameID.UNSPECIFIED);
+        nameId.setValue("henk");
+
+        SubjectConfirmationData data = build(SubjectConfirmationData.DEFAULT_ELEMENT_NAME);
+        data.setNotOnOrAfter(now.plusMinutes(5));
+        data.setRecipient(consumerUrl);
+
+        SubjectConfirmation confirmation = build(SubjectConfirmation.DEFAULT_ELEMENT_NAME);
+        confirmation.setMethod(SubjectConfirmation.METHOD_BEARER);
+        confirmation.setSubjectConfirmationData(data);
+
+        Subject subject = build(Subject.DEFAULT_ELEMENT_NAME);
+        subject.setNameID(nameId);
+        subject.getSubjectConfirmations().add(confirmation);
+        return subject;
+    }
+
+    private Conditions buildConditions(DateTime now) {
+        Audience audience = build(Audience.DEFAULT_ELEMENT_NAME);
+        audience.setAudienceURI(spEntityId);
+
+        AudienceRestriction restriction = build(AudienceRestriction.DEFAULT_ELEMENT_NAME);
+        restriction.getAudiences().add(audience);
+
+        Conditions conditions = build(Conditions.DEFAULT_ELEMENT_NAME);
+        conditions.setNotBefore(now.minusMinutes(1));
+        conditions.setNotOnOrAfter(now.plusMinutes(5));
+        conditions.getAudienceRestrictions().add(restriction);
+        return conditions;
+    }
+
+    private AuthnStatement buildAuthnStatement(DateTime now) {
+        AuthnContextClassRef reference = build(AuthnContextClassRef.DEFAULT_ELEMENT_NAME);
+        reference.setAuthnContextClassRef(AuthnContext.PPT_AUTHN_CTX);
+
+        AuthnContext context = build(AuthnContext.DEFAULT_ELEMENT_NAME);
+        context.setAuthnContextClassRef(reference);
+
+        AuthnStatement statement = build(AuthnStatement.DEFAULT_ELEMENT_NAME);
+        statement.setAuthnInstant(now);
+        statement.setSessionIndex(generateId());
+        statement.setAuthnContext(context);
+        return statement;
+    }
+
+    private AttributeStatement buildAttributes(int attributes) {
+        AttributeStatement statement = build(AttributeStatement.DEFAULT_ELEMENT_NAME);
+        statement.getAttributes().add(buildAttribute(USER_ATTRIBUTE, "henk"));
+        statement.getAttributes().add(buildAttribute(ROLE_ATTRIBUTE, "medewerker"));
+
+        for (int index = statement.getAttributes().size(); index < attributes; index++) {
+            statement.getAttributes().add(buildAttribute(FILLER_ATTRIBUTE + index, "value-" + index));
+        }
+        return statement;
+    }
+
+    private Attribute buildAttribute(String name, String value) {
+        XSString content = (XSString) builders.getBuilder(XSString.TYPE_NAME).buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+        content.setValue(value);
+
+        Attribute attribute = build(Attribute.DEFAULT_ELEMENT_NAME);
+        attribute.setName(name);
+        attribute.setNameFormat(Attribute.URI_REFERENCE);
+        attribute.getAttributeValues().add(content);
+        return attribute;
+    }
+
+    private Issuer buildIssuer() {
+        Issuer issuer = build(Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setValue(idpEntityId);
+        return issuer;
+    }
+
+    private Status buildStatus() {
+        StatusCode code = build(StatusCode.DEFAULT_ELEMENT_NAME);
+        code.setValue(StatusCode.SUCCESS_URI);
+
+        Status status = build(Status.DEFAULT_ELEMENT_NAME);
+        status.setStatusCode(code);
+        return status;
+    }
+
+    private void sign(Assertion assertion) throws Exception {
+        Signature signature = build(Signature.DEFAULT_ELEMENT_NAME);
+        signature.setSigningCredential(signing);
+        SecurityHelper.prepareSignatureParams(signature, signing, null, null);
+        assertion.setSignature(signature);
+
+        marshall(assertion);
+        Signer.signObject(signature);
+    }
+
+    private EncryptedAssertion encrypt(Assertion assertion) throws Exception {
+        EncryptionParameters data = new EncryptionParameters();
+        data.setAlgorithm(EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES128);
+
+        KeyEncryptionParameters key = new KeyEncryptionParameters();
+        key.setAlgorithm(EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSAOAEP);
+        key.setEncryptionCredential(encryption);
+
+        Encrypter encrypter = new Encrypter(data, key);
+        encrypter.setKeyPlacement(Encrypter.KeyPlacement.INLINE);
+        return encrypter.encrypt(assertion);
+    }
+
+    private Element marshall(XMLObject object) throws MarshallingException {
+        return Configuration.getMarshallerFactory().getMarshaller(object).marshall(object);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T build(QName name) {
+        return (T) builders.getBuilder(name).buildObject(name);
+    }
+
+    private static String generateId() {
+        return "_" + UUID.randomUUID().toString();
+    }
+
+}
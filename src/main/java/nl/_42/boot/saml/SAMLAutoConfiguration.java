@@ -1,8 +1,31 @@
 package nl._42.boot.saml;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import nl._42.boot.saml.audit.SAMLAuditLogger;
+import nl._42.boot.saml.binding.HTTPPostFormEncoder;
+import nl._42.boot.saml.binding.HTTPRedirectEncoder;
 import nl._42.boot.saml.config.SAMLConfigController;
+import nl._42.boot.saml.metadata.IdpProperties;
+import nl._42.boot.saml.metadata.IndexedMetadataProvider;
+import nl._42.boot.saml.metadata.LazyMetadataProvider;
+import nl._42.boot.saml.metadata.ResourceMetadataProvider;
+import nl._42.boot.saml.metadata.SAMLMetadataManager;
+import nl._42.boot.saml.metrics.InstrumentedProcessor;
+import nl._42.boot.saml.metrics.MicrometerSAMLMetrics;
+import nl._42.boot.saml.metrics.ParserPoolMetrics;
+import nl._42.boot.saml.metrics.SAMLMetrics;
+import nl._42.boot.saml.parser.InstrumentedParserPool;
+import nl._42.boot.saml.replay.AssertionReplayCache;
+import nl._42.boot.saml.replay.JdbcReplayCache;
+import nl._42.boot.saml.replay.ReplayCacheProperties;
+import nl._42.boot.saml.replay.TimeWheelReplayCache;
+import nl._42.boot.saml.storage.InMemoryMessageStorage;
+import nl._42.boot.saml.storage.JdbcMessageStorage;
+import nl._42.boot.saml.storage.MessageStoreProperties;
+import nl._42.boot.saml.storage.SharedStorageFactory;
+import nl._42.boot.saml.trust.SAMLCachingContextProvider;
 import nl._42.boot.saml.user.SAMLUserService;
 import nl._42.boot.saml.web.SAMLDefaultEntryPoint;
 import nl._42.boot.saml.web.SAMLDiscoveryController;
@@ -10,19 +33,24 @@ import nl._42.boot.saml.web.SAMLFailureHandler;
 import nl._42.boot.saml.web.SAMLFilter;
 import nl._42.boot.saml.web.SAMLMetadataDisplayFilter;
 import nl._42.boot.saml.web.SAMLMetadataGenerator;
+import nl._42.boot.saml.web.SAMLServiceProviderMetadata;
 import nl._42.boot.saml.web.SAMLSuccessRedirectHandler;
 import nl._42.boot.saml.web.SAMLWebSSOProfile;
+import nl._42.boot.saml.web.SAMLWebSSOProfileConsumer;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.velocity.app.VelocityEngine;
-import org.opensaml.saml2.metadata.provider.HTTPMetadataProvider;
+import org.opensaml.saml2.binding.decoding.HTTPPostDecoder;
+import org.opensaml.saml2.binding.decoding.HTTPRedirectDeflateDecoder;
 import org.opensaml.saml2.metadata.provider.MetadataProvider;
 import org.opensaml.saml2.metadata.provider.MetadataProviderException;
-import org.opensaml.xml.parse.StaticBasicParserPool;
-import org.opensaml.xml.parse.XMLParserException;
 import org.opensaml.xml.security.BasicSecurityConfiguration;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.ApplicationListener;
@@ -43,14 +71,11 @@ import org.springframework.security.saml.SAMLLogoutProcessingFilter;
 import org.springframework.security.saml.SAMLProcessingFilter;
 import org.springframework.security.saml.SAMLWebSSOHoKProcessingFilter;
 import org.springframework.security.saml.context.SAMLContextProvider;
-import org.springframework.security.saml.context.SAMLContextProviderImpl;
 import org.springframework.security.saml.key.KeyManager;
-import org.springframework.security.saml.log.SAMLDefaultLogger;
 import org.springframework.security.saml.metadata.CachingMetadataManager;
 import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
 import org.springframework.security.saml.metadata.MetadataDisplayFilter;
 import org.springframework.security.saml.metadata.MetadataGenerator;
-import org.springframework.security.saml.metadata.MetadataGeneratorFilter;
 import org.springframework.security.saml.parser.ParserPoolHolder;
 import org.springframework.security.saml.processor.HTTPArtifactBinding;
 import org.springframework.security.saml.processor.HTTPPAOS11Binding;
@@ -59,6 +84,9 @@ import org.springframework.security.saml.processor.HTTPRedirectDeflateBinding;
 import org.springframework.security.saml.processor.HTTPSOAP11Binding;
 import org.springframework.security.saml.processor.SAMLProcessorImpl;
 import org.springframework.security.saml.storage.EmptyStorageFactory;
+import org.springframework.security.saml.storage.HttpSessionStorageFactory;
+import org.springframework.security.saml.storage.SAMLMessageStorage;
+import org.springframework.security.saml.storage.SAMLMessageStorageFactory;
 import org.springframework.security.saml.userdetails.SAMLUserDetailsService;
 import org.springframework.security.saml.util.VelocityFactory;
 import org.springframework.security.saml.websso.ArtifactResolutionProfileImpl;
@@ -67,7 +95,6 @@ import org.springframework.security.saml.websso.SingleLogoutProfileImpl;
 import org.springframework.security.saml.websso.WebSSOProfile;
 import org.springframework.security.saml.websso.WebSSOProfileConsumer;
 import org.springframework.security.saml.websso.WebSSOProfileConsumerHoKImpl;
-import org.springframework.security.saml.websso.WebSSOProfileConsumerImpl;
 import org.springframework.security.saml.websso.WebSSOProfileECPImpl;
 import org.springframework.security.saml.websso.WebSSOProfileOptions;
 import org.springframework.security.web.authentication.RememberMeServices;
@@ -77,6 +104,9 @@ import org.springframework.security.web.authentication.logout.SimpleUrlLogoutSuc
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 
 import javax.servlet.Filter;
+import javax.sql.DataSource;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -97,6 +127,25 @@ public class SAMLAutoConfiguration {
         return new SAMLProperties();
     }
 
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    public static class SAMLMetricsConfiguration {
+
+        @Bean
+        public SAMLMetrics samlMetrics(ObjectProvider<MeterRegistry> registry) {
+            MeterRegistry meterRegistry = registry.getIfAvailable();
+            return meterRegistry != null ? new MicrometerSAMLMetrics(meterRegistry) : SAMLMetrics.NONE;
+        }
+
+        @Bean
+        public SmartInitializingSingleton samlParserPoolMetrics(ObjectProvider<MeterRegistry> registry, ObjectProvider<InstrumentedParserPool> parserPool) {
+            return () -> registry.ifAvailable(meterRegistry ->
+                parserPool.ifAvailable(pool -> new ParserPoolMetrics(pool).bindTo(meterRegistry))
+            );
+        }
+
+    }
+
     @Configuration
     @ComponentScan(basePackageClasses = SAMLDiscoveryController.class)
     @ConditionalOnProperty(name = "saml.enabled", havingValue = "true")
@@ -107,10 +156,29 @@ public class SAMLAutoConfiguration {
         @Autowired(required = false)
         private RememberMeServices rememberMeServices;
 
+        @Autowired(required = false)
+        private SAMLMessageStorage messageStorage;
+
+        @Autowired(required = false)
+        private AssertionReplayCache replayCache;
+
+        @Autowired(required = false)
+        private DataSource dataSource;
+
+        @Autowired(required = false)
+        private SAMLMetrics metrics;
+
         @Autowired
         public SAMLAuthenticationConfiguration(SAMLProperties properties) {
-            throwIfBlank(properties.getIdpUrl(), "idp_url");
-            throwIfBlank(properties.getMetadataUrl(), "metadata_url");
+            if (properties.getIdps().isEmpty()) {
+                throwIfBlank(properties.getIdpUrl(), "idp_url");
+                throwIfBlank(properties.getMetadataUrl(), "metadata_url");
+            }
+            for (int index = 0; index < properties.getIdps().size(); index++) {
+                IdpProperties idp = properties.getIdps().get(index);
+                throwIfBlank(idp.getUrl(), "idps[" + index + "].url");
+                throwIfBlank(idp.getMetadataUrl(), "idps[" + index + "].metadata_url");
+            }
             throwIfBlank(properties.getSpId(), "sp_id");
             throwIfBlank(properties.getSpBaseUrl(), "sp_base_url");
 
@@ -127,12 +195,18 @@ public class SAMLAutoConfiguration {
 
         @Bean
         public SAMLUserDetailsService samlUserDetailService() {
-            return new SAMLUserService(properties);
+            SAMLUserService service = new SAMLUserService(properties);
+            service.setMetrics(metrics());
+            return service;
+        }
+
+        private SAMLMetrics metrics() {
+            return metrics != null ? metrics : SAMLMetrics.NONE;
         }
 
         @Bean
-        public MetadataGeneratorFilter samlMetadataGeneratorFilter() {
-            return new MetadataGeneratorFilter(metadataGenerator());
+        public SAMLServiceProviderMetadata samlServiceProviderMetadata() throws MetadataProviderException {
+            return SAMLServiceProviderMetadata.register(metadataGenerator(), metadata(), keyManager());
         }
 
         @Bean
@@ -152,34 +226,62 @@ public class SAMLAutoConfiguration {
         @Qualifier("metadata")
         public CachingMetadataManager metadata() throws MetadataProviderException {
             List<MetadataProvider> providers = new ArrayList<>();
-            providers.add(metadataProvider());
+            if (StringUtils.isNotBlank(properties.getMetadataUrl())) {
+                providers.add(metadataProvider());
+            }
+            for (IdpProperties idp : properties.getIdps()) {
+                providers.add(idpMetadataProvider(idp));
+            }
 
-            return new CachingMetadataManager(providers);
+            // Without a default, the manager picks an arbitrary identity provider of all providers
+            SAMLMetadataManager manager = new SAMLMetadataManager(providers);
+            manager.setDefaultIDP(properties.getDefaultIdpUrl());
+            return manager;
         }
 
         @Bean
+        @ConditionalOnProperty(name = "saml.metadata-url")
         public MetadataProvider metadataProvider() throws MetadataProviderException {
             final Timer backgroundTaskTimer = new Timer(true);
 
-            HTTPMetadataProvider provider = new HTTPMetadataProvider(backgroundTaskTimer, httpClient(), properties.getMetadataUrl());
+            ResourceMetadataProvider provider = properties.isMetadataIndexed()
+                ? new IndexedMetadataProvider(backgroundTaskTimer, httpClient(), properties.getMetadataUrl())
+                : new ResourceMetadataProvider(backgroundTaskTimer, httpClient(), properties.getMetadataUrl());
+            configure(provider, properties.getMetadataBackupFile());
+
+            return delegate(provider);
+        }
+
+        /**
+         * Metadata of additional identity providers is retrieved on first use, and
+         * refreshed on its own timer to keep the refresh schedules independent.
+         */
+        private MetadataProvider idpMetadataProvider(IdpProperties idp) {
+            final Timer backgroundTaskTimer = new Timer("saml-metadata-" + idp.getUrl(), true);
+
+            ResourceMetadataProvider provider = new ResourceMetadataProvider(backgroundTaskTimer, httpClient(), idp.getMetadataUrl());
+            provider.setFailFastInitialization(false);
+            configure(provider, idp.getMetadataBackupFile());
+
+            return delegate(new LazyMetadataProvider(idp.getUrl(), provider));
+        }
+
+        private void configure(ResourceMetadataProvider provider, String backupFile) {
             provider.setParserPool(parserPool());
+            if (StringUtils.isNotBlank(backupFile)) {
+                provider.setBackupFile(Paths.get(backupFile));
+            }
+        }
 
+        private ExtendedMetadataDelegate delegate(MetadataProvider provider) {
             ExtendedMetadataDelegate delegate = new ExtendedMetadataDelegate(provider);
             delegate.setMetadataTrustCheck(properties.isMetaDataTrustCheck());
             return delegate;
         }
 
         @Bean
-        public StaticBasicParserPool parserPool() {
-            StaticBasicParserPool pool = new StaticBasicParserPool();
-
-            try {
-                pool.initialize();
-            } catch (XMLParserException e) {
-                throw new IllegalStateException("Could not initialize parser pool", e);
-            }
-
-            return pool;
+        public InstrumentedParserPool parserPool() {
+            return properties.getParserPool().getParserPool();
         }
 
         @Bean
@@ -199,11 +301,32 @@ public class SAMLAutoConfiguration {
 
         @Bean
         public SAMLContextProvider contextProvider() {
-            SAMLContextProviderImpl provider = new SAMLContextProviderImpl();
+            SAMLCachingContextProvider provider = new SAMLCachingContextProvider();
+            provider.setStorageFactory(storageFactory());
+            provider.setMetrics(metrics());
+            return provider;
+        }
+
+        private SAMLMessageStorageFactory storageFactory() {
             if (!properties.isInResponseCheck()) {
-                provider.setStorageFactory(new EmptyStorageFactory());
+                return new EmptyStorageFactory();
+            } else if (messageStorage != null) {
+                return new SharedStorageFactory(messageStorage);
+            }
+
+            MessageStoreProperties store = properties.getMessageStore();
+            Duration ttl = Duration.ofSeconds(store.getTtl());
+            switch (store.getType()) {
+                case MEMORY:
+                    return new SharedStorageFactory(new InMemoryMessageStorage(ttl, store.getMaxSize()));
+                case JDBC:
+                    if (dataSource == null) {
+                        throw new IllegalStateException("Missing data source, required for 'saml.message_store.type: jdbc'.");
+                    }
+                    return new SharedStorageFactory(new JdbcMessageStorage(dataSource, parserPool(), store.getTable(), ttl));
+                default:
+                    return new HttpSessionStorageFactory();
             }
-            return provider;
         }
 
         @Bean
@@ -212,18 +335,38 @@ public class SAMLAutoConfiguration {
         }
 
         @Bean
-        public SAMLDefaultLogger samlLogger() {
-            return new SAMLDefaultLogger();
+        public SAMLAuditLogger samlLogger() {
+            return properties.getAudit().getLogger();
         }
 
         @Bean
         public WebSSOProfileConsumer webSSOprofileConsumer() throws Exception {
-            WebSSOProfileConsumerImpl webSSOProfileConsumerImpl = new WebSSOProfileConsumerImpl(processor(), metadata());
+            SAMLWebSSOProfileConsumer webSSOProfileConsumerImpl = new SAMLWebSSOProfileConsumer(processor(), metadata());
             webSSOProfileConsumerImpl.setMaxAuthenticationAge(properties.getMaxAuthenticationAge());
+            webSSOProfileConsumerImpl.setReplayCache(replayCache());
             webSSOProfileConsumerImpl.afterPropertiesSet();
             return webSSOProfileConsumerImpl;
         }
 
+        private AssertionReplayCache replayCache() {
+            ReplayCacheProperties cache = properties.getReplayCache();
+            if (!cache.isEnabled()) {
+                return null;
+            } else if (replayCache != null) {
+                return replayCache;
+            }
+
+            switch (cache.getType()) {
+                case JDBC:
+                    if (dataSource == null) {
+                        throw new IllegalStateException("Missing data source, required for 'saml.replay_cache.type: jdbc'.");
+                    }
+                    return new JdbcReplayCache(dataSource, cache.getTable());
+                default:
+                    return new TimeWheelReplayCache();
+            }
+        }
+
         @Bean
         public WebSSOProfileConsumerHoKImpl hokWebSSOprofileConsumer() throws Exception {
             return buildConsumer();
@@ -291,7 +434,8 @@ public class SAMLAutoConfiguration {
 
         @Bean
         public SAMLFilter samlFilterChain() {
-            SAMLFilter chain = new SAMLFilter(samlMetadataGeneratorFilter());
+            SAMLFilter chain = new SAMLFilter();
+            chain.setMetrics(metrics());
             chain.on("/saml/login/**", samlEntryPoint());
             chain.on("/saml/logout/**", samlLogoutFilter());
             chain.on("/saml/metadata/**", samlMetadataDisplayFilter());
@@ -331,12 +475,16 @@ public class SAMLAutoConfiguration {
 
         @Bean
         public SAMLSuccessRedirectHandler successRedirectHandler() {
-            return new SAMLSuccessRedirectHandler(properties, rememberMeServices);
+            SAMLSuccessRedirectHandler handler = new SAMLSuccessRedirectHandler(properties, rememberMeServices);
+            handler.setMetrics(metrics());
+            return handler;
         }
 
         @Bean
         public SAMLFailureHandler authenticationFailureHandler() {
-            return new SAMLFailureHandler(properties);
+            SAMLFailureHandler handler = new SAMLFailureHandler(properties);
+            handler.setMetrics(metrics());
+            return handler;
         }
 
         @Bean
@@ -373,12 +521,12 @@ public class SAMLAutoConfiguration {
 
         @Bean
         public SAMLProcessorImpl processor() throws Exception {
-            return new SAMLProcessorImpl(Arrays.asList(redirectBinding(), postBinding(), artifactBinding(), soapBinding(), paosBinding()));
+            return new InstrumentedProcessor(Arrays.asList(redirectBinding(), postBinding(), artifactBinding(), soapBinding(), paosBinding()), metrics());
         }
 
         @Bean
         public HTTPPostBinding postBinding() {
-            return new HTTPPostBinding(parserPool(), velocityEngine());
+            return new HTTPPostBinding(parserPool(), new HTTPPostDecoder(parserPool()), new HTTPPostFormEncoder());
         }
 
         @Bean
@@ -388,7 +536,7 @@ public class SAMLAutoConfiguration {
 
         @Bean
         public HTTPRedirectDeflateBinding redirectBinding() {
-            return new HTTPRedirectDeflateBinding(parserPool());
+            return new HTTPRedirectDeflateBinding(new HTTPRedirectDeflateDecoder(parserPool()), new HTTPRedirectEncoder());
         }
 
         @Bean
@@ -423,11 +571,6 @@ public class SAMLAutoConfiguration {
             return disabledFilterRegistration(filter);
         }
 
-        @Bean
-        public FilterRegistrationBean samlMetadataGeneratorRegistration(MetadataGeneratorFilter filter) {
-            return disabledFilterRegistration(filter);
-        }
-
         @Bean
         public FilterRegistrationBean samlMetadataDisplayRegistration(MetadataDisplayFilter filter) {
             return disabledFilterRegistration(filter);
@@ -5,13 +5,22 @@ package nl._42.boot.saml;
 
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import nl._42.boot.saml.audit.AuditProperties;
 import nl._42.boot.saml.key.KeystoreProperties;
+import nl._42.boot.saml.metadata.IdpProperties;
+import nl._42.boot.saml.parser.ParserPoolProperties;
+import nl._42.boot.saml.replay.ReplayCacheProperties;
+import nl._42.boot.saml.storage.MessageStoreProperties;
+import nl._42.boot.saml.user.DecoratorProperties;
 import nl._42.boot.saml.user.RoleMapper;
+import nl._42.boot.saml.user.UserCacheProperties;
 import org.apache.commons.lang3.StringUtils;
 import org.opensaml.xml.signature.SignatureConstants;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -40,10 +49,26 @@ public class SAMLProperties {
     private String idpUrl;
 
     /**
-     * Metadata URL
+     * Metadata URL, either a HTTP(S) URL or a 'file:' or 'classpath:' location.
      */
     private String metadataUrl;
 
+    /**
+     * File to keep the last retrieved metadata in, used on startup.
+     */
+    private String metadataBackupFile;
+
+    /**
+     * Index the metadata by entityID and only unmarshal entities on first use,
+     * recommended for large federation metadata.
+     */
+    private boolean metadataIndexed;
+
+    /**
+     * Additional identity providers, with metadata that is only retrieved on first use.
+     */
+    private List<IdpProperties> idps = new ArrayList<>();
+
     /**
      * Service provider ID
      */
@@ -75,6 +100,11 @@ public class SAMLProperties {
      */
     private KeystoreProperties keystore = new KeystoreProperties();
 
+    /**
+     * XML parser pool properties.
+     */
+    private ParserPoolProperties parserPool = new ParserPoolProperties();
+
     /**
      * Maximum authentication age.
      */
@@ -96,6 +126,31 @@ public class SAMLProperties {
      */
     private boolean inResponseCheck;
 
+    /**
+     * Storage of sent requests, used by the InResponseTo check.
+     */
+    private MessageStoreProperties messageStore = new MessageStoreProperties();
+
+    /**
+     * Cache of consumed assertions, used to reject replayed assertions.
+     */
+    private ReplayCacheProperties replayCache = new ReplayCacheProperties();
+
+    /**
+     * Audit log of processed SAML messages.
+     */
+    private AuditProperties audit = new AuditProperties();
+
+    /**
+     * Execution of the asynchronous user decorators.
+     */
+    private DecoratorProperties decorators = new DecoratorProperties();
+
+    /**
+     * Cache of decorated users, keyed by Name ID.
+     */
+    private UserCacheProperties userCache = new UserCacheProperties();
+
     /**
      * Deny users with no roles.
      */
@@ -166,6 +221,17 @@ public class SAMLProperties {
         return new RoleMapper(roles);
     }
 
+    /**
+     * Retrieve the identity provider used when none was selected.
+     * @return the IDP URL, or the URL of the first additional identity provider
+     */
+    public String getDefaultIdpUrl() {
+        if (StringUtils.isBlank(idpUrl) && !idps.isEmpty()) {
+            return idps.get(0).getUrl();
+        }
+        return idpUrl;
+    }
+
     /**
      * Validate that a certain property is defined.
      * @param value the current value
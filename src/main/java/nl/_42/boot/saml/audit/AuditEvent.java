@@ -0,0 +1,91 @@
+package nl._42.boot.saml.audit;
+
+import lombok.AllArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * Captured SAML audit event, formatted by the background writer.
+ */
+@AllArgsConstructor
+final class AuditEvent {
+
+    private final long timestamp;
+    private final String operation;
+    private final String result;
+    private final String entityId;
+    private final String messageId;
+    private final String user;
+    private final long durationNanos;
+    private final long ageMillis;
+    private final String error;
+    private final String payload;
+
+    boolean isFailure() {
+        return error != null;
+    }
+
+    /**
+     * Format as a single line of space separated key value pairs.
+     * @return the formatted event
+     */
+    String format() {
+        StringBuilder line = new StringBuilder(128 + (payload != null ? payload.length() : 0));
+        append(line, "time", Instant.ofEpochMilli(timestamp).toString());
+        append(line, "operation", operation);
+        append(line, "result", result);
+        append(line, "entityId", entityId);
+        append(line, "messageId", messageId);
+        append(line, "user", user);
+        if (durationNanos >= 0) {
+            append(line, "durationMs", String.valueOf(durationNanos / 1_000_000));
+        }
+        if (ageMillis >= 0) {
+            append(line, "ageMs", String.valueOf(ageMillis));
+        }
+        append(line, "error", error);
+        append(line, "payload", payload);
+        return line.toString();
+    }
+
+    private static void append(StringBuilder line, String key, String value) {
+        if (value == null) {
+            return;
+        }
+        if (line.length() > 0) {
+            line.append(' ');
+        }
+        line.append(key).append('=');
+        if (!needsQuotes(value)) {
+            line.append(value);
+            return;
+        }
+
+        line.append('"');
+        for (int index = 0; index < value.length(); index++) {
+            char c = value.charAt(index);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c == '\n') {
+                line.append("\\n");
+            } else if (c != '\r') {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    private static boolean needsQuotes(String value) {
+        if (value.isEmpty()) {
+            return true;
+        }
+        for (int index = 0; index < value.length(); index++) {
+            char c = value.charAt(index);
+            if (Character.isWhitespace(c) || c == '"' || c == '=' || c == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
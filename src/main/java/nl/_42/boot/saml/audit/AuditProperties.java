@@ -0,0 +1,37 @@
+package nl._42.boot.saml.audit;
+
+import lombok.Data;
+
+/**
+ * Wrapper of all audit log properties.
+ */
+@Data
+public class AuditProperties {
+
+    /**
+     * Maximum number of events waiting to be written, further events are dropped.
+     */
+    private int queueSize = 1024;
+
+    /**
+     * Fraction of events, between 0 and 1, that include the full XML message.
+     */
+    private double payloadSampleRate;
+
+    /**
+     * Always include the full XML message of failed events.
+     */
+    private boolean payloadOnFailure;
+
+    /**
+     * Build and start the audit logger.
+     * @return the audit logger
+     */
+    public SAMLAuditLogger getLogger() {
+        SAMLAuditLogger logger = new SAMLAuditLogger(queueSize);
+        logger.setPayloadSampleRate(payloadSampleRate);
+        logger.setPayloadOnFailure(payloadOnFailure);
+        return logger;
+    }
+
+}
@@ -0,0 +1,254 @@
+package nl._42.boot.saml.audit;
+
+import lombok.extern.slf4j.Slf4j;
+import nl._42.boot.saml.web.SAMLFilter;
+import org.joda.time.DateTime;
+import org.opensaml.common.SAMLObject;
+import org.opensaml.saml2.core.RequestAbstractType;
+import org.opensaml.saml2.core.StatusResponseType;
+import org.opensaml.ws.message.encoder.MessageEncodingException;
+import org.opensaml.ws.transport.http.HttpServletRequestAdapter;
+import org.opensaml.xml.util.XMLHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.saml.context.SAMLMessageContext;
+import org.springframework.security.saml.log.SAMLLogger;
+import org.springframework.security.saml.util.SAMLUtil;
+import org.w3c.dom.Element;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Audit logger that captures a compact event on the request thread and leaves the
+ * formatting and writing to a background thread. Events are queued in a bounded,
+ * lock-free queue and dropped when the writer cannot keep up, so auditing never
+ * slows down a login. The full XML message is only included for a sample of the events.
+ * <p>
+ * Events are written at {@code INFO}, or {@code WARN} on failures, to the
+ * {@code nl._42.boot.saml.audit} logger, and not captured at all when that logger is disabled.
+ */
+@Slf4j
+public class SAMLAuditLogger implements SAMLLogger, AutoCloseable {
+
+    private static final Logger AUDIT = LoggerFactory.getLogger("nl._42.boot.saml.audit");
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Queue<AuditEvent> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final int capacity;
+
+    private final Consumer<AuditEvent> sink;
+
+    private final Thread writer;
+
+    private volatile boolean waiting;
+
+    private volatile boolean running = true;
+
+    /**
+     * Dropped events already reported, only used by the writer.
+     */
+    private long reported;
+
+    private double payloadSampleRate;
+
+    private boolean payloadOnFailure;
+
+    public SAMLAuditLogger(int capacity) {
+        this(capacity, SAMLAuditLogger::write);
+    }
+
+    SAMLAuditLogger(int capacity, Consumer<AuditEvent> sink) {
+        this.capacity = capacity;
+        this.sink = sink;
+
+        this.writer = new Thread(this::drain, "saml-audit");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private static void write(AuditEvent event) {
+        if (event.isFailure()) {
+            AUDIT.warn(event.format());
+        } else {
+            AUDIT.info(event.format());
+        }
+    }
+
+    @Override
+    public void log(String operation, String result, SAMLMessageContext context) {
+        log(operation, result, context, null, null);
+    }
+
+    @Override
+    public void log(String operation, String result, SAMLMessageContext context, Exception e) {
+        log(operation, result, context, null, e);
+    }
+
+    @Override
+    public void log(String operation, String result, SAMLMessageContext context, Authentication authentication, Exception e) {
+        if (!AUDIT.isInfoEnabled()) {
+            return;
+        }
+
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+
+        queue.offer(capture(operation, result, context, authentication, e));
+        if (waiting) {
+            waiting = false;
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private AuditEvent capture(String operation, String result, SAMLMessageContext context, Authentication authentication, Exception e) {
+        SAMLObject inbound = context != null ? context.getInboundSAMLMessage() : null;
+        SAMLObject outbound = context != null ? context.getOutboundSAMLMessage() : null;
+
+        String messageId = null;
+        if (context != null) {
+            messageId = context.getInboundSAMLMessageId() != null ? context.getInboundSAMLMessageId() : context.getOutboundSAMLMessageId();
+        }
+
+        String payload = null;
+        if (isPayloadSampled(e)) {
+            payload = serialize(inbound != null ? inbound : outbound);
+        }
+
+        return new AuditEvent(
+            System.currentTimeMillis(),
+            operation,
+            result,
+            context != null ? context.getPeerEntityId() : null,
+            messageId,
+            authentication != null ? authentication.getName() : null,
+            getDuration(context),
+            getAge(inbound),
+            e != null ? e.getClass().getSimpleName() + ": " + e.getMessage() : null,
+            payload
+        );
+    }
+
+    private boolean isPayloadSampled(Exception e) {
+        if (e != null && payloadOnFailure) {
+            return true;
+        }
+        return payloadSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < payloadSampleRate;
+    }
+
+    /**
+     * Serialized on the request thread, as the DOM cannot be shared between threads.
+     */
+    private static String serialize(SAMLObject message) {
+        if (message == null) {
+            return null;
+        }
+
+        try {
+            Element element = message.getDOM() != null ? message.getDOM() : SAMLUtil.marshallMessage(message);
+            return XMLHelper.nodeToString(element);
+        } catch (MessageEncodingException | RuntimeException e) {
+            log.debug("Could not serialize SAML message for audit", e);
+            return null;
+        }
+    }
+
+    /**
+     * Time spent processing the request so far, as started by the {@link SAMLFilter}.
+     */
+    private static long getDuration(SAMLMessageContext context) {
+        if (context == null || !(context.getInboundMessageTransport() instanceof HttpServletRequestAdapter)) {
+            return -1;
+        }
+
+        Object started = ((HttpServletRequestAdapter) context.getInboundMessageTransport()).getWrappedRequest().getAttribute(SAMLFilter.STARTED);
+        return started instanceof Long ? System.nanoTime() - (Long) started : -1;
+    }
+
+    /**
+     * Time between issuing the inbound message and processing it.
+     */
+    private static long getAge(SAMLObject message) {
+        DateTime issued = null;
+        if (message instanceof StatusResponseType) {
+            issued = ((StatusResponseType) message).getIssueInstant();
+        } else if (message instanceof RequestAbstractType) {
+            issued = ((RequestAbstractType) message).getIssueInstant();
+        }
+        return issued != null ? Math.max(System.currentTimeMillis() - issued.getMillis(), 0) : -1;
+    }
+
+    private void drain() {
+        while (running || !queue.isEmpty()) {
+            AuditEvent event = queue.poll();
+            if (event == null) {
+                waiting = true;
+                if (queue.isEmpty() && running) {
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                }
+                waiting = false;
+                reportDropped();
+                continue;
+            }
+
+            size.decrementAndGet();
+            try {
+                sink.accept(event);
+            } catch (RuntimeException e) {
+                log.error("Could not write SAML audit event", e);
+            }
+        }
+        reportDropped();
+    }
+
+    private void reportDropped() {
+        long total = dropped.get();
+        if (total > reported) {
+            log.warn("Dropped {} SAML audit events, the audit queue of {} events was full", total - reported, capacity);
+            reported = total;
+        }
+    }
+
+    /**
+     * Total number of events dropped because the queue was full.
+     * @return the number of dropped events
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public void setPayloadSampleRate(double payloadSampleRate) {
+        this.payloadSampleRate = payloadSampleRate;
+    }
+
+    public void setPayloadOnFailure(boolean payloadOnFailure) {
+        this.payloadOnFailure = payloadOnFailure;
+    }
+
+    /**
+     * Stop the writer, after writing all queued events.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+}
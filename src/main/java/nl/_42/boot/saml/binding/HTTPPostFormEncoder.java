@@ -0,0 +1,220 @@
+package nl._42.boot.saml.binding;
+
+import lombok.extern.slf4j.Slf4j;
+import org.opensaml.common.SAMLObject;
+import org.opensaml.common.binding.SAMLMessageContext;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.binding.encoding.BaseSAML2MessageEncoder;
+import org.opensaml.saml2.core.RequestAbstractType;
+import org.opensaml.saml2.core.StatusResponseType;
+import org.opensaml.ws.message.MessageContext;
+import org.opensaml.ws.message.encoder.MessageEncodingException;
+import org.opensaml.ws.transport.http.HTTPOutTransport;
+import org.opensaml.ws.transport.http.HTTPTransportUtils;
+import org.opensaml.xml.util.XMLHelper;
+import org.w3c.dom.Element;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * HTTP-POST encoder that streams the auto-submit form directly into the response,
+ * instead of merging a Velocity template. The static parts of the form are encoded
+ * once, the message is serialized and Base64 encoded straight into the response.
+ * Renders the same form as the default {@code saml2-post-binding.vm} template.
+ */
+@Slf4j
+public class HTTPPostFormEncoder extends BaseSAML2MessageEncoder {
+
+    private static final byte[] FORM_START = bytes(
+        "<html xmlns=\"http://www.w3.org/1999/xhtml\" xml:lang=\"en\">\n" +
+        "    <body onload=\"document.forms[0].submit()\">\n" +
+        "        <noscript>\n" +
+        "            <p>\n" +
+        "                <strong>Note:</strong> Since your browser does not support JavaScript,\n" +
+        "                you must press the Continue button once to proceed.\n" +
+        "            </p>\n" +
+        "        </noscript>\n" +
+        "        <form action=\"");
+
+    private static final byte[] FORM_FIELDS = bytes(
+        "\" method=\"post\">\n" +
+        "            <div>\n");
+
+    private static final byte[] FIELD_START = bytes("                <input type=\"hidden\" name=\"");
+
+    private static final byte[] FIELD_VALUE = bytes("\" value=\"");
+
+    private static final byte[] FIELD_END = bytes("\"/>\n");
+
+    private static final byte[] FORM_END = bytes(
+        "            </div>\n" +
+        "            <noscript>\n" +
+        "                <div>\n" +
+        "                    <input type=\"submit\" value=\"Continue\"/>\n" +
+        "                </div>\n" +
+        "            </noscript>\n" +
+        "        </form>\n" +
+        "    </body>\n" +
+        "</html>\n");
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getBindingURI() {
+        return SAMLConstants.SAML2_POST_BINDING_URI;
+    }
+
+    @Override
+    public boolean providesMessageConfidentiality(MessageContext messageContext) {
+        return false;
+    }
+
+    @Override
+    public boolean providesMessageIntegrity(MessageContext messageContext) {
+        return false;
+    }
+
+    @Override
+    protected void doEncode(MessageContext messageContext) throws MessageEncodingException {
+        if (!(messageContext instanceof SAMLMessageContext)) {
+            throw new MessageEncodingException("Invalid message context type, this encoder only support SAMLMessageContext");
+        }
+        if (!(messageContext.getOutboundMessageTransport() instanceof HTTPOutTransport)) {
+            throw new MessageEncodingException("Invalid outbound message transport type, this encoder only support HTTPOutTransport");
+        }
+
+        SAMLMessageContext context = (SAMLMessageContext) messageContext;
+        SAMLObject message = context.getOutboundSAMLMessage();
+        if (message == null) {
+            throw new MessageEncodingException("No outbound SAML message contained in message context");
+        }
+
+        String endpointURL = getEndpointURL(context).buildURL();
+        if (message instanceof StatusResponseType) {
+            ((StatusResponseType) message).setDestination(endpointURL);
+        }
+
+        signMessage(context);
+        context.setOutboundMessage(message);
+
+        write(context, message, endpointURL);
+    }
+
+    private void write(SAMLMessageContext context, SAMLObject message, String endpointURL) throws MessageEncodingException {
+        String parameter = getParameter(message);
+        Element element = message.getDOM() != null ? message.getDOM() : marshallMessage(message);
+
+        HTTPOutTransport transport = (HTTPOutTransport) context.getOutboundMessageTransport();
+        HTTPTransportUtils.addNoCacheHeaders(transport);
+        HTTPTransportUtils.setUTF8Encoding(transport);
+        HTTPTransportUtils.setContentType(transport, "text/html");
+
+        try {
+            OutputStream out = transport.getOutgoingStream();
+            out.write(FORM_START);
+            out.write(bytes(escape(endpointURL)));
+            out.write(FORM_FIELDS);
+
+            String relayState = context.getRelayState();
+            if (checkRelayState(relayState)) {
+                out.write(FIELD_START);
+                out.write(bytes("RelayState"));
+                out.write(FIELD_VALUE);
+                out.write(bytes(escape(relayState)));
+                out.write(FIELD_END);
+            }
+
+            out.write(FIELD_START);
+            out.write(bytes(parameter));
+            out.write(FIELD_VALUE);
+            writeMessage(element, out);
+            out.write(FIELD_END);
+
+            out.write(FORM_END);
+            out.flush();
+        } catch (IOException e) {
+            log.error("Could not write POST form", e);
+            throw new MessageEncodingException("Error creating output document", e);
+        }
+    }
+
+    private static String getParameter(SAMLObject message) throws MessageEncodingException {
+        if (message instanceof RequestAbstractType) {
+            return "SAMLRequest";
+        } else if (message instanceof StatusResponseType) {
+            return "SAMLResponse";
+        }
+        throw new MessageEncodingException("SAML message is neither a SAML RequestAbstractType or StatusResponseType");
+    }
+
+    /**
+     * Serialize the message straight into a Base64 encoder, which only contains
+     * characters that are safe in an HTML attribute.
+     */
+    private static void writeMessage(Element element, OutputStream out) throws IOException {
+        OutputStream encoder = Base64.getEncoder().wrap(new FilterOutputStream(out) {
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                out.write(bytes, offset, length);
+            }
+
+            @Override
+            public void close() {
+                // Keep the response open
+            }
+
+        });
+        XMLHelper.writeNode(element, encoder);
+        encoder.close();
+    }
+
+    /**
+     * Escape a value for a double quoted HTML attribute.
+     * @param value the value
+     * @return the escaped value
+     */
+    static String escape(String value) {
+        StringBuilder escaped = null;
+        for (int index = 0; index < value.length(); index++) {
+            char c = value.charAt(index);
+            String replacement;
+            switch (c) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                case '\'':
+                    replacement = "&#x27;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                default:
+                    replacement = null;
+            }
+
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 16).append(value, 0, index);
+            }
+            if (replacement != null) {
+                escaped.append(replacement);
+            } else if (escaped != null) {
+                escaped.append(c);
+            }
+        }
+        return escaped != null ? escaped.toString() : value;
+    }
+
+}
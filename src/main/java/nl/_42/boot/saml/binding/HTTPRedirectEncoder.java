@@ -0,0 +1,238 @@
+package nl._42.boot.saml.binding;
+
+import org.opensaml.common.SAMLObject;
+import org.opensaml.saml2.binding.encoding.HTTPRedirectDeflateEncoder;
+import org.opensaml.ws.message.encoder.MessageEncodingException;
+import org.opensaml.xml.security.SecurityHelper;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.util.XMLHelper;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * HTTP-Redirect encoder that reuses deflaters and their buffers from a pool, and serializes
+ * the message straight into the deflater, without building the XML string first. The query string
+ * is signed with a {@link Signature} kept per thread, algorithm and key. Produces the
+ * same redirect URL as the default encoder.
+ */
+public class HTTPRedirectEncoder extends HTTPRedirectDeflateEncoder {
+
+    private static final int MAX_IDLE_COMPRESSORS = Runtime.getRuntime().availableProcessors() * 2;
+
+    private static final ThreadLocal<Map<String, CachedSignature>> SIGNATURES = ThreadLocal.withInitial(HashMap::new);
+
+    private final Queue<Compressor> compressors = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger idle = new AtomicInteger();
+
+    @Override
+    protected String deflateAndBase64Encode(SAMLObject message) throws MessageEncodingException {
+        Compressor compressor = borrow();
+        boolean completed = false;
+        try {
+            XMLHelper.writeNode(marshallMessage(message), compressor);
+            String encoded = compressor.finishAndEncode();
+            completed = true;
+            return encoded;
+        } finally {
+            release(compressor, completed);
+        }
+    }
+
+    private Compressor borrow() {
+        Compressor compressor = compressors.poll();
+        if (compressor == null) {
+            return new Compressor();
+        }
+        idle.decrementAndGet();
+        return compressor;
+    }
+
+    /**
+     * Return the compressor to the pool, unless it failed halfway a message.
+     */
+    private void release(Compressor compressor, boolean completed) {
+        if (!completed) {
+            compressor.deflater.end();
+            return;
+        }
+
+        compressor.reset();
+        if (idle.incrementAndGet() <= MAX_IDLE_COMPRESSORS) {
+            compressors.offer(compressor);
+        } else {
+            idle.decrementAndGet();
+            compressor.deflater.end();
+        }
+    }
+
+    @Override
+    protected String generateSignature(Credential credential, String algorithmURI, String queryString) throws MessageEncodingException {
+        Key key = SecurityHelper.extractSigningKey(credential);
+        String algorithm = SecurityHelper.getAlgorithmIDFromURI(algorithmURI);
+        if (!(key instanceof PrivateKey) || algorithm == null || SecurityHelper.isHMAC(algorithmURI)) {
+            return super.generateSignature(credential, algorithmURI, queryString);
+        }
+
+        try {
+            Signature signature = getSignature(algorithm, (PrivateKey) key);
+            signature.update(queryString.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(signature.sign());
+        } catch (GeneralSecurityException e) {
+            SIGNATURES.get().remove(algorithm);
+            throw new MessageEncodingException("Unable to sign URL query string", e);
+        }
+    }
+
+    /**
+     * A signature returns to its initialized state after signing, so it is only
+     * initialized again when the key changes.
+     */
+    private static Signature getSignature(String algorithm, PrivateKey key) throws GeneralSecurityException {
+        Map<String, CachedSignature> signatures = SIGNATURES.get();
+        CachedSignature cached = signatures.get(algorithm);
+        if (cached == null) {
+            cached = new CachedSignature(Signature.getInstance(algorithm));
+            signatures.put(algorithm, cached);
+        }
+        if (cached.key != key) {
+            cached.key = null;
+            cached.signature.initSign(key);
+            cached.key = key;
+        }
+        return cached.signature;
+    }
+
+    /**
+     * Writer that encodes the serialized message as UTF-8 straight into a deflater,
+     * reusing its buffers for each message.
+     */
+    private static final class Compressor extends Writer {
+
+        private final Deflater deflater = new Deflater(Deflater.DEFLATED, true);
+
+        private final byte[] input = new byte[4096];
+
+        private int position;
+
+        private byte[] output = new byte[2048];
+
+        private int length;
+
+        private char highSurrogate;
+
+        @Override
+        public void write(int c) {
+            write((char) c);
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int count) {
+            for (int index = offset; index < offset + count; index++) {
+                write(chars[index]);
+            }
+        }
+
+        @Override
+        public void write(String value, int offset, int count) {
+            for (int index = offset; index < offset + count; index++) {
+                write(value.charAt(index));
+            }
+        }
+
+        private void write(char c) {
+            if (position > input.length - 4) {
+                deflate();
+            }
+
+            if (highSurrogate != 0) {
+                int codePoint = Character.toCodePoint(highSurrogate, c);
+                highSurrogate = 0;
+                input[position++] = (byte) (0xF0 | (codePoint >> 18));
+                input[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                input[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                input[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (c < 0x80) {
+                input[position++] = (byte) c;
+            } else if (c < 0x800) {
+                input[position++] = (byte) (0xC0 | (c >> 6));
+                input[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else {
+                input[position++] = (byte) (0xE0 | (c >> 12));
+                input[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                input[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        private void deflate() {
+            deflater.setInput(input, 0, position);
+            position = 0;
+            while (!deflater.needsInput()) {
+                drain();
+            }
+        }
+
+        private void drain() {
+            if (length == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            length += deflater.deflate(output, length, output.length - length);
+        }
+
+        private String finishAndEncode() {
+            deflate();
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain();
+            }
+
+            ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(output, 0, length));
+            return new String(encoded.array(), 0, encoded.limit(), StandardCharsets.US_ASCII);
+        }
+
+        private void reset() {
+            deflater.reset();
+            position = 0;
+            length = 0;
+            highSurrogate = 0;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    private static final class CachedSignature {
+
+        private final Signature signature;
+
+        private PrivateKey key;
+
+        private CachedSignature(Signature signature) {
+            this.signature = signature;
+        }
+
+    }
+
+}
@@ -6,6 +6,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.util.Collections;
 import java.util.Map;
 
@@ -17,8 +18,8 @@ public class SAMLConfigController {
     private final SAMLLoginUrlResolver resolver;
 
     @GetMapping
-    public Map<String, String> getConfig(HttpServletRequest request) {
-        String loginUrl = resolver.getLoginUrl(request);
+    public Map<String, String> getConfig(HttpServletRequest request, HttpServletResponse response) {
+        String loginUrl = resolver.getLoginUrl(request, response);
         return Collections.singletonMap("loginUrl", loginUrl);
     }
 
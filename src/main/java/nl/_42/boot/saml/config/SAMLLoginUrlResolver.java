@@ -2,16 +2,20 @@ package nl._42.boot.saml.config;
 
 import lombok.extern.slf4j.Slf4j;
 import nl._42.boot.saml.SAMLProperties;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
-import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.security.saml.SAMLEntryPoint;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.ResponseErrorHandler;
-import org.springframework.web.client.RestTemplate;
 
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
-import java.net.URI;
-import java.util.Objects;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 
 import static org.apache.commons.lang3.StringUtils.isNotEmpty;
 
@@ -20,16 +24,14 @@ import static org.apache.commons.lang3.StringUtils.isNotEmpty;
 class SAMLLoginUrlResolver {
 
     private final SAMLProperties properties;
-    private final RestTemplate template;
+
+    private SAMLEntryPoint entryPoint;
 
     SAMLLoginUrlResolver(SAMLProperties properties) {
         this.properties = properties;
-
-        this.template = new RestTemplate();
-        template.setErrorHandler(new EmptyErrorHandler());
     }
 
-    public String getLoginUrl(HttpServletRequest request) {
+    public String getLoginUrl(HttpServletRequest request, HttpServletResponse response) {
         if (!properties.isEnabled()) {
             return "";
         }
@@ -38,7 +40,7 @@ class SAMLLoginUrlResolver {
         String loginUrl = getLoginUrl(successUrl);
 
         if (properties.isSkipLoginRedirect()) {
-            loginUrl = getLocation(loginUrl);
+            loginUrl = getLocation(request, response, loginUrl);
         }
 
         return loginUrl;
@@ -52,25 +54,48 @@ class SAMLLoginUrlResolver {
         return builder.build();
     }
 
-    private String getLocation(String url) {
-        ResponseEntity<String> entity = template.getForEntity(url, String.class);
+    /**
+     * Perform the login of the entry point in process, on the current request, and capture
+     * the redirect to the identity provider. The success URL is stored in the current session.
+     */
+    private String getLocation(HttpServletRequest request, HttpServletResponse response, String url) {
+        if (entryPoint == null) {
+            log.warn("Could not resolve SAML login redirect, no entry point available");
+            return url;
+        }
 
-        HttpStatus status = entity.getStatusCode();
-        URI location = entity.getHeaders().getLocation();
+        RedirectCapturingResponse capture = new RedirectCapturingResponse(response);
+        try {
+            entryPoint.commence(request, capture, null);
+        } catch (IOException | ServletException | RuntimeException e) {
+            log.warn("Could not resolve SAML login redirect, falling back to login URL", e);
+            return url;
+        }
 
-        if (location != null) {
-            url = location.toString();
-        } else if (status.is3xxRedirection()) {
-            Objects.requireNonNull("SAML login with status " + status.value() + " (redirect) is missing the required 'Location' header");
-        } else if (status.isError()) {
-            log.warn("Expected HTTP status 3xx (redirect) on login, but received error status {}", status.value());
+        if (capture.location != null) {
+            url = capture.location;
+        } else if (isError(capture.status)) {
+            log.warn("Expected HTTP status 3xx (redirect) on login, but received error status {}", capture.status);
         } else {
-            log.warn("Expected HTTP status 3xx (redirect) on login, but received status {}, please disable 'saml.skip_login_redirect'", status.value());
+            log.warn("Expected HTTP status 3xx (redirect) on login, but received status {}, please disable 'saml.skip_login_redirect'", capture.status);
         }
 
         return url;
     }
 
+    /**
+     * Whether the status is an error, also for non standard statuses of custom entry points.
+     */
+    private static boolean isError(int status) {
+        HttpStatus resolved = HttpStatus.resolve(status);
+        return resolved != null ? resolved.isError() : status >= 400;
+    }
+
+    @Autowired(required = false)
+    public void setEntryPoint(SAMLEntryPoint entryPoint) {
+        this.entryPoint = entryPoint;
+    }
+
     private class UriBuilder {
 
         private StringBuilder uri;
@@ -103,15 +128,121 @@ class SAMLLoginUrlResolver {
 
     }
 
-    private static class EmptyErrorHandler implements ResponseErrorHandler {
+    /**
+     * Captures the redirect of the entry point, without touching the actual response.
+     * Only cookies, such as the session cookie, end up in the actual response.
+     */
+    private static class RedirectCapturingResponse extends HttpServletResponseWrapper {
+
+        private String location;
+
+        private int status = HttpServletResponse.SC_OK;
+
+        RedirectCapturingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void sendRedirect(String location) {
+            this.location = location;
+            this.status = HttpServletResponse.SC_FOUND;
+        }
+
+        @Override
+        public void sendError(int status) {
+            this.status = status;
+        }
+
+        @Override
+        public void sendError(int status, String message) {
+            this.status = status;
+        }
+
+        @Override
+        public void setStatus(int status) {
+            this.status = status;
+        }
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+        }
+
+        @Override
+        public void setDateHeader(String name, long date) {
+        }
+
+        @Override
+        public void addDateHeader(String name, long date) {
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+        }
+
+        @Override
+        public void setContentType(String type) {
+        }
 
         @Override
-        public boolean hasError(ClientHttpResponse response) {
-            return false;
+        public void setCharacterEncoding(String charset) {
         }
 
         @Override
-        public void handleError(ClientHttpResponse response) {
+        public void setContentLength(int length) {
+        }
+
+        @Override
+        public void setContentLengthLong(long length) {
+        }
+
+        @Override
+        public void flushBuffer() {
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void resetBuffer() {
+        }
+
+        @Override
+        public PrintWriter getWriter() {
+            return new PrintWriter(new StringWriter());
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return new ServletOutputStream() {
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener listener) {
+                }
+
+                @Override
+                public void write(int b) {
+                }
+
+            };
         }
 
     }
@@ -13,8 +13,13 @@ import org.springframework.security.saml.key.EmptyKeyManager;
 import org.springframework.security.saml.key.JKSKeyManager;
 import org.springframework.security.saml.key.KeyManager;
 
+import java.io.File;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -41,18 +46,91 @@ public class KeystoreProperties {
 
     private String key;
 
+    /**
+     * Keystore type of the file or Base64 content, e.g. JKS or PKCS12.
+     */
+    private String type = "JKS";
+
+    /**
+     * PEM encoded certificate chain, used instead of a keystore.
+     */
+    private String certificate;
+
+    /**
+     * PEM encoded PKCS#8 private key, used instead of a keystore.
+     */
+    private String privateKey;
+
+    /**
+     * Interval in seconds to check the key files for changes, disabled when 0.
+     */
+    private int reloadInterval;
+
     /**
      * Build key manager.
      * @return the key manager
      */
     public KeyManager getKeyManager() {
-        Resource resource = getResource();
-        if (resource == null) {
+        if (!isConfigured()) {
             return EMPTY;
         }
 
+        List<File> files = getFiles();
+        if (reloadInterval <= 0 || files.isEmpty()) {
+            return loadKeyManager();
+        }
+
+        ReloadingKeyManager keyManager = new ReloadingKeyManager(this::loadKeyManager, files);
+        keyManager.start(reloadInterval * 1000L);
+        log.info("Watching SAML key files for changes every {} seconds.", reloadInterval);
+        return keyManager;
+    }
+
+    private boolean isConfigured() {
+        return isPem() || StringUtils.isNotBlank(fileName) || StringUtils.isNotBlank(base64);
+    }
+
+    private boolean isPem() {
+        return StringUtils.isNotBlank(certificate) && StringUtils.isNotBlank(privateKey);
+    }
+
+    private KeyManager loadKeyManager() {
+        if (isPem()) {
+            String alias = StringUtils.defaultIfBlank(key, "key");
+            String keyPassword = StringUtils.defaultString(password);
+
+            KeyStore keyStore = KeyStores.fromPem(RESOURCES.getResource(certificate), RESOURCES.getResource(privateKey), alias, keyPassword);
+            log.info("SAML key loaded from PEM files.");
+            return new JKSKeyManager(keyStore, Collections.singletonMap(alias, keyPassword), alias);
+        }
+
+        Resource resource = getResource();
         Map<String, String> passwords = Collections.singletonMap(user, password);
-        return new JKSKeyManager(resource, password, passwords, key);
+        KeyStore keyStore = KeyStores.load(resource, type, password);
+        return new JKSKeyManager(keyStore, passwords, key);
+    }
+
+    private List<File> getFiles() {
+        List<String> locations = new ArrayList<>();
+        if (isPem()) {
+            locations.add(certificate);
+            locations.add(privateKey);
+        } else if (StringUtils.isNotBlank(fileName)) {
+            locations.add(fileName);
+        }
+
+        List<File> files = new ArrayList<>();
+        for (String location : locations) {
+            Resource resource = RESOURCES.getResource(location);
+            if (resource.isFile()) {
+                try {
+                    files.add(resource.getFile());
+                } catch (IOException e) {
+                    log.warn("Could not watch SAML key file {}", location, e);
+                }
+            }
+        }
+        return files;
     }
 
     private Resource getResource() {
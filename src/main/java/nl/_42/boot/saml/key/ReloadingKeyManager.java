@@ -0,0 +1,268 @@
+package nl._42.boot.saml.key;
+
+import lombok.extern.slf4j.Slf4j;
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.security.credential.Credential;
+import org.springframework.security.saml.key.KeyManager;
+
+import java.io.File;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Key manager that reloads its key material when the watched files change. The new key
+ * manager is swapped in atomically, while the previous key manager remains available as
+ * fallback, so logins that were started before the swap can still be completed.
+ */
+@Slf4j
+public class ReloadingKeyManager implements KeyManager, AutoCloseable {
+
+    private final Supplier<KeyManager> loader;
+
+    private final List<File> files;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile Keys keys;
+
+    private Timer timer;
+
+    public ReloadingKeyManager(Supplier<KeyManager> loader, Collection<File> files) {
+        this.loader = loader;
+        this.files = new ArrayList<>(files);
+        this.keys = new Keys(getModified(), loader.get(), null);
+    }
+
+    /**
+     * Start checking the files for changes in the background.
+     * @param interval the check interval, in milliseconds
+     */
+    public synchronized void start(long interval) {
+        if (timer != null) {
+            return;
+        }
+
+        timer = new Timer("saml-keystore", true);
+        timer.schedule(new TimerTask() {
+
+            @Override
+            public void run() {
+                reloadIfModified();
+            }
+
+        }, interval, interval);
+    }
+
+    /**
+     * Reload the key material when any of the files changed.
+     * @return whether the key material was reloaded
+     */
+    public boolean reloadIfModified() {
+        List<Long> modified = getModified();
+        if (modified.equals(keys.modified)) {
+            return false;
+        }
+        return reload(modified);
+    }
+
+    /**
+     * Reload the key material, regardless of changes.
+     * @return whether the key material was reloaded
+     */
+    public boolean reload() {
+        return reload(getModified());
+    }
+
+    private synchronized boolean reload(List<Long> modified) {
+        Keys current = this.keys;
+
+        KeyManager loaded;
+        try {
+            loaded = loader.get();
+        } catch (RuntimeException e) {
+            log.error("Could not reload SAML keystore, keeping the current keys", e);
+            // Remember the modification, to prevent retrying until the files change again
+            this.keys = new Keys(modified, current.current, current.previous);
+            return false;
+        }
+
+        this.keys = new Keys(modified, loaded, current.current);
+        log.info("Reloaded SAML keystore, default key is now '{}'", loaded.getDefaultCredentialName());
+
+        for (Listener listener : listeners) {
+            try {
+                listener.onReload(this);
+            } catch (RuntimeException e) {
+                log.warn("Could not notify listener of reloaded SAML keystore", e);
+            }
+        }
+        return true;
+    }
+
+    private List<Long> getModified() {
+        List<Long> modified = new ArrayList<>(files.size());
+        for (File file : files) {
+            modified.add(file.lastModified());
+            modified.add(file.length());
+        }
+        return modified;
+    }
+
+    /**
+     * Register a listener that is notified after each reload.
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    @Override
+    public Credential getCredential(String keyName) {
+        Keys keys = this.keys;
+        Credential credential = keys.current.getCredential(keyName);
+        if (credential == null && keys.previous != null) {
+            credential = keys.previous.getCredential(keyName);
+        }
+        return credential;
+    }
+
+    @Override
+    public Credential getDefaultCredential() {
+        return keys.current.getDefaultCredential();
+    }
+
+    @Override
+    public String getDefaultCredentialName() {
+        return keys.current.getDefaultCredentialName();
+    }
+
+    @Override
+    public Set<String> getAvailableCredentials() {
+        return keys.current.getAvailableCredentials();
+    }
+
+    @Override
+    public X509Certificate getCertificate(String alias) {
+        Keys keys = this.keys;
+        X509Certificate certificate = keys.current.getCertificate(alias);
+        if (certificate == null && keys.previous != null) {
+            certificate = keys.previous.getCertificate(alias);
+        }
+        return certificate;
+    }
+
+    /**
+     * Retrieve the credential of both the current and the previous keys, so messages
+     * encrypted for the previous key can still be decrypted after a reload.
+     * @param keyName the key name, or {@code null} for the default key
+     * @return the credentials, current first
+     */
+    public List<Credential> getCredentials(String keyName) {
+        Keys keys = this.keys;
+
+        List<Credential> credentials = new ArrayList<>(2);
+        addCredential(credentials, keys.current, keyName);
+        if (keys.previous != null) {
+            addCredential(credentials, keys.previous, keyName);
+        }
+        return credentials;
+    }
+
+    private static void addCredential(List<Credential> credentials, KeyManager keyManager, String keyName) {
+        Credential credential = keyName != null ? keyManager.getCredential(keyName) : keyManager.getDefaultCredential();
+        if (credential != null) {
+            credentials.add(credential);
+        }
+    }
+
+    /**
+     * Resolve the credentials of the current keys, followed by those of the previous keys.
+     */
+    @Override
+    public Iterable<Credential> resolve(CriteriaSet criteria) throws SecurityException {
+        Keys keys = this.keys;
+
+        List<Credential> credentials = new ArrayList<>();
+        keys.current.resolve(criteria).forEach(credentials::add);
+        if (keys.previous != null) {
+            keys.previous.resolve(criteria).forEach(credentials::add);
+        }
+        return credentials;
+    }
+
+    @Override
+    public Credential resolveSingle(CriteriaSet criteria) throws SecurityException {
+        Keys keys = this.keys;
+        Credential credential = keys.current.resolveSingle(criteria);
+        if (credential == null && keys.previous != null) {
+            credential = keys.previous.resolveSingle(criteria);
+        }
+        return credential;
+    }
+
+    /**
+     * Retrieve the current key manager.
+     * @return the current key manager
+     */
+    public KeyManager getCurrent() {
+        return keys.current;
+    }
+
+    /**
+     * Retrieve the key manager that was replaced by the last reload, if any.
+     * @return the previous key manager, or {@code null}
+     */
+    public KeyManager getPrevious() {
+        return keys.previous;
+    }
+
+    /**
+     * Listener of reloaded key material.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * Invoked after the key material was reloaded.
+         * @param keyManager the key manager
+         */
+        void onReload(ReloadingKeyManager keyManager);
+
+    }
+
+    /**
+     * Immutable snapshot of the key material, swapped as a whole.
+     */
+    private static final class Keys {
+
+        private final List<Long> modified;
+
+        private final KeyManager current;
+
+        private final KeyManager previous;
+
+        private Keys(List<Long> modified, KeyManager current, KeyManager previous) {
+            this.modified = modified;
+            this.current = current;
+            this.previous = previous;
+        }
+
+    }
+
+}
@@ -0,0 +1,371 @@
+package nl._42.boot.saml.key;
+
+import lombok.extern.slf4j.Slf4j;
+import nl._42.boot.saml.metrics.SAMLEvents;
+import nl._42.boot.saml.metrics.SAMLMetrics;
+import nl._42.boot.saml.metrics.SAMLStage;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml2.encryption.Decrypter;
+import org.opensaml.saml2.encryption.EncryptedElementTypeEncryptedKeyResolver;
+import org.opensaml.xml.encryption.ChainingEncryptedKeyResolver;
+import org.opensaml.xml.encryption.CipherData;
+import org.opensaml.xml.encryption.DecryptionException;
+import org.opensaml.xml.encryption.EncryptedData;
+import org.opensaml.xml.encryption.EncryptedKey;
+import org.opensaml.xml.encryption.EncryptedType;
+import org.opensaml.xml.encryption.EncryptionConstants;
+import org.opensaml.xml.encryption.InlineEncryptedKeyResolver;
+import org.opensaml.xml.encryption.OAEPparams;
+import org.opensaml.xml.encryption.SimpleRetrievalMethodEncryptedKeyResolver;
+import org.opensaml.xml.parse.ParserPool;
+import org.opensaml.xml.parse.StaticBasicParserPool;
+import org.opensaml.xml.parse.XMLParserException;
+import org.opensaml.xml.security.SecurityHelper;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.keyinfo.StaticKeyInfoCredentialResolver;
+import org.opensaml.xml.security.x509.X509Credential;
+import org.opensaml.xml.signature.KeyInfo;
+import org.opensaml.xml.signature.KeyName;
+import org.opensaml.xml.signature.KeyValue;
+import org.opensaml.xml.signature.X509Data;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import javax.xml.XMLConstants;
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.MGF1ParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decrypter that can be shared between messages. The private key is selected from
+ * the key info of the encrypted key with a single lookup, by certificate, key name
+ * or RSA modulus, and unwrapped with a cipher that is reused per thread. The common
+ * RSA-OAEP and AES algorithms are decrypted directly, other algorithms are left to
+ * OpenSAML.
+ */
+@Slf4j
+public class SAMLDecrypter extends Decrypter {
+
+    private static final ChainingEncryptedKeyResolver ENCRYPTED_KEY_RESOLVER = new ChainingEncryptedKeyResolver();
+
+    static {
+        ENCRYPTED_KEY_RESOLVER.getResolverChain().add(new InlineEncryptedKeyResolver());
+        ENCRYPTED_KEY_RESOLVER.getResolverChain().add(new EncryptedElementTypeEncryptedKeyResolver());
+        ENCRYPTED_KEY_RESOLVER.getResolverChain().add(new SimpleRetrievalMethodEncryptedKeyResolver());
+    }
+
+    static final String DECRYPTION = "saml.decryption";
+
+    private static final String RSA_OAEP = "RSA/ECB/OAEPPadding";
+    private static final String AES_CBC = "AES/CBC/ISO10126Padding";
+    private static final String AES_GCM = "AES/GCM/NoPadding";
+
+    private static final int CBC_IV_LENGTH = 16;
+    private static final int GCM_IV_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 128;
+
+    /**
+     * Decrypted content is adopted into the document of the encrypted element, which
+     * requires deferred node expansion to be disabled, as in the OpenSAML parser pool.
+     */
+    private static final StaticBasicParserPool PARSER_POOL = new StaticBasicParserPool();
+
+    static {
+        Map<String, Boolean> features = new HashMap<>();
+        features.put("http://apache.org/xml/features/dom/defer-node-expansion", Boolean.FALSE);
+        features.put(XMLConstants.FEATURE_SECURE_PROCESSING, Boolean.TRUE);
+        features.put("http://apache.org/xml/features/disallow-doctype-decl", Boolean.TRUE);
+
+        PARSER_POOL.setNamespaceAware(true);
+        PARSER_POOL.setExpandEntityReferences(false);
+        PARSER_POOL.setBuilderFeatures(features);
+        try {
+            PARSER_POOL.initialize();
+        } catch (XMLParserException e) {
+            throw new IllegalStateException("Could not initialize decryption parser pool", e);
+        }
+    }
+
+    private static final ThreadLocal<Map<String, Cipher>> CIPHERS = ThreadLocal.withInitial(HashMap::new);
+
+    private final List<Credential> credentials;
+
+    private final Map<Object, Credential> index = new HashMap<>();
+
+    private SAMLMetrics metrics = SAMLMetrics.NONE;
+
+    /**
+     * Create a new decrypter.
+     * @param credentials the decryption credentials, preferred first
+     */
+    public SAMLDecrypter(List<Credential> credentials) {
+        super(null, new StaticKeyInfoCredentialResolver(credentials), ENCRYPTED_KEY_RESOLVER);
+        setRootInNewDocument(true);
+
+        this.credentials = Collections.unmodifiableList(new ArrayList<>(credentials));
+
+        // Reverse order, so the preferred credential wins on duplicates
+        for (int i = credentials.size() - 1; i >= 0; i--) {
+            register(credentials.get(i));
+        }
+    }
+
+    private void register(Credential credential) {
+        for (String keyName : credential.getKeyNames()) {
+            index.put(keyName, credential);
+        }
+        if (credential.getPublicKey() instanceof RSAPublicKey) {
+            index.put(((RSAPublicKey) credential.getPublicKey()).getModulus(), credential);
+        }
+        if (credential instanceof X509Credential) {
+            X509Certificate certificate = ((X509Credential) credential).getEntityCertificate();
+            if (certificate != null) {
+                try {
+                    index.put(new Fingerprint(certificate.getEncoded()), credential);
+                } catch (CertificateEncodingException e) {
+                    log.warn("Could not index decryption certificate", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolve the credentials that could decrypt the key. When the key info identifies
+     * one of our credentials, only that credential is returned.
+     * @param keyInfo the key info of the encrypted key, may be {@code null}
+     * @return the candidate credentials
+     */
+    List<Credential> resolve(KeyInfo keyInfo) {
+        if (keyInfo != null) {
+            for (X509Data data : keyInfo.getX509Datas()) {
+                for (org.opensaml.xml.signature.X509Certificate certificate : data.getX509Certificates()) {
+                    Credential credential = index.get(new Fingerprint(decode(certificate.getValue())));
+                    if (credential != null) {
+                        return Collections.singletonList(credential);
+                    }
+                }
+            }
+            for (KeyName keyName : keyInfo.getKeyNames()) {
+                Credential credential = index.get(keyName.getValue());
+                if (credential != null) {
+                    return Collections.singletonList(credential);
+                }
+            }
+            for (KeyValue keyValue : keyInfo.getKeyValues()) {
+                if (keyValue.getRSAKeyValue() != null && keyValue.getRSAKeyValue().getModulus() != null) {
+                    BigInteger modulus = keyValue.getRSAKeyValue().getModulus().getValueBigInt();
+                    Credential credential = index.get(modulus);
+                    if (credential != null) {
+                        return Collections.singletonList(credential);
+                    }
+                }
+            }
+        }
+        return credentials;
+    }
+
+    @Override
+    public Assertion decrypt(EncryptedAssertion encryptedAssertion) throws DecryptionException {
+        long start = System.nanoTime();
+        SAMLStage stage = SAMLEvents.begin(SAMLEvents.DECRYPTION);
+        DecryptionException failure = null;
+        try {
+            return super.decrypt(encryptedAssertion);
+        } catch (DecryptionException e) {
+            failure = e;
+            throw e;
+        } finally {
+            metrics.record(DECRYPTION, System.nanoTime() - start,
+                SAMLMetrics.OUTCOME, failure == null ? SAMLMetrics.SUCCESS : SAMLMetrics.FAILURE);
+            stage.end(failure == null ? SAMLMetrics.SUCCESS : SAMLMetrics.FAILURE);
+        }
+    }
+
+    @Override
+    public Key decryptKey(EncryptedKey encryptedKey, String algorithm) throws DecryptionException {
+        for (Credential credential : resolve(encryptedKey.getKeyInfo())) {
+            Key kek = credential.getPrivateKey() != null ? credential.getPrivateKey() : credential.getSecretKey();
+            if (kek == null) {
+                continue;
+            }
+
+            try {
+                return decryptKey(encryptedKey, algorithm, kek);
+            } catch (DecryptionException e) {
+                log.debug("Could not decrypt key with credential {}", credential.getKeyNames(), e);
+            }
+        }
+        throw new DecryptionException("Failed to decrypt key using any of the resolved credentials");
+    }
+
+    @Override
+    public Key decryptKey(EncryptedKey encryptedKey, String algorithm, Key kek) throws DecryptionException {
+        String keyAlgorithm = encryptedKey.getEncryptionMethod() != null ? encryptedKey.getEncryptionMethod().getAlgorithm() : null;
+        String jceKeyAlgorithm = algorithm != null ? SecurityHelper.getKeyAlgorithmFromURI(algorithm) : null;
+        byte[] value = getCipherValue(encryptedKey);
+        if (!EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSAOAEP.equals(keyAlgorithm) || !(kek instanceof PrivateKey) || jceKeyAlgorithm == null || value == null) {
+            return super.decryptKey(encryptedKey, algorithm, kek);
+        }
+
+        // Rejects unsupported digest methods
+        preProcessEncryptedKey(encryptedKey, algorithm, kek);
+
+        OAEPparams params = encryptedKey.getEncryptionMethod().getOAEPparams();
+        PSource source = params != null && params.getValue() != null ? new PSource.PSpecified(decode(params.getValue())) : PSource.PSpecified.DEFAULT;
+
+        try {
+            Cipher cipher = getCipher(RSA_OAEP);
+            cipher.init(Cipher.UNWRAP_MODE, kek, new OAEPParameterSpec("SHA-1", "MGF1", MGF1ParameterSpec.SHA1, source));
+            return cipher.unwrap(value, jceKeyAlgorithm, Cipher.SECRET_KEY);
+        } catch (GeneralSecurityException e) {
+            throw new DecryptionException("Error decrypting the encrypted key", e);
+        }
+    }
+
+    @Override
+    public DocumentFragment decryptDataToDOM(EncryptedData encryptedData, Key dataEncKey) throws DecryptionException {
+        String algorithm = encryptedData.getEncryptionMethod() != null ? encryptedData.getEncryptionMethod().getAlgorithm() : null;
+        boolean gcm = isGcm(algorithm);
+        byte[] value = getCipherValue(encryptedData);
+        if (dataEncKey == null || value == null || !(gcm || isCbc(algorithm))
+            || !EncryptionConstants.TYPE_ELEMENT.equals(encryptedData.getType())) {
+            return super.decryptDataToDOM(encryptedData, dataEncKey);
+        }
+
+        checkAndMarshall(encryptedData);
+
+        byte[] decrypted;
+        try {
+            if (gcm) {
+                decrypted = decrypt(AES_GCM, dataEncKey, new GCMParameterSpec(GCM_TAG_LENGTH, value, 0, GCM_IV_LENGTH), value, GCM_IV_LENGTH);
+            } else {
+                decrypted = decrypt(AES_CBC, dataEncKey, new IvParameterSpec(value, 0, CBC_IV_LENGTH), value, CBC_IV_LENGTH);
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new DecryptionException("Error decrypting the encrypted data element", e);
+        }
+
+        return parse(decrypted, encryptedData.getDOM().getOwnerDocument());
+    }
+
+    private static byte[] decrypt(String transformation, Key key, AlgorithmParameterSpec spec, byte[] value, int offset) throws GeneralSecurityException {
+        if (value.length <= offset) {
+            throw new GeneralSecurityException("Cipher value is too short");
+        }
+
+        Cipher cipher = getCipher(transformation);
+        cipher.init(Cipher.DECRYPT_MODE, key, spec);
+        return cipher.doFinal(value, offset, value.length - offset);
+    }
+
+    private DocumentFragment parse(byte[] decrypted, Document owner) throws DecryptionException {
+        Document document;
+        try {
+            document = PARSER_POOL.parse(new ByteArrayInputStream(decrypted));
+        } catch (XMLParserException e) {
+            throw new DecryptionException("Error parsing input stream", e);
+        }
+
+        DocumentFragment fragment = owner.createDocumentFragment();
+        fragment.appendChild(owner.adoptNode(document.getDocumentElement()));
+        return fragment;
+    }
+
+    public void setMetrics(SAMLMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Share one parser pool between all decrypters, instead of one per decrypter.
+     */
+    @Override
+    protected ParserPool buildParserPool() {
+        return PARSER_POOL;
+    }
+
+    private static Cipher getCipher(String transformation) throws GeneralSecurityException {
+        Map<String, Cipher> ciphers = CIPHERS.get();
+        Cipher cipher = ciphers.get(transformation);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            ciphers.put(transformation, cipher);
+        }
+        return cipher;
+    }
+
+    private static byte[] getCipherValue(EncryptedType encrypted) {
+        CipherData data = encrypted.getCipherData();
+        if (data == null || data.getCipherValue() == null || data.getCipherValue().getValue() == null) {
+            return null;
+        }
+        return decode(data.getCipherValue().getValue());
+    }
+
+    private static byte[] decode(String value) {
+        return Base64.getMimeDecoder().decode(value);
+    }
+
+    private static boolean isCbc(String algorithm) {
+        return EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES128.equals(algorithm)
+            || EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES192.equals(algorithm)
+            || EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES256.equals(algorithm);
+    }
+
+    private static boolean isGcm(String algorithm) {
+        return EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES128_GCM.equals(algorithm)
+            || EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES192_GCM.equals(algorithm)
+            || EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES256_GCM.equals(algorithm);
+    }
+
+    /**
+     * SHA-256 digest of an encoded certificate, used as index key.
+     */
+    private static final class Fingerprint {
+
+        private final byte[] digest;
+
+        private final int hash;
+
+        private Fingerprint(byte[] encoded) {
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256").digest(encoded);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("SHA-256 is not supported", e);
+            }
+            this.hash = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Fingerprint && MessageDigest.isEqual(digest, ((Fingerprint) other).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+}
@@ -0,0 +1,41 @@
+package nl._42.boot.saml.metadata;
+
+import java.util.Set;
+
+/**
+ * Metadata provider that knows the names of its identity and service providers,
+ * without unmarshalling or even retrieving its metadata.
+ */
+public interface EntityNames {
+
+    /**
+     * Retrieve the entityIDs of all SAML 2.0 identity providers.
+     * @return the identity provider names
+     */
+    Set<String> getIDPEntityNames();
+
+    /**
+     * Retrieve the entityIDs of all SAML 2.0 service providers.
+     * @return the service provider names
+     */
+    Set<String> getSPEntityNames();
+
+    /**
+     * Determine if an entity is a SAML 2.0 identity provider.
+     * @param entityId the entityID
+     * @return {@code true} when the entity is an identity provider
+     */
+    default boolean isIDP(String entityId) {
+        return getIDPEntityNames().contains(entityId);
+    }
+
+    /**
+     * Determine if an entity is a SAML 2.0 service provider.
+     * @param entityId the entityID
+     * @return {@code true} when the entity is a service provider
+     */
+    default boolean isSP(String entityId) {
+        return getSPEntityNames().contains(entityId);
+    }
+
+}
@@ -0,0 +1,26 @@
+package nl._42.boot.saml.metadata;
+
+import lombok.Data;
+
+/**
+ * Wrapper of all identity provider properties.
+ */
+@Data
+public class IdpProperties {
+
+    /**
+     * IDP URL, the entityID of the identity provider.
+     */
+    private String url;
+
+    /**
+     * Metadata URL, either a HTTP(S) URL or a 'file:' or 'classpath:' location.
+     */
+    private String metadataUrl;
+
+    /**
+     * File to keep the last retrieved metadata in, used on first use.
+     */
+    private String metadataBackupFile;
+
+}
@@ -0,0 +1,142 @@
+package nl._42.boot.saml.metadata;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.httpclient.HttpClient;
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.provider.FilterException;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.io.UnmarshallingException;
+import org.w3c.dom.Document;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Timer;
+
+/**
+ * Metadata provider for large aggregates, such as federation metadata. Instead of
+ * keeping the complete metadata in memory, entity descriptors are indexed by entityID
+ * and only unmarshalled on first use.
+ * <p>
+ * Entities are resolved with {@link #getEntityDescriptor(String)}, the metadata itself
+ * only contains the root entities descriptor without any entities. When a metadata
+ * filter is configured, such as signature validation, the complete metadata is
+ * filtered once per retrieval and only the remaining entities are indexed.
+ */
+@Slf4j
+public class IndexedMetadataProvider extends ResourceMetadataProvider implements EntityNames {
+
+    private volatile MetadataIndex index = MetadataIndex.EMPTY;
+
+    /**
+     * Index of the metadata being processed, used once the metadata is accepted.
+     */
+    private MetadataIndex pending;
+
+    /**
+     * Root of the metadata being processed, already filtered on indexing.
+     */
+    private XMLObject pendingRoot;
+
+    public IndexedMetadataProvider(Timer timer, HttpClient httpClient, String location) {
+        super(timer, httpClient, location);
+    }
+
+    @Override
+    protected XMLObject unmarshallMetadata(byte[] content) throws MetadataProviderException {
+        Set<String> retained = getMetadataFilter() != null ? filter(content) : null;
+
+        pending = MetadataIndex.parse(content, retained);
+        pendingRoot = super.unmarshallMetadata(pending.getRoot());
+        return pendingRoot;
+    }
+
+    private Set<String> filter(byte[] content) throws MetadataProviderException {
+        XMLObject metadata = super.unmarshallMetadata(content);
+        try {
+            super.filterMetadata(metadata);
+        } catch (FilterException e) {
+            throw new MetadataProviderException("Error filtering metadata from " + getMetadataIdentifier(), e);
+        }
+
+        Set<String> entityIds = new HashSet<>();
+        collectEntityIds(metadata, entityIds);
+        return entityIds;
+    }
+
+    private static void collectEntityIds(XMLObject metadata, Set<String> entityIds) {
+        if (metadata instanceof EntityDescriptor) {
+            entityIds.add(((EntityDescriptor) metadata).getEntityID());
+        } else if (metadata instanceof EntitiesDescriptor) {
+            EntitiesDescriptor descriptor = (EntitiesDescriptor) metadata;
+            descriptor.getEntityDescriptors().forEach(entity -> entityIds.add(entity.getEntityID()));
+            descriptor.getEntitiesDescriptors().forEach(child -> collectEntityIds(child, entityIds));
+        }
+    }
+
+    @Override
+    protected void filterMetadata(XMLObject metadata) throws FilterException {
+        if (metadata != pendingRoot) {
+            super.filterMetadata(metadata);
+        }
+    }
+
+    @Override
+    protected void postProcessMetadata(byte[] content, Document document, XMLObject metadata) throws MetadataProviderException {
+        super.postProcessMetadata(content, document, metadata);
+
+        index = pending;
+        log.info("Indexed {} entities from {}", index.size(), getMetadataIdentifier());
+    }
+
+    @Override
+    protected EntityDescriptor doGetEntityDescriptor(String entityID) throws MetadataProviderException {
+        MetadataIndex.Entry entry = index.get(entityID);
+        if (entry == null) {
+            log.debug("Metadata document does not contain an entity descriptor with the ID {}", entityID);
+            return null;
+        }
+
+        EntityDescriptor descriptor = entry.getDescriptor(this::unmarshallEntity);
+        if (!isValid(descriptor)) {
+            log.debug("Metadata document contained an entity descriptor with the ID {}, but it was no longer valid", entityID);
+            return null;
+        }
+        return descriptor;
+    }
+
+    private EntityDescriptor unmarshallEntity(byte[] content) throws MetadataProviderException {
+        try {
+            XMLObject metadata = unmarshallMetadata(new ByteArrayInputStream(content));
+            releaseMetadataDOM(metadata);
+            return (EntityDescriptor) metadata;
+        } catch (UnmarshallingException e) {
+            throw new MetadataProviderException("Could not unmarshall entity descriptor from " + getMetadataIdentifier(), e);
+        }
+    }
+
+    @Override
+    public boolean isIDP(String entityId) {
+        MetadataIndex.Entry entry = index.get(entityId);
+        return entry != null && entry.isIDP();
+    }
+
+    @Override
+    public boolean isSP(String entityId) {
+        MetadataIndex.Entry entry = index.get(entityId);
+        return entry != null && entry.isSP();
+    }
+
+    @Override
+    public Set<String> getIDPEntityNames() {
+        return index.getIDPEntityNames();
+    }
+
+    @Override
+    public Set<String> getSPEntityNames() {
+        return index.getSPEntityNames();
+    }
+
+}
@@ -0,0 +1,108 @@
+package nl._42.boot.saml.metadata;
+
+import lombok.extern.slf4j.Slf4j;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.provider.AbstractMetadataProvider;
+import org.opensaml.saml2.metadata.provider.AbstractObservableMetadataProvider;
+import org.opensaml.saml2.metadata.provider.MetadataFilter;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.saml2.metadata.provider.ObservableMetadataProvider;
+import org.opensaml.xml.XMLObject;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Metadata provider of a single identity provider, that is only initialized once
+ * the identity provider is first used. Lookups of other entities never trigger
+ * the initialization, allowing many identity providers to be registered at once.
+ */
+@Slf4j
+public class LazyMetadataProvider extends AbstractMetadataProvider implements ObservableMetadataProvider, EntityNames {
+
+    private final String entityId;
+
+    private final AbstractObservableMetadataProvider delegate;
+
+    private volatile boolean loaded;
+
+    public LazyMetadataProvider(String entityId, AbstractObservableMetadataProvider delegate) {
+        this.entityId = Objects.requireNonNull(entityId, "Entity ID is required");
+        this.delegate = Objects.requireNonNull(delegate, "Delegate is required");
+    }
+
+    /**
+     * Initialization is postponed until the metadata is first used.
+     */
+    @Override
+    protected void doInitialization() {
+    }
+
+    private void load() throws MetadataProviderException {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    log.info("Loading metadata of identity provider {}", entityId);
+                    delegate.initialize();
+                    loaded = true;
+                }
+            }
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    @Override
+    protected XMLObject doGetMetadata() throws MetadataProviderException {
+        load();
+        return delegate.getMetadata();
+    }
+
+    @Override
+    protected EntityDescriptor doGetEntityDescriptor(String entityID) throws MetadataProviderException {
+        if (!entityId.equals(entityID)) {
+            return null;
+        }
+
+        load();
+        return delegate.getEntityDescriptor(entityID);
+    }
+
+    @Override
+    public MetadataFilter getMetadataFilter() {
+        return delegate.getMetadataFilter();
+    }
+
+    @Override
+    public void setMetadataFilter(MetadataFilter filter) throws MetadataProviderException {
+        delegate.setMetadataFilter(filter);
+    }
+
+    @Override
+    public List<Observer> getObservers() {
+        return delegate.getObservers();
+    }
+
+    @Override
+    public Set<String> getIDPEntityNames() {
+        return Collections.singleton(entityId);
+    }
+
+    @Override
+    public Set<String> getSPEntityNames() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (loaded) {
+            delegate.destroy();
+        }
+        super.destroy();
+    }
+
+}
@@ -0,0 +1,363 @@
+package nl._42.boot.saml.metadata;
+
+import lombok.extern.slf4j.Slf4j;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Entity descriptors of a metadata document, indexed by entityID. The document is
+ * read with StAX, without building a DOM, and each entity descriptor is kept in its
+ * own serialized form, including the namespaces declared on its ancestors.
+ */
+@Slf4j
+final class MetadataIndex {
+
+    static final MetadataIndex EMPTY = new MetadataIndex(new byte[0], Collections.emptyMap());
+
+    private static final String EMPTY_ROOT = "<md:EntitiesDescriptor xmlns:md=\"" + SAMLConstants.SAML20MD_NS + "\"/>";
+
+    private static final String ENTITY_ID = "entityID";
+    private static final String PROTOCOL_SUPPORT = "protocolSupportEnumeration";
+
+    private static final XMLInputFactory INPUT = XMLInputFactory.newFactory();
+    private static final XMLOutputFactory OUTPUT = XMLOutputFactory.newFactory();
+
+    static {
+        INPUT.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final byte[] root;
+
+    private final Map<String, Entry> entries;
+
+    private final Set<String> idpEntityNames;
+
+    private final Set<String> spEntityNames;
+
+    private MetadataIndex(byte[] root, Map<String, Entry> entries) {
+        this.root = root;
+        this.entries = entries;
+        this.idpEntityNames = getEntityNames(entries, Entry::isIDP);
+        this.spEntityNames = getEntityNames(entries, Entry::isSP);
+    }
+
+    /**
+     * Collect the entity names once, as the metadata manager retrieves them on each login.
+     */
+    private static Set<String> getEntityNames(Map<String, Entry> entries, Predicate<Entry> role) {
+        Set<String> names = entries.values().stream().filter(role).map(entry -> entry.entityId).collect(Collectors.toSet());
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Index the entity descriptors of a metadata document.
+     * @param content the metadata document, either an entity or entities descriptor
+     * @param retained the entityIDs to index, or {@code null} to index all entities
+     * @return the index
+     * @throws MetadataProviderException whenever the document could not be read
+     */
+    static MetadataIndex parse(byte[] content, Set<String> retained) throws MetadataProviderException {
+        try {
+            XMLStreamReader reader = INPUT.createXMLStreamReader(new ByteArrayInputStream(content));
+            try {
+                return parse(reader, retained);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new MetadataProviderException("Could not read metadata", e);
+        }
+    }
+
+    private static MetadataIndex parse(XMLStreamReader reader, Set<String> retained) throws XMLStreamException, MetadataProviderException {
+        Map<String, Entry> entries = new HashMap<>();
+        Deque<Map<String, String>> namespaces = new ArrayDeque<>();
+        namespaces.push(Collections.emptyMap());
+
+        byte[] root = null;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                namespaces.pop();
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                if (isMetadata(reader, EntityDescriptor.DEFAULT_ELEMENT_LOCAL_NAME)) {
+                    if (root == null) {
+                        root = EMPTY_ROOT.getBytes(StandardCharsets.UTF_8);
+                    }
+                    add(entries, copy(reader, namespaces.peek()), retained);
+                } else if (isMetadata(reader, EntitiesDescriptor.DEFAULT_ELEMENT_LOCAL_NAME)) {
+                    if (root == null) {
+                        root = copyStartElement(reader);
+                    }
+                    namespaces.push(declare(reader, namespaces.peek()));
+                } else if (root == null) {
+                    throw new MetadataProviderException("Expected entity or entities descriptor, but found: " + reader.getName());
+                } else {
+                    skip(reader);
+                }
+            }
+        }
+
+        if (root == null) {
+            throw new MetadataProviderException("Metadata document is empty");
+        }
+        return new MetadataIndex(root, entries);
+    }
+
+    private static boolean isMetadata(XMLStreamReader reader, String localName) {
+        return SAMLConstants.SAML20MD_NS.equals(reader.getNamespaceURI()) && localName.equals(reader.getLocalName());
+    }
+
+    private static void add(Map<String, Entry> entries, Entry entry, Set<String> retained) {
+        if (entry.entityId == null) {
+            log.warn("Skipping entity descriptor without entityID");
+        } else if (retained != null && !retained.contains(entry.entityId)) {
+            log.debug("Skipping filtered entity descriptor {}", entry.entityId);
+        } else if (entries.putIfAbsent(entry.entityId, entry) != null) {
+            log.warn("Skipping duplicate entity descriptor {}", entry.entityId);
+        }
+    }
+
+    private static Map<String, String> declare(XMLStreamReader reader, Map<String, String> inherited) {
+        if (reader.getNamespaceCount() == 0) {
+            return inherited;
+        }
+
+        Map<String, String> namespaces = new LinkedHashMap<>(inherited);
+        for (int index = 0; index < reader.getNamespaceCount(); index++) {
+            namespaces.put(nullToEmpty(reader.getNamespacePrefix(index)), nullToEmpty(reader.getNamespaceURI(index)));
+        }
+        return namespaces;
+    }
+
+    private static void skip(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Serialize the current start element only, without any content.
+     */
+    private static byte[] copyStartElement(XMLStreamReader reader) throws XMLStreamException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        XMLStreamWriter writer = OUTPUT.createXMLStreamWriter(bytes, StandardCharsets.UTF_8.name());
+        writeStartElement(writer, reader, Collections.emptyMap());
+        writer.writeEndElement();
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Serialize the current entity descriptor, consuming the reader up until its end element.
+     */
+    private static Entry copy(XMLStreamReader reader, Map<String, String> inherited) throws XMLStreamException {
+        String entityId = reader.getAttributeValue(null, ENTITY_ID);
+        boolean idp = false;
+        boolean sp = false;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        XMLStreamWriter writer = OUTPUT.createXMLStreamWriter(bytes, StandardCharsets.UTF_8.name());
+
+        int depth = 0;
+        int event = reader.getEventType();
+        while (true) {
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (depth == 1) {
+                        idp |= isMetadata(reader, IDPSSODescriptor.DEFAULT_ELEMENT_LOCAL_NAME) && isSAML2(reader);
+                        sp |= isMetadata(reader, SPSSODescriptor.DEFAULT_ELEMENT_LOCAL_NAME) && isSAML2(reader);
+                    }
+                    writeStartElement(writer, reader, depth == 0 ? inherited : Collections.emptyMap());
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    writer.writeEndElement();
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    writer.writeComment(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+
+            if (depth == 0) {
+                break;
+            }
+            event = reader.next();
+        }
+
+        writer.close();
+        return new Entry(entityId, bytes.toByteArray(), idp, sp);
+    }
+
+    private static void writeStartElement(XMLStreamWriter writer, XMLStreamReader reader, Map<String, String> inherited) throws XMLStreamException {
+        writer.writeStartElement(nullToEmpty(reader.getPrefix()), reader.getLocalName(), nullToEmpty(reader.getNamespaceURI()));
+
+        Map<String, String> namespaces = declare(reader, inherited);
+        for (Map.Entry<String, String> namespace : namespaces.entrySet()) {
+            if (namespace.getKey().isEmpty()) {
+                writer.writeDefaultNamespace(namespace.getValue());
+            } else {
+                writer.writeNamespace(namespace.getKey(), namespace.getValue());
+            }
+        }
+
+        for (int index = 0; index < reader.getAttributeCount(); index++) {
+            String prefix = reader.getAttributePrefix(index);
+            if (prefix == null || prefix.isEmpty()) {
+                writer.writeAttribute(reader.getAttributeLocalName(index), reader.getAttributeValue(index));
+            } else {
+                writer.writeAttribute(prefix, reader.getAttributeNamespace(index), reader.getAttributeLocalName(index), reader.getAttributeValue(index));
+            }
+        }
+    }
+
+    private static boolean isSAML2(XMLStreamReader reader) {
+        String protocols = reader.getAttributeValue(null, PROTOCOL_SUPPORT);
+        if (protocols == null) {
+            return false;
+        }
+
+        for (String protocol : protocols.trim().split("\\s+")) {
+            if (SAMLConstants.SAML20P_NS.equals(protocol)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Retrieve the root element, without any entity descriptors.
+     * @return the serialized root element
+     */
+    byte[] getRoot() {
+        return root;
+    }
+
+    /**
+     * Retrieve an entity descriptor.
+     * @param entityId the entityID
+     * @return the entry, or {@code null} when not indexed
+     */
+    Entry get(String entityId) {
+        return entries.get(entityId);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    Set<String> getIDPEntityNames() {
+        return idpEntityNames;
+    }
+
+    Set<String> getSPEntityNames() {
+        return spEntityNames;
+    }
+
+    /**
+     * Indexed entity descriptor, serialized until first use.
+     */
+    static final class Entry {
+
+        private final String entityId;
+
+        private final boolean idp;
+        private final boolean sp;
+
+        /**
+         * Serialized entity descriptor, released once unmarshalled.
+         */
+        private byte[] content;
+
+        private volatile EntityDescriptor descriptor;
+
+        private Entry(String entityId, byte[] content, boolean idp, boolean sp) {
+            this.entityId = entityId;
+            this.content = content;
+            this.idp = idp;
+            this.sp = sp;
+        }
+
+        boolean isIDP() {
+            return idp;
+        }
+
+        boolean isSP() {
+            return sp;
+        }
+
+        /**
+         * Retrieve the entity descriptor, unmarshalled on first use.
+         * @param unmarshaller unmarshals the serialized entity descriptor
+         * @return the entity descriptor
+         * @throws MetadataProviderException whenever the entity could not be unmarshalled
+         */
+        EntityDescriptor getDescriptor(Unmarshaller unmarshaller) throws MetadataProviderException {
+            EntityDescriptor result = descriptor;
+            if (result == null) {
+                synchronized (this) {
+                    result = descriptor;
+                    if (result == null) {
+                        result = unmarshaller.unmarshall(content);
+                        descriptor = result;
+                        content = null;
+                    }
+                }
+            }
+            return result;
+        }
+
+    }
+
+    @FunctionalInterface
+    interface Unmarshaller {
+
+        EntityDescriptor unmarshall(byte[] content) throws MetadataProviderException;
+
+    }
+
+}
@@ -0,0 +1,251 @@
+package nl._42.boot.saml.metadata;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.joda.time.DateTime;
+import org.opensaml.saml2.metadata.provider.AbstractReloadingMetadataProvider;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.xml.XMLObject;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.w3c.dom.Document;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.Timer;
+
+/**
+ * Metadata provider that loads metadata from a HTTP(S) URL, or a {@code file:}
+ * or {@code classpath:} resource. Unchanged metadata is never parsed again: URLs are
+ * requested with {@code If-None-Match} and {@code If-Modified-Since} headers and
+ * resources are only read when their modification date changed.
+ * <p>
+ * The last successfully parsed metadata of a URL can be kept in a backup file. When
+ * available, the provider starts from this backup without waiting for the network,
+ * and retrieves the URL in the background shortly after.
+ */
+@Slf4j
+public class ResourceMetadataProvider extends AbstractReloadingMetadataProvider {
+
+    private static final long BACKGROUND_REFRESH_DELAY = 1000;
+
+    private static final int DEFAULT_TIMEOUT = 10000;
+
+    private final String location;
+
+    private final HttpClient httpClient;
+
+    private final ResourceLoader resourceLoader = new DefaultResourceLoader();
+
+    private Path backupFile;
+
+    private int timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * Entity tag and last modified date of the last parsed metadata URL.
+     */
+    private String etag;
+    private String lastModified;
+
+    /**
+     * Entity tag and last modified date of the last retrieved metadata URL,
+     * only used in next requests once the metadata could be parsed.
+     */
+    private String fetchedEtag;
+    private String fetchedLastModified;
+
+    /**
+     * Last modified date of the last read resource.
+     */
+    private long resourceLastModified = -1;
+
+    /**
+     * Whether the backup file was considered, only on the first fetch.
+     */
+    private boolean backupAttempted;
+
+    /**
+     * Whether the current metadata was read from the backup file,
+     * instead of the metadata location.
+     */
+    private boolean fromBackup;
+
+    /**
+     * Whether the last fetched content originates from the metadata location.
+     */
+    private boolean fetched;
+
+    public ResourceMetadataProvider(Timer timer, HttpClient httpClient, String location) {
+        super(timer);
+
+        this.httpClient = Objects.requireNonNull(httpClient, "HTTP client is required");
+        this.location = Objects.requireNonNull(location, "Location is required");
+    }
+
+    public void setBackupFile(Path backupFile) {
+        this.backupFile = backupFile;
+    }
+
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    protected String getMetadataIdentifier() {
+        return location;
+    }
+
+    @Override
+    protected byte[] fetchMetadata() throws MetadataProviderException {
+        fetched = false;
+
+        if (!backupAttempted) {
+            backupAttempted = true;
+            if (isBackupAvailable()) {
+                fromBackup = true;
+                return readBackup();
+            }
+        }
+
+        byte[] content = isUrl() ? fetchUrl() : fetchResource();
+        if (content != null) {
+            fromBackup = false;
+            fetched = true;
+        }
+        return content;
+    }
+
+    private boolean isUrl() {
+        return location.startsWith("http://") || location.startsWith("https://");
+    }
+
+    private byte[] fetchUrl() throws MetadataProviderException {
+        GetMethod method = new GetMethod(location);
+        method.getParams().setSoTimeout(timeout);
+        if (etag != null) {
+            method.setRequestHeader("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            method.setRequestHeader("If-Modified-Since", lastModified);
+        }
+
+        try {
+            int status = httpClient.executeMethod(method);
+            if (status == HttpStatus.SC_NOT_MODIFIED) {
+                log.debug("Metadata from {} was not modified", location);
+                return null;
+            } else if (status != HttpStatus.SC_OK) {
+                throw new MetadataProviderException("Metadata retrieval from " + location + " failed with HTTP status " + status);
+            }
+
+            byte[] content = inputstreamToByteArray(method.getResponseBodyAsStream());
+            fetchedEtag = getHeader(method, "ETag");
+            fetchedLastModified = getHeader(method, "Last-Modified");
+            return content;
+        } catch (IOException e) {
+            throw new MetadataProviderException("Could not retrieve metadata from " + location, e);
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    private static String getHeader(GetMethod method, String name) {
+        Header header = method.getResponseHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
+    private byte[] fetchResource() throws MetadataProviderException {
+        Resource resource = resourceLoader.getResource(location);
+
+        long modified = getLastModified(resource);
+        if (modified > 0 && modified == resourceLastModified) {
+            log.debug("Metadata resource {} was not modified", location);
+            return null;
+        }
+
+        try (InputStream stream = resource.getInputStream()) {
+            byte[] content = inputstreamToByteArray(stream);
+            resourceLastModified = modified;
+            return content;
+        } catch (IOException e) {
+            throw new MetadataProviderException("Could not read metadata from " + location, e);
+        }
+    }
+
+    private static long getLastModified(Resource resource) {
+        try {
+            return resource.lastModified();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private boolean isBackupAvailable() {
+        return isUrl() && backupFile != null && Files.isRegularFile(backupFile);
+    }
+
+    private byte[] readBackup() throws MetadataProviderException {
+        log.info("Starting with backup metadata from {}, retrieving {} in the background", backupFile, location);
+
+        try {
+            return Files.readAllBytes(backupFile);
+        } catch (IOException e) {
+            throw new MetadataProviderException("Could not read backup metadata from " + backupFile, e);
+        }
+    }
+
+    /**
+     * Remembers the version of successfully parsed metadata and stores it as backup,
+     * replacing the previous backup atomically.
+     */
+    @Override
+    protected void postProcessMetadata(byte[] content, Document document, XMLObject metadata) throws MetadataProviderException {
+        super.postProcessMetadata(content, document, metadata);
+
+        if (fetched && isUrl()) {
+            etag = fetchedEtag;
+            lastModified = fetchedLastModified;
+
+            if (backupFile != null) {
+                writeBackup(content);
+            }
+        }
+    }
+
+    private void writeBackup(byte[] content) {
+        try {
+            Path directory = backupFile.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+
+            Path temporary = Files.createTempFile(directory, backupFile.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temporary, content);
+                Files.move(temporary, backupFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            log.warn("Could not write backup metadata to {}", backupFile, e);
+        }
+    }
+
+    /**
+     * Metadata from the backup is replaced by metadata from the actual location as soon as possible.
+     */
+    @Override
+    protected long computeNextRefreshDelay(DateTime expectedExpiration) {
+        if (fromBackup) {
+            return BACKGROUND_REFRESH_DELAY;
+        }
+        return super.computeNextRefreshDelay(expectedExpiration);
+    }
+
+}
@@ -0,0 +1,82 @@
+package nl._42.boot.saml.metadata;
+
+import org.opensaml.saml2.metadata.provider.MetadataProvider;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.springframework.security.saml.metadata.CachingMetadataManager;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Metadata manager that resolves the identity and service providers of providers
+ * with {@link EntityNames}, such as indexed and lazy providers. The default manager
+ * inspects the roles of each entity on refresh, which would unmarshal all entities.
+ */
+public class SAMLMetadataManager extends CachingMetadataManager {
+
+    private volatile List<EntityNames> entityNames = Collections.emptyList();
+
+    public SAMLMetadataManager(List<MetadataProvider> providers) throws MetadataProviderException {
+        super(providers);
+    }
+
+    @Override
+    public void refreshMetadata() {
+        super.refreshMetadata();
+
+        entityNames = getAvailableProviders().stream()
+            .map(ExtendedMetadataDelegate::getDelegate)
+            .filter(EntityNames.class::isInstance)
+            .map(EntityNames.class::cast)
+            .collect(Collectors.toList());
+    }
+
+    @Override
+    protected void initializeProviderData(ExtendedMetadataDelegate provider) throws MetadataProviderException {
+        if (!(provider.getDelegate() instanceof EntityNames)) {
+            super.initializeProviderData(provider);
+        }
+    }
+
+    @Override
+    public Set<String> getIDPEntityNames() {
+        return union(super.getIDPEntityNames(), EntityNames::getIDPEntityNames);
+    }
+
+    @Override
+    public Set<String> getSPEntityNames() {
+        return union(super.getSPEntityNames(), EntityNames::getSPEntityNames);
+    }
+
+    /**
+     * Combine the names with those of each provider, only copying when there is more than one source.
+     */
+    private Set<String> union(Set<String> names, Function<EntityNames, Set<String>> resolver) {
+        List<EntityNames> providers = entityNames;
+        if (providers.isEmpty()) {
+            return names;
+        } else if (names.isEmpty() && providers.size() == 1) {
+            return resolver.apply(providers.get(0));
+        }
+
+        Set<String> union = new HashSet<>(names);
+        providers.forEach(provider -> union.addAll(resolver.apply(provider)));
+        return union;
+    }
+
+    @Override
+    public boolean isIDPValid(String idpID) {
+        return super.isIDPValid(idpID) || entityNames.stream().anyMatch(provider -> provider.isIDP(idpID));
+    }
+
+    @Override
+    public boolean isSPValid(String spID) {
+        return super.isSPValid(spID) || entityNames.stream().anyMatch(provider -> provider.isSP(spID));
+    }
+
+}
@@ -0,0 +1,74 @@
+package nl._42.boot.saml.metrics;
+
+import org.opensaml.common.SAMLException;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.ws.message.decoder.MessageDecodingException;
+import org.opensaml.ws.transport.http.HTTPInTransport;
+import org.opensaml.xml.security.SecurityException;
+import org.springframework.security.saml.context.SAMLMessageContext;
+import org.springframework.security.saml.processor.SAMLBinding;
+import org.springframework.security.saml.processor.SAMLProcessorImpl;
+
+import java.util.Collection;
+
+/**
+ * Processor that measures the decoding of messages per binding, including the
+ * evaluation of the security policy of the binding.
+ */
+public class InstrumentedProcessor extends SAMLProcessorImpl {
+
+    static final String DECODE = "saml.binding.decode";
+
+    private final SAMLMetrics metrics;
+
+    public InstrumentedProcessor(Collection<SAMLBinding> bindings, SAMLMetrics metrics) {
+        super(bindings);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public SAMLMessageContext retrieveMessage(SAMLMessageContext context, SAMLBinding binding)
+        throws SAMLException, MetadataProviderException, MessageDecodingException, SecurityException {
+        long start = System.nanoTime();
+        SAMLStage stage = SAMLEvents.begin(SAMLEvents.DECODE);
+        if (stage != SAMLStage.NONE) {
+            stage.message(null, getSize(context));
+        }
+        Exception failure = null;
+        try {
+            return super.retrieveMessage(context, binding);
+        } catch (SAMLException | MetadataProviderException | MessageDecodingException | SecurityException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            metrics.record(DECODE, System.nanoTime() - start,
+                "binding", getName(binding),
+                SAMLMetrics.OUTCOME, failure == null ? SAMLMetrics.SUCCESS : SAMLMetrics.FAILURE,
+                "reason", SAMLMetrics.reason(failure));
+            stage.message(context.getPeerEntityId(), -1).end(failure == null ? SAMLMetrics.SUCCESS : SAMLMetrics.FAILURE);
+        }
+    }
+
+    /**
+     * Size of the encoded message parameter, unknown for the artifact and SOAP bindings.
+     * Only retrieved while recording, as looking up the parameter can parse the request.
+     */
+    private static long getSize(SAMLMessageContext context) {
+        if (!(context.getInboundMessageTransport() instanceof HTTPInTransport)) {
+            return -1;
+        }
+
+        HTTPInTransport transport = (HTTPInTransport) context.getInboundMessageTransport();
+        String message = transport.getParameterValue("SAMLResponse");
+        if (message == null) {
+            message = transport.getParameterValue("SAMLRequest");
+        }
+        return message != null ? message.length() : -1;
+    }
+
+    private static String getName(SAMLBinding binding) {
+        String uri = binding.getBindingURI();
+        return uri.substring(uri.lastIndexOf(':') + 1);
+    }
+
+}
@@ -0,0 +1,89 @@
+package nl._42.boot.saml.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Publishes the SAML metrics to a Micrometer registry. Meters are registered once
+ * per name and tags, and looked up in a local cache on each following measurement.
+ */
+public class MicrometerSAMLMetrics implements SAMLMetrics {
+
+    private final ConcurrentMap<Key, Timer> timers = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Key, Counter> counters = new ConcurrentHashMap<>();
+
+    private final MeterRegistry registry;
+
+    public MicrometerSAMLMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void record(String name, long nanos, String... tags) {
+        getMeter(timers, new Key(name, tags), key -> Timer.builder(name).tags(tags).register(registry))
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void increment(String name, String... tags) {
+        getMeter(counters, new Key(name, tags), key -> registry.counter(name, tags)).increment();
+    }
+
+    /**
+     * Retrieve the cached meter, only registering it when absent. Unlike computeIfAbsent
+     * the lookup of a cached meter does not lock.
+     */
+    private static <M> M getMeter(ConcurrentMap<Key, M> meters, Key key, Function<Key, M> register) {
+        M meter = meters.get(key);
+        if (meter == null) {
+            meter = meters.computeIfAbsent(key, register);
+        }
+        return meter;
+    }
+
+    /**
+     * Name and tags of a meter. The tags are copied by the caller for each measurement,
+     * so they are never modified afterwards.
+     */
+    private static final class Key {
+
+        private final String name;
+
+        private final String[] tags;
+
+        private final int hash;
+
+        private Key(String name, String[] tags) {
+            this.name = name;
+            this.tags = tags;
+            this.hash = 31 * name.hashCode() + Arrays.hashCode(tags);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return hash == key.hash && name.equals(key.name) && Arrays.equals(tags, key.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+}
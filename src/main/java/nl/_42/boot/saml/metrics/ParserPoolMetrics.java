@@ -0,0 +1,39 @@
+package nl._42.boot.saml.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import nl._42.boot.saml.parser.InstrumentedParserPool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the counters and checkout time of the parser pool.
+ */
+public class ParserPoolMetrics implements MeterBinder {
+
+    private final InstrumentedParserPool parserPool;
+
+    public ParserPoolMetrics(InstrumentedParserPool parserPool) {
+        this.parserPool = parserPool;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("saml.parser.checkouts", parserPool, InstrumentedParserPool::getCheckouts)
+            .description("Builders checked out of the parser pool")
+            .register(registry);
+        FunctionTimer.builder("saml.parser.checkout", parserPool, InstrumentedParserPool::getCheckouts,
+                InstrumentedParserPool::getCheckoutTime, TimeUnit.NANOSECONDS)
+            .description("Time spent checking out builders, including waiting for the shared pool")
+            .register(registry);
+        FunctionCounter.builder("saml.parser.misses", parserPool, InstrumentedParserPool::getMisses)
+            .description("Checkouts that found the parser pool empty")
+            .register(registry);
+        FunctionCounter.builder("saml.parser.creations", parserPool, InstrumentedParserPool::getCreations)
+            .description("Builders created by the parser pool")
+            .register(registry);
+    }
+
+}
@@ -0,0 +1,45 @@
+package nl._42.boot.saml.metrics;
+
+import org.springframework.util.ClassUtils;
+
+/**
+ * Entry point for the Java Flight Recorder events of the SAML processing stages.
+ * Events are only created when {@code jdk.jfr} is available, which is the case
+ * from Java 8u262 onwards, so the instrumented components also run on older JVMs.
+ */
+public final class SAMLEvents {
+
+    public static final String DECODE = "decode";
+
+    public static final String SIGNATURE = "signature";
+
+    public static final String DECRYPTION = "decryption";
+
+    public static final String MAPPING = "mapping";
+
+    public static final String REDIRECT = "redirect";
+
+    private static final boolean AVAILABLE = ClassUtils.isPresent("jdk.jfr.Event", SAMLEvents.class.getClassLoader());
+
+    private SAMLEvents() {
+    }
+
+    /**
+     * Begin a stage on the current thread.
+     * @param stage the stage name
+     * @return the started stage, or {@link SAMLStage#NONE} when not recording
+     */
+    public static SAMLStage begin(String stage) {
+        return AVAILABLE ? SAMLStageEvent.begin(stage) : SAMLStage.NONE;
+    }
+
+    /**
+     * Forget the message processed on the current thread.
+     */
+    public static void clear() {
+        if (AVAILABLE) {
+            SAMLStageEvent.clear();
+        }
+    }
+
+}
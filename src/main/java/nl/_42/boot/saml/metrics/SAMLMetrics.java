@@ -0,0 +1,54 @@
+package nl._42.boot.saml.metrics;
+
+/**
+ * Records the duration and outcome of each SAML processing stage. Does not depend
+ * on a metrics library, so the instrumented components work without Micrometer.
+ */
+public interface SAMLMetrics {
+
+    /**
+     * Discards all measurements.
+     */
+    SAMLMetrics NONE = new SAMLMetrics() {
+
+        @Override
+        public void record(String name, long nanos, String... tags) {
+        }
+
+        @Override
+        public void increment(String name, String... tags) {
+        }
+
+    };
+
+    String OUTCOME = "outcome";
+
+    String SUCCESS = "success";
+
+    String FAILURE = "failure";
+
+    /**
+     * Record the duration of a stage.
+     * @param name the metric name
+     * @param nanos the duration, in nanoseconds
+     * @param tags the tags, as alternating keys and values
+     */
+    void record(String name, long nanos, String... tags);
+
+    /**
+     * Count an event.
+     * @param name the metric name
+     * @param tags the tags, as alternating keys and values
+     */
+    void increment(String name, String... tags);
+
+    /**
+     * Describe the outcome of a failed stage.
+     * @param failure the failure, may be {@code null}
+     * @return the simple class name of the failure, or {@code none}
+     */
+    static String reason(Throwable failure) {
+        return failure != null ? failure.getClass().getSimpleName() : "none";
+    }
+
+}
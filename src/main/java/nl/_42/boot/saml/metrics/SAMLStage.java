@@ -0,0 +1,52 @@
+package nl._42.boot.saml.metrics;
+
+/**
+ * Processing stage of a single SAML message, reported as a Java Flight Recorder event.
+ * Stages are only reported while a recording is active.
+ */
+public interface SAMLStage {
+
+    /**
+     * Reports nothing, used when no recording is active or JFR is not available.
+     */
+    SAMLStage NONE = new SAMLStage() {
+
+        @Override
+        public SAMLStage message(String entityId, long size) {
+            return this;
+        }
+
+        @Override
+        public SAMLStage entityId(String entityId) {
+            return this;
+        }
+
+        @Override
+        public void end(String outcome) {
+        }
+
+    };
+
+    /**
+     * Describe the message that is processed on the current thread. The description
+     * is also used by the following stages, until the thread is cleared.
+     * @param entityId the entity ID of the peer, or {@code null} when still unknown
+     * @param size the size of the encoded message, or {@code -1} when unknown
+     * @return this stage
+     */
+    SAMLStage message(String entityId, long size);
+
+    /**
+     * Override the entity ID of only this stage.
+     * @param entityId the entity ID
+     * @return this stage
+     */
+    SAMLStage entityId(String entityId);
+
+    /**
+     * End the stage and report it when it exceeds the recording threshold.
+     * @param outcome the outcome
+     */
+    void end(String outcome);
+
+}
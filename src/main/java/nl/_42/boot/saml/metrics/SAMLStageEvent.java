@@ -0,0 +1,106 @@
+package nl._42.boot.saml.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of a SAML processing stage. Only loaded when {@code jdk.jfr}
+ * is available, see {@link SAMLEvents}.
+ */
+@Name(SAMLStageEvent.NAME)
+@Label("SAML Stage")
+@Category("SAML")
+@Description("Processing stage of a SAML message")
+@StackTrace(false)
+final class SAMLStageEvent extends Event implements SAMLStage {
+
+    static final String NAME = "nl._42.boot.saml.Stage";
+
+    private static final ThreadLocal<Message> MESSAGE = new ThreadLocal<>();
+
+    @Label("Stage")
+    private String stage;
+
+    @Label("Entity ID")
+    private String entityId;
+
+    @Label("Message Size")
+    @Description("Size of the encoded message")
+    @DataAmount
+    private long messageSize = -1;
+
+    @Label("Outcome")
+    private String outcome;
+
+    /**
+     * Begin a stage, the event is only created while a recording is active.
+     * @param stage the stage name
+     * @return the started stage
+     */
+    static SAMLStage begin(String stage) {
+        SAMLStageEvent event = new SAMLStageEvent();
+        if (!event.isEnabled()) {
+            return NONE;
+        }
+
+        event.stage = stage;
+        event.begin();
+        return event;
+    }
+
+    static void clear() {
+        MESSAGE.remove();
+    }
+
+    @Override
+    public SAMLStage message(String entityId, long size) {
+        Message message = MESSAGE.get();
+        if (message == null) {
+            message = new Message();
+            MESSAGE.set(message);
+        }
+        if (entityId != null) {
+            message.entityId = entityId;
+        }
+        if (size >= 0) {
+            message.size = size;
+        }
+        return this;
+    }
+
+    @Override
+    public SAMLStage entityId(String entityId) {
+        this.entityId = entityId;
+        return this;
+    }
+
+    @Override
+    public void end(String outcome) {
+        end();
+        if (shouldCommit()) {
+            Message message = MESSAGE.get();
+            if (message != null) {
+                if (entityId == null) {
+                    entityId = message.entityId;
+                }
+                messageSize = message.size;
+            }
+            this.outcome = outcome;
+            commit();
+        }
+    }
+
+    private static final class Message {
+
+        private String entityId;
+
+        private long size = -1;
+
+    }
+
+}
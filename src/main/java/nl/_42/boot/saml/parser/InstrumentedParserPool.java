@@ -0,0 +1,138 @@
+package nl._42.boot.saml.parser;
+
+import org.opensaml.xml.parse.StaticBasicParserPool;
+import org.opensaml.xml.parse.XMLParserException;
+
+import javax.xml.parsers.DocumentBuilder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parser pool that keeps track of checkouts, the time spent waiting for a builder,
+ * and the builders created because none was idle. Optionally keeps a builder per
+ * thread, so parsing never contends on the shared pool.
+ */
+public class InstrumentedParserPool extends StaticBasicParserPool {
+
+    private final LongAdder checkouts = new LongAdder();
+    private final LongAdder checkoutTime = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder creations = new LongAdder();
+
+    private final ThreadLocal<ThreadBuilder> threadBuilders = new ThreadLocal<>();
+
+    private boolean perThread;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DocumentBuilder getBuilder() throws XMLParserException {
+        long start = System.nanoTime();
+        try {
+            DocumentBuilder builder = perThread ? getThreadBuilder() : null;
+            return builder != null ? builder : super.getBuilder();
+        } finally {
+            checkouts.increment();
+            checkoutTime.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Retrieve the builder of the current thread.
+     * @return the builder, or {@code null} when already in use by this thread
+     */
+    private DocumentBuilder getThreadBuilder() throws XMLParserException {
+        ThreadBuilder current = threadBuilders.get();
+        if (current == null) {
+            current = new ThreadBuilder(super.createBuilder());
+            creations.increment();
+            threadBuilders.set(current);
+        }
+
+        if (current.inUse) {
+            return null;
+        }
+        current.inUse = true;
+        return current.builder;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void returnBuilder(DocumentBuilder builder) {
+        if (perThread) {
+            ThreadBuilder current = threadBuilders.get();
+            if (current != null && current.builder == builder) {
+                builder.reset();
+                current.inUse = false;
+                return;
+            }
+        }
+        super.returnBuilder(builder);
+    }
+
+    /**
+     * Only invoked on checkout, when the pool has no idle builder.
+     */
+    @Override
+    protected DocumentBuilder createBuilder() throws XMLParserException {
+        misses.increment();
+        creations.increment();
+        return super.createBuilder();
+    }
+
+    /**
+     * Number of builder checkouts.
+     * @return the checkouts
+     */
+    public long getCheckouts() {
+        return checkouts.sum();
+    }
+
+    /**
+     * Total time in nanoseconds spent on builder checkouts, including the creation of new builders.
+     * @return the checkout time
+     */
+    public long getCheckoutTime() {
+        return checkoutTime.sum();
+    }
+
+    /**
+     * Number of checkouts on the shared pool without an idle builder.
+     * @return the misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Number of created builders, both pooled and per thread.
+     * @return the creations
+     */
+    public long getCreations() {
+        return creations.sum();
+    }
+
+    public boolean isPerThread() {
+        return perThread;
+    }
+
+    public void setPerThread(boolean perThread) {
+        checkValidModifyState();
+        this.perThread = perThread;
+    }
+
+    private static final class ThreadBuilder {
+
+        private final DocumentBuilder builder;
+
+        private boolean inUse;
+
+        private ThreadBuilder(DocumentBuilder builder) {
+            this.builder = builder;
+        }
+
+    }
+
+}
@@ -0,0 +1,59 @@
+package nl._42.boot.saml.parser;
+
+import lombok.Data;
+import org.opensaml.xml.parse.XMLParserException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Wrapper of all parser pool properties.
+ */
+@Data
+public class ParserPoolProperties {
+
+    /**
+     * Maximum number of idle builders, by default the number of processors.
+     */
+    private int maxPoolSize = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Additional builder features, applied on top of the secure defaults. The secure
+     * defaults, such as disallowing doctype declarations, cannot be disabled.
+     */
+    private Map<String, Boolean> builderFeatures = new HashMap<>();
+
+    /**
+     * Keep a builder per thread, instead of checking out from a shared pool.
+     */
+    private boolean perThread;
+
+    /**
+     * Build and initialize the parser pool.
+     * @return the parser pool
+     */
+    public InstrumentedParserPool getParserPool() {
+        InstrumentedParserPool pool = new InstrumentedParserPool();
+        pool.setMaxPoolSize(maxPoolSize);
+        pool.setPerThread(perThread);
+
+        Map<String, Boolean> defaults = pool.getBuilderFeatures();
+        Map<String, Boolean> features = new HashMap<>(builderFeatures);
+        defaults.forEach((feature, enabled) -> {
+            Boolean configured = features.put(feature, enabled);
+            if (configured != null && !configured.equals(enabled)) {
+                throw new IllegalArgumentException("Builder feature '" + feature + "' is required for secure parsing and cannot be changed");
+            }
+        });
+        pool.setBuilderFeatures(features);
+
+        try {
+            pool.initialize();
+        } catch (XMLParserException e) {
+            throw new IllegalStateException("Could not initialize parser pool", e);
+        }
+
+        return pool;
+    }
+
+}
@@ -0,0 +1,16 @@
+package nl._42.boot.saml.replay;
+
+/**
+ * Remembers consumed assertions, so each assertion can only be used once.
+ */
+public interface AssertionReplayCache {
+
+    /**
+     * Register an assertion as consumed.
+     * @param assertionId the assertion identifier
+     * @param expires time in milliseconds after which the assertion is no longer accepted
+     * @return {@code true} when registered, or {@code false} when the assertion was already consumed
+     */
+    boolean add(String assertionId, long expires);
+
+}
@@ -0,0 +1,105 @@
+package nl._42.boot.saml.replay;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Replay cache in a database table, shared by all nodes. The primary key
+ * guarantees that only one node can register an assertion. Requires a table:
+ * <pre>
+ * CREATE TABLE saml_assertion (
+ *   id      VARCHAR(255) PRIMARY KEY,
+ *   expires BIGINT       NOT NULL
+ * );
+ * </pre>
+ */
+@Slf4j
+public class JdbcReplayCache implements AssertionReplayCache {
+
+    static final String DEFAULT_TABLE = "saml_assertion";
+
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*");
+
+    private static final String INTEGRITY_VIOLATION = "23";
+
+    private static final long CLEANUP_INTERVAL = 60000L;
+
+    private final DataSource dataSource;
+
+    private final Clock clock;
+
+    private final String insert;
+    private final String deleteExpired;
+
+    /**
+     * Time in milliseconds of the next removal of expired assertions.
+     */
+    private volatile long nextCleanup;
+
+    public JdbcReplayCache(DataSource dataSource, String table) {
+        this(dataSource, table, Clock.systemUTC());
+    }
+
+    JdbcReplayCache(DataSource dataSource, String table, Clock clock) {
+        this.dataSource = Objects.requireNonNull(dataSource, "Data source is required");
+        this.clock = clock;
+
+        if (!TABLE_NAME.matcher(table).matches()) {
+            throw new IllegalArgumentException("Invalid table name: " + table);
+        }
+
+        this.insert = "INSERT INTO " + table + " (id, expires) VALUES (?, ?)";
+        this.deleteExpired = "DELETE FROM " + table + " WHERE expires <= ?";
+    }
+
+    @Override
+    public boolean add(String assertionId, long expires) {
+        long now = clock.millis();
+        if (expires <= now) {
+            return false;
+        }
+
+        try (Connection connection = dataSource.getConnection()) {
+            cleanup(connection, now);
+
+            try (PreparedStatement statement = connection.prepareStatement(insert)) {
+                statement.setString(1, assertionId);
+                statement.setLong(2, expires);
+                statement.executeUpdate();
+                return true;
+            } catch (SQLException e) {
+                if (e.getSQLState() != null && e.getSQLState().startsWith(INTEGRITY_VIOLATION)) {
+                    log.debug("Assertion {} was already consumed", assertionId);
+                    return false;
+                }
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not register assertion " + assertionId, e);
+        }
+    }
+
+    /**
+     * Remove expired assertions, at most once per minute.
+     */
+    private void cleanup(Connection connection, long now) throws SQLException {
+        if (now < nextCleanup) {
+            return;
+        }
+        nextCleanup = now + CLEANUP_INTERVAL;
+
+        try (PreparedStatement statement = connection.prepareStatement(deleteExpired)) {
+            statement.setLong(1, now);
+            int removed = statement.executeUpdate();
+            log.debug("Removed {} expired assertions", removed);
+        }
+    }
+
+}
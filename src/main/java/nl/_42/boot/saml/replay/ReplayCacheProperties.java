@@ -0,0 +1,41 @@
+package nl._42.boot.saml.replay;
+
+import lombok.Data;
+
+/**
+ * Wrapper of all replay cache properties, used to verify that
+ * each assertion is only consumed once.
+ */
+@Data
+public class ReplayCacheProperties {
+
+    /**
+     * Reject assertions that were already consumed.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Type of cache, by default in memory.
+     */
+    private Type type = Type.MEMORY;
+
+    /**
+     * Table name, in the database only.
+     */
+    private String table = JdbcReplayCache.DEFAULT_TABLE;
+
+    public enum Type {
+
+        /**
+         * Remember assertions in memory, per node.
+         */
+        MEMORY,
+
+        /**
+         * Remember assertions in the database, shared by all nodes.
+         */
+        JDBC
+
+    }
+
+}
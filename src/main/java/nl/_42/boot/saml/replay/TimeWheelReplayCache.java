@@ -0,0 +1,144 @@
+package nl._42.boot.saml.replay;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Replay cache in memory. Assertions are spread over lock striped segments, each with
+ * a hashed time wheel of one second slots. Consumed assertions are placed in the slot
+ * of their expiration, and slots are cleared once their second has passed, so
+ * registering and expiring an assertion takes constant time.
+ */
+public class TimeWheelReplayCache implements AssertionReplayCache {
+
+    private static final int STRIPE_BITS = 4;
+
+    private static final int STRIPES = 1 << STRIPE_BITS;
+
+    private static final int SLOTS = 512;
+
+    private static final long TICK = 1000L;
+
+    private final Segment[] segments = new Segment[STRIPES];
+
+    private final Clock clock;
+
+    public TimeWheelReplayCache() {
+        this(Clock.systemUTC());
+    }
+
+    TimeWheelReplayCache(Clock clock) {
+        this.clock = clock;
+
+        long tick = clock.millis() / TICK;
+        for (int index = 0; index < STRIPES; index++) {
+            segments[index] = new Segment(tick);
+        }
+    }
+
+    @Override
+    public boolean add(String assertionId, long expires) {
+        long now = clock.millis();
+        if (expires <= now) {
+            return false;
+        }
+
+        return getSegment(assertionId).add(assertionId, expires, now);
+    }
+
+    /**
+     * Select the segment by the high bits of the hash. The hash set of each segment indexes
+     * its buckets by the low bits, which would otherwise be equal for all its assertions and
+     * leave most of its buckets empty.
+     */
+    private Segment getSegment(String assertionId) {
+        return segments[(assertionId.hashCode() * 0x9E3779B9) >>> (Integer.SIZE - STRIPE_BITS)];
+    }
+
+    /**
+     * Number of remembered assertions, including expired assertions that are not yet cleared.
+     * @return the size
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private static final class Segment {
+
+        private final Set<String> ids = new HashSet<>();
+
+        private final List<Entry>[] slots;
+
+        private long tick;
+
+        @SuppressWarnings("unchecked")
+        private Segment(long tick) {
+            this.tick = tick;
+            this.slots = new List[SLOTS];
+            for (int index = 0; index < SLOTS; index++) {
+                slots[index] = new ArrayList<>();
+            }
+        }
+
+        synchronized boolean add(String assertionId, long expires, long now) {
+            advance(now);
+
+            if (!ids.add(assertionId)) {
+                return false;
+            }
+
+            slots[(int) ((expires / TICK) & (SLOTS - 1))].add(new Entry(assertionId, expires));
+            return true;
+        }
+
+        /**
+         * Clear the slots that passed since the last call. Assertions that expire beyond
+         * the range of the wheel remain in their slot until a later round.
+         */
+        private void advance(long now) {
+            long current = now / TICK;
+            long passed = Math.min(current - tick, SLOTS);
+
+            for (long offset = 0; offset < passed; offset++) {
+                List<Entry> slot = slots[(int) ((tick + offset) & (SLOTS - 1))];
+                slot.removeIf(entry -> {
+                    if (entry.expires > now) {
+                        return false;
+                    }
+                    ids.remove(entry.assertionId);
+                    return true;
+                });
+            }
+
+            if (passed > 0) {
+                tick = current;
+            }
+        }
+
+        synchronized int size() {
+            return ids.size();
+        }
+
+    }
+
+    private static final class Entry {
+
+        private final String assertionId;
+
+        private final long expires;
+
+        private Entry(String assertionId, long expires) {
+            this.assertionId = assertionId;
+            this.expires = expires;
+        }
+
+    }
+
+}
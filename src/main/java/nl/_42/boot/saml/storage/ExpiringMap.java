@@ -0,0 +1,187 @@
+package nl._42.boot.saml.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Map in memory of which the values expire after a fixed time. Values are spread over
+ * lock striped segments, each bounded in size. When a segment is full, its oldest values
+ * are evicted before their expiration.
+ * @param <V> the value type
+ */
+@Slf4j
+public class ExpiringMap<V> {
+
+    private static final int STRIPE_BITS = 4;
+
+    private static final int STRIPES = 1 << STRIPE_BITS;
+
+    private final Segment<V>[] segments;
+
+    private final long ttl;
+
+    private final Clock clock;
+
+    @SuppressWarnings("unchecked")
+    public ExpiringMap(Duration ttl, int maxSize, Clock clock) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Maximum size should be positive");
+        }
+
+        this.ttl = ttl.toMillis();
+        this.clock = clock;
+
+        int segmentSize = (maxSize + STRIPES - 1) / STRIPES;
+        this.segments = new Segment[STRIPES];
+        for (int index = 0; index < STRIPES; index++) {
+            segments[index] = new Segment<>(segmentSize);
+        }
+    }
+
+    /**
+     * Store the value, replacing any previous value of the key.
+     * @param key the key
+     * @param value the value
+     */
+    public void put(String key, V value) {
+        long now = clock.millis();
+        getSegment(key).put(key, new Entry<>(value, now + ttl), now);
+    }
+
+    /**
+     * Retrieve the value.
+     * @param key the key
+     * @return the value, or {@code null} when absent or expired
+     */
+    public V get(String key) {
+        return getSegment(key).get(key, clock.millis());
+    }
+
+    /**
+     * Remove and retrieve the value.
+     * @param key the key
+     * @return the removed value, or {@code null} when absent or expired
+     */
+    public V remove(String key) {
+        return getSegment(key).remove(key, clock.millis());
+    }
+
+    /**
+     * Remove the value, only when the key is still mapped to this value.
+     * @param key the key
+     * @param value the expected value
+     * @return whether the value was removed
+     */
+    public boolean remove(String key, V value) {
+        return getSegment(key).remove(key, value);
+    }
+
+    /**
+     * Select the segment by the high bits of the hash. The hash map of each segment indexes
+     * its buckets by the low bits, which would otherwise be equal for all its keys and
+     * leave most of its buckets empty.
+     */
+    private Segment<V> getSegment(String key) {
+        return segments[(key.hashCode() * 0x9E3779B9) >>> (Integer.SIZE - STRIPE_BITS)];
+    }
+
+    /**
+     * Number of values, including expired values that are not yet evicted.
+     * @return the size
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Segment of values, in order of insertion. Because each value is stored with the
+     * same time to live, this is also the order of expiration.
+     */
+    private static final class Segment<V> {
+
+        private final Map<String, Entry<V>> entries = new LinkedHashMap<>();
+
+        private final int maxSize;
+
+        private Segment(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        synchronized void put(String key, Entry<V> entry, long now) {
+            entries.remove(key);
+            evict(now);
+            entries.put(key, entry);
+        }
+
+        private void evict(long now) {
+            Iterator<Map.Entry<String, Entry<V>>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry<V>> next = iterator.next();
+                Entry<V> entry = next.getValue();
+                if (entry.expires > now && entries.size() < maxSize) {
+                    break;
+                }
+                if (entry.expires > now) {
+                    log.debug("Evicting '{}' before expiration, maximum size is reached", next.getKey());
+                }
+                iterator.remove();
+            }
+        }
+
+        synchronized V get(String key, long now) {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            } else if (entry.expires <= now) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+
+        synchronized V remove(String key, long now) {
+            Entry<V> entry = entries.remove(key);
+            if (entry == null || entry.expires <= now) {
+                return null;
+            }
+            return entry.value;
+        }
+
+        synchronized boolean remove(String key, V value) {
+            Entry<V> entry = entries.get(key);
+            if (entry == null || entry.value != value) {
+                return false;
+            }
+            entries.remove(key);
+            return true;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+
+        private final long expires;
+
+        private Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+    }
+
+}
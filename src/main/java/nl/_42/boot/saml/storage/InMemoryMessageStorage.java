@@ -0,0 +1,44 @@
+package nl._42.boot.saml.storage;
+
+import org.opensaml.xml.XMLObject;
+import org.springframework.security.saml.storage.SAMLMessageStorage;
+
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Message storage in memory, shared by all users. Messages are spread over lock
+ * striped segments, each bounded in size. Messages expire after a fixed time and
+ * can only be retrieved once.
+ */
+public class InMemoryMessageStorage implements SAMLMessageStorage {
+
+    private final ExpiringMap<XMLObject> messages;
+
+    public InMemoryMessageStorage(Duration ttl, int maxSize) {
+        this(ttl, maxSize, Clock.systemUTC());
+    }
+
+    InMemoryMessageStorage(Duration ttl, int maxSize, Clock clock) {
+        this.messages = new ExpiringMap<>(ttl, maxSize, clock);
+    }
+
+    @Override
+    public void storeMessage(String messageId, XMLObject message) {
+        messages.put(messageId, message);
+    }
+
+    @Override
+    public XMLObject retrieveMessage(String messageId) {
+        return messages.remove(messageId);
+    }
+
+    /**
+     * Number of stored messages, including expired messages that are not yet evicted.
+     * @return the size
+     */
+    public int size() {
+        return messages.size();
+    }
+
+}
@@ -0,0 +1,173 @@
+package nl._42.boot.saml.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.opensaml.Configuration;
+import org.opensaml.ws.message.encoder.MessageEncodingException;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.io.UnmarshallingException;
+import org.opensaml.xml.parse.ParserPool;
+import org.opensaml.xml.parse.XMLParserException;
+import org.opensaml.xml.util.XMLHelper;
+import org.springframework.security.saml.storage.SAMLMessageStorage;
+import org.springframework.security.saml.util.SAMLUtil;
+import org.w3c.dom.Element;
+
+import javax.sql.DataSource;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Message storage in a database table, shared by all nodes. Messages expire
+ * after a fixed time and can only be retrieved once. Requires a table:
+ * <pre>
+ * CREATE TABLE saml_message (
+ *   id      VARCHAR(255) PRIMARY KEY,
+ *   message TEXT         NOT NULL,
+ *   expires BIGINT       NOT NULL
+ * );
+ * </pre>
+ */
+@Slf4j
+public class JdbcMessageStorage implements SAMLMessageStorage {
+
+    static final String DEFAULT_TABLE = "saml_message";
+
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*");
+
+    private final DataSource dataSource;
+
+    private final ParserPool parserPool;
+
+    private final long ttl;
+
+    private final Clock clock;
+
+    private final String insert;
+    private final String select;
+    private final String delete;
+    private final String deleteExpired;
+
+    /**
+     * Time in milliseconds of the next removal of expired messages.
+     */
+    private volatile long nextCleanup;
+
+    public JdbcMessageStorage(DataSource dataSource, ParserPool parserPool, String table, Duration ttl) {
+        this(dataSource, parserPool, table, ttl, Clock.systemUTC());
+    }
+
+    JdbcMessageStorage(DataSource dataSource, ParserPool parserPool, String table, Duration ttl, Clock clock) {
+        this.dataSource = Objects.requireNonNull(dataSource, "Data source is required");
+        this.parserPool = Objects.requireNonNull(parserPool, "Parser pool is required");
+        this.ttl = ttl.toMillis();
+        this.clock = clock;
+
+        if (!TABLE_NAME.matcher(table).matches()) {
+            throw new IllegalArgumentException("Invalid table name: " + table);
+        }
+
+        this.insert = "INSERT INTO " + table + " (id, message, expires) VALUES (?, ?, ?)";
+        this.select = "SELECT message, expires FROM " + table + " WHERE id = ?";
+        this.delete = "DELETE FROM " + table + " WHERE id = ?";
+        this.deleteExpired = "DELETE FROM " + table + " WHERE expires <= ?";
+    }
+
+    @Override
+    public void storeMessage(String messageId, XMLObject message) {
+        long now = clock.millis();
+        String content = marshall(message);
+
+        try (Connection connection = dataSource.getConnection()) {
+            cleanup(connection, now);
+
+            try (PreparedStatement statement = connection.prepareStatement(insert)) {
+                statement.setString(1, messageId);
+                statement.setString(2, content);
+                statement.setLong(3, now + ttl);
+                statement.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not store SAML message " + messageId, e);
+        }
+    }
+
+    /**
+     * Remove expired messages, at most once per time to live.
+     */
+    private void cleanup(Connection connection, long now) throws SQLException {
+        if (now < nextCleanup) {
+            return;
+        }
+        nextCleanup = now + ttl;
+
+        try (PreparedStatement statement = connection.prepareStatement(deleteExpired)) {
+            statement.setLong(1, now);
+            int removed = statement.executeUpdate();
+            log.debug("Removed {} expired SAML messages", removed);
+        }
+    }
+
+    /**
+     * Retrieve and remove a message. Only the node that removes the message receives
+     * it, so a message cannot be used twice.
+     */
+    @Override
+    public XMLObject retrieveMessage(String messageId) {
+        try (Connection connection = dataSource.getConnection()) {
+            String content = null;
+            long expires = 0;
+
+            try (PreparedStatement statement = connection.prepareStatement(select)) {
+                statement.setString(1, messageId);
+                try (ResultSet result = statement.executeQuery()) {
+                    if (result.next()) {
+                        content = result.getString(1);
+                        expires = result.getLong(2);
+                    }
+                }
+            }
+
+            if (content == null) {
+                return null;
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(delete)) {
+                statement.setString(1, messageId);
+                if (statement.executeUpdate() == 0) {
+                    log.debug("SAML message {} was already retrieved", messageId);
+                    return null;
+                }
+            }
+
+            return expires > clock.millis() ? unmarshall(content) : null;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not retrieve SAML message " + messageId, e);
+        }
+    }
+
+    private static String marshall(XMLObject message) {
+        try {
+            Element element = SAMLUtil.marshallMessage(message);
+            return XMLHelper.nodeToString(element);
+        } catch (MessageEncodingException e) {
+            throw new IllegalStateException("Could not marshall SAML message", e);
+        }
+    }
+
+    private XMLObject unmarshall(String content) {
+        try {
+            Element element = parserPool.parse(new StringReader(content)).getDocumentElement();
+            return Configuration.getUnmarshallerFactory().getUnmarshaller(element).unmarshall(element);
+        } catch (XMLParserException | UnmarshallingException e) {
+            throw new IllegalStateException("Could not unmarshall SAML message", e);
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package nl._42.boot.saml.storage;
+
+import lombok.Data;
+
+/**
+ * Wrapper of all message store properties, used to verify that
+ * responses are InResponseTo a request that we have sent.
+ */
+@Data
+public class MessageStoreProperties {
+
+    private static final int DEFAULT_TTL      = 300;
+    private static final int DEFAULT_MAX_SIZE = 10000;
+
+    /**
+     * Type of store, by default the HTTP session.
+     */
+    private Type type = Type.SESSION;
+
+    /**
+     * Time in seconds that a request is remembered.
+     */
+    private int ttl = DEFAULT_TTL;
+
+    /**
+     * Maximum number of remembered requests, in memory only.
+     */
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * Table name, in the database only.
+     */
+    private String table = JdbcMessageStorage.DEFAULT_TABLE;
+
+    public enum Type {
+
+        /**
+         * Store requests in the HTTP session of the user.
+         */
+        SESSION,
+
+        /**
+         * Store requests in memory, shared by all users.
+         */
+        MEMORY,
+
+        /**
+         * Store requests in the database, shared by all nodes.
+         */
+        JDBC
+
+    }
+
+}
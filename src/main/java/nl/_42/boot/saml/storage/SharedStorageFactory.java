@@ -0,0 +1,27 @@
+package nl._42.boot.saml.storage;
+
+import org.springframework.security.saml.storage.SAMLMessageStorage;
+import org.springframework.security.saml.storage.SAMLMessageStorageFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Objects;
+
+/**
+ * Provides the same message storage on each request, instead of a storage in the
+ * HTTP session. Messages are identified by their randomly generated identifier,
+ * so no session has to be created for anonymous users that start a login.
+ */
+public class SharedStorageFactory implements SAMLMessageStorageFactory {
+
+    private final SAMLMessageStorage storage;
+
+    public SharedStorageFactory(SAMLMessageStorage storage) {
+        this.storage = Objects.requireNonNull(storage, "Storage is required");
+    }
+
+    @Override
+    public SAMLMessageStorage getMessageStorage(HttpServletRequest request) {
+        return storage;
+    }
+
+}
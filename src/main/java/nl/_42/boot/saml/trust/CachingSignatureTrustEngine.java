@@ -0,0 +1,255 @@
+package nl._42.boot.saml.trust;
+
+import lombok.extern.slf4j.Slf4j;
+import nl._42.boot.saml.metrics.SAMLEvents;
+import nl._42.boot.saml.metrics.SAMLMetrics;
+import nl._42.boot.saml.metrics.SAMLStage;
+import org.opensaml.saml2.metadata.provider.MetadataProvider;
+import org.opensaml.saml2.metadata.provider.ObservableMetadataProvider;
+import org.opensaml.security.MetadataCriteria;
+import org.opensaml.xml.security.Criteria;
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.credential.CredentialResolver;
+import org.opensaml.xml.security.criteria.EntityIDCriteria;
+import org.opensaml.xml.security.criteria.KeyAlgorithmCriteria;
+import org.opensaml.xml.security.criteria.UsageCriteria;
+import org.opensaml.xml.security.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xml.security.x509.X509Credential;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.impl.ExplicitKeySignatureTrustEngine;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Signature trust engine that remembers the trusted credentials of each entity, and
+ * the certificates that were established as trusted for them. Signatures are still
+ * verified on each message, only the trust decision for a known certificate is reused.
+ * Both are forgotten as soon as the metadata changes.
+ */
+@Slf4j
+public class CachingSignatureTrustEngine extends ExplicitKeySignatureTrustEngine implements ObservableMetadataProvider.Observer {
+
+    static final String VALIDATION = "saml.signature.validation";
+
+    static final String TRUSTED = "trusted";
+
+    private final CachingCredentialResolver resolver;
+
+    private SAMLMetrics metrics = SAMLMetrics.NONE;
+
+    public CachingSignatureTrustEngine(CredentialResolver resolver, KeyInfoCredentialResolver keyInfoResolver) {
+        super(new CachingCredentialResolver(resolver), keyInfoResolver);
+        this.resolver = (CachingCredentialResolver) getCredentialResolver();
+    }
+
+    @Override
+    public boolean validate(Signature token, CriteriaSet trustBasisCriteria) throws SecurityException {
+        long start = System.nanoTime();
+        SAMLStage stage = SAMLEvents.begin(SAMLEvents.SIGNATURE);
+        String outcome = SAMLMetrics.FAILURE;
+        boolean trusted = false;
+        try {
+            trusted = super.validate(token, trustBasisCriteria);
+            outcome = SAMLMetrics.SUCCESS;
+            return trusted;
+        } finally {
+            metrics.record(VALIDATION, System.nanoTime() - start, "type", "xml", SAMLMetrics.OUTCOME, outcome, TRUSTED, String.valueOf(trusted));
+            stage.entityId(getEntityId(trustBasisCriteria)).end(trusted ? outcome : SAMLMetrics.FAILURE);
+        }
+    }
+
+    @Override
+    public boolean validate(byte[] signature, byte[] content, String algorithmURI, CriteriaSet trustBasisCriteria, Credential candidateCredential) throws SecurityException {
+        long start = System.nanoTime();
+        SAMLStage stage = SAMLEvents.begin(SAMLEvents.SIGNATURE);
+        String outcome = SAMLMetrics.FAILURE;
+        boolean trusted = false;
+        try {
+            trusted = super.validate(signature, content, algorithmURI, trustBasisCriteria, candidateCredential);
+            outcome = SAMLMetrics.SUCCESS;
+            return trusted;
+        } finally {
+            metrics.record(VALIDATION, System.nanoTime() - start, "type", "raw", SAMLMetrics.OUTCOME, outcome, TRUSTED, String.valueOf(trusted));
+            stage.entityId(getEntityId(trustBasisCriteria)).end(trusted ? outcome : SAMLMetrics.FAILURE);
+        }
+    }
+
+    /**
+     * Reuse the trust decision of certificates that were already evaluated against
+     * the same trusted credentials.
+     */
+    @Override
+    protected boolean evaluateTrust(Credential untrustedCredential, Iterable<Credential> trustedCredentials) throws SecurityException {
+        if (!(trustedCredentials instanceof TrustedCredentials) || !(untrustedCredential instanceof X509Credential)) {
+            return super.evaluateTrust(untrustedCredential, trustedCredentials);
+        }
+
+        X509Certificate certificate = ((X509Credential) untrustedCredential).getEntityCertificate();
+        if (certificate == null) {
+            return super.evaluateTrust(untrustedCredential, trustedCredentials);
+        }
+
+        Set<String> fingerprints = ((TrustedCredentials) trustedCredentials).fingerprints;
+        String fingerprint = getFingerprint(certificate);
+        if (fingerprints.contains(fingerprint)) {
+            return true;
+        }
+
+        boolean result = super.evaluateTrust(untrustedCredential, trustedCredentials);
+        if (result) {
+            fingerprints.add(fingerprint);
+        }
+        return result;
+    }
+
+    private static String getEntityId(CriteriaSet criteria) {
+        EntityIDCriteria entity = criteria != null ? criteria.get(EntityIDCriteria.class) : null;
+        return entity != null ? entity.getEntityID() : null;
+    }
+
+    private static String getFingerprint(X509Certificate certificate) throws SecurityException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded());
+
+            StringBuilder fingerprint = new StringBuilder(digest.length * 2);
+            for (byte value : digest) {
+                fingerprint.append(Character.forDigit((value >> 4) & 0xF, 16));
+                fingerprint.append(Character.forDigit(value & 0xF, 16));
+            }
+            return fingerprint.toString();
+        } catch (NoSuchAlgorithmException | CertificateEncodingException e) {
+            throw new SecurityException("Could not calculate certificate fingerprint", e);
+        }
+    }
+
+    /**
+     * Forget all trusted credentials, invoked when the metadata changes.
+     * @param provider the changed metadata provider
+     */
+    @Override
+    public void onEvent(MetadataProvider provider) {
+        log.debug("Metadata changed, clearing trusted credentials");
+        resolver.trusted = new ConcurrentHashMap<>();
+    }
+
+    public void setMetrics(SAMLMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Number of entity roles with remembered trusted credentials.
+     * @return the size
+     */
+    public int size() {
+        return resolver.trusted.size();
+    }
+
+    /**
+     * Trusted credentials of an entity, with the certificates established as trusted.
+     */
+    private static final class TrustedCredentials implements Iterable<Credential> {
+
+        private final List<Credential> credentials;
+
+        private final Set<String> fingerprints = ConcurrentHashMap.newKeySet();
+
+        private TrustedCredentials(List<Credential> credentials) {
+            this.credentials = Collections.unmodifiableList(credentials);
+        }
+
+        @Override
+        public Iterator<Credential> iterator() {
+            return credentials.iterator();
+        }
+
+    }
+
+    /**
+     * Remembers the resolved credentials per entity, role, protocol, usage and key algorithm.
+     * Criteria that cannot be part of the key are always resolved.
+     */
+    private static final class CachingCredentialResolver implements CredentialResolver {
+
+        private final CredentialResolver delegate;
+
+        /**
+         * Replaced on metadata changes, so credentials resolved from the previous
+         * metadata can never be added to the current map.
+         */
+        private volatile ConcurrentMap<String, TrustedCredentials> trusted = new ConcurrentHashMap<>();
+
+        private CachingCredentialResolver(CredentialResolver delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Iterable<Credential> resolve(CriteriaSet criteria) throws SecurityException {
+            String key = getKey(criteria);
+            if (key == null) {
+                return delegate.resolve(criteria);
+            }
+
+            ConcurrentMap<String, TrustedCredentials> trusted = this.trusted;
+            TrustedCredentials credentials = trusted.get(key);
+            if (credentials == null) {
+                List<Credential> resolved = new ArrayList<>();
+                delegate.resolve(criteria).forEach(resolved::add);
+
+                credentials = new TrustedCredentials(resolved);
+                TrustedCredentials current = trusted.putIfAbsent(key, credentials);
+                if (current != null) {
+                    credentials = current;
+                }
+            }
+            return credentials;
+        }
+
+        @Override
+        public Credential resolveSingle(CriteriaSet criteria) throws SecurityException {
+            Iterator<Credential> iterator = resolve(criteria).iterator();
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+        private static String getKey(CriteriaSet criteria) {
+            EntityIDCriteria entity = criteria.get(EntityIDCriteria.class);
+            MetadataCriteria metadata = criteria.get(MetadataCriteria.class);
+            UsageCriteria usage = criteria.get(UsageCriteria.class);
+            KeyAlgorithmCriteria algorithm = criteria.get(KeyAlgorithmCriteria.class);
+
+            int known = count(entity) + count(metadata) + count(usage) + count(algorithm);
+            if (entity == null || known != criteria.size()) {
+                return null;
+            }
+
+            StringBuilder key = new StringBuilder(entity.getEntityID());
+            if (metadata != null) {
+                key.append("|role=").append(metadata.getRole()).append("|protocol=").append(metadata.getProtocol());
+            }
+            if (usage != null) {
+                key.append("|usage=").append(usage.getUsage());
+            }
+            if (algorithm != null) {
+                key.append("|algorithm=").append(algorithm.getKeyAlgorithm());
+            }
+            return key.toString();
+        }
+
+        private static int count(Criteria criterion) {
+            return criterion != null ? 1 : 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,90 @@
+package nl._42.boot.saml.trust;
+
+import nl._42.boot.saml.key.ReloadingKeyManager;
+import nl._42.boot.saml.key.SAMLDecrypter;
+import nl._42.boot.saml.metrics.SAMLMetrics;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.security.credential.Credential;
+import org.springframework.security.saml.context.SAMLContextProviderImpl;
+import org.springframework.security.saml.context.SAMLMessageContext;
+
+import javax.servlet.ServletException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Context provider that shares one caching trust engine between all messages, instead
+ * of creating a new trust engine for each message. Only applies to the default 'metaiop'
+ * security profile, the 'pkix' profile is still evaluated on each message.
+ * <p>
+ * The decrypter is also shared per encryption key. When the keys are reloaded, messages
+ * are decrypted with both the current and the previous key, so logins started before
+ * the reload can still be completed.
+ */
+public class SAMLCachingContextProvider extends SAMLContextProviderImpl {
+
+    private static final String PKIX_PROFILE = "pkix";
+
+    private static final String DEFAULT_KEY = "";
+
+    private final ConcurrentMap<String, SAMLDecrypter> decrypters = new ConcurrentHashMap<>();
+
+    private CachingSignatureTrustEngine trustEngine;
+
+    private SAMLMetrics metrics = SAMLMetrics.NONE;
+
+    @Override
+    public void afterPropertiesSet() throws ServletException {
+        super.afterPropertiesSet();
+
+        trustEngine = new CachingSignatureTrustEngine(metadataResolver, Configuration.getGlobalSecurityConfiguration().getDefaultKeyInfoCredentialResolver());
+        trustEngine.setMetrics(metrics);
+        metadata.getObservers().add(trustEngine);
+
+        if (keyManager instanceof ReloadingKeyManager) {
+            ((ReloadingKeyManager) keyManager).addListener(reloaded -> decrypters.clear());
+        }
+    }
+
+    @Override
+    protected void populateTrustEngine(SAMLMessageContext context) {
+        if (PKIX_PROFILE.equalsIgnoreCase(context.getLocalExtendedMetadata().getSecurityProfile())) {
+            super.populateTrustEngine(context);
+        } else {
+            context.setLocalTrustEngine(trustEngine);
+        }
+    }
+
+    @Override
+    protected void populateDecrypter(SAMLMessageContext context) {
+        String encryptionKey = context.getLocalExtendedMetadata().getEncryptionKey();
+        SAMLDecrypter decrypter = decrypters.computeIfAbsent(encryptionKey != null ? encryptionKey : DEFAULT_KEY, this::buildDecrypter);
+        context.setLocalDecrypter(decrypter);
+    }
+
+    private SAMLDecrypter buildDecrypter(String encryptionKey) {
+        String keyName = DEFAULT_KEY.equals(encryptionKey) ? null : encryptionKey;
+
+        List<Credential> credentials;
+        if (keyManager instanceof ReloadingKeyManager) {
+            credentials = ((ReloadingKeyManager) keyManager).getCredentials(keyName);
+        } else {
+            Credential credential = keyName != null ? keyManager.getCredential(keyName) : keyManager.getDefaultCredential();
+            credentials = credential != null ? Collections.singletonList(credential) : Collections.emptyList();
+        }
+        SAMLDecrypter decrypter = new SAMLDecrypter(credentials);
+        decrypter.setMetrics(metrics);
+        return decrypter;
+    }
+
+    public CachingSignatureTrustEngine getTrustEngine() {
+        return trustEngine;
+    }
+
+    public void setMetrics(SAMLMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+}
@@ -0,0 +1,131 @@
+package nl._42.boot.saml.user;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Rule that should hold for the attributes of a SAML response, otherwise
+ * the user is not allowed to log in. Rules are compiled once and can be
+ * combined, evaluation stops as soon as the outcome is known.
+ * <p>
+ * Register rules as beans to verify them on each login, next to the
+ * {@code saml.assertions} configuration.
+ */
+@FunctionalInterface
+public interface AssertionRule {
+
+    /**
+     * Determine if the rule holds.
+     * @param attributes resolves the values of an attribute, by name
+     * @return {@code true} when the rule holds
+     */
+    boolean test(Function<String, Set<String>> attributes);
+
+    default AssertionRule and(AssertionRule other) {
+        Objects.requireNonNull(other, "Other rule is required");
+        return named("(" + this + " and " + other + ")", attributes -> test(attributes) && other.test(attributes));
+    }
+
+    default AssertionRule or(AssertionRule other) {
+        Objects.requireNonNull(other, "Other rule is required");
+        return named("(" + this + " or " + other + ")", attributes -> test(attributes) || other.test(attributes));
+    }
+
+    default AssertionRule negate() {
+        return named("not " + this, attributes -> !test(attributes));
+    }
+
+    /**
+     * Describe the rule, as shown when a user does not satisfy it.
+     * @param description the description
+     * @param rule the rule
+     * @return the described rule
+     */
+    static AssertionRule named(String description, AssertionRule rule) {
+        Objects.requireNonNull(rule, "Rule is required");
+        return new AssertionRules.Named(description, rule);
+    }
+
+    /**
+     * Rule that holds when any value of the attribute fully matches the regular expression.
+     * Expressions that only consist of literal alternatives, such as {@code a|b|c},
+     * are evaluated as set lookups rather than regular expressions. When the alternatives
+     * contain a {@code .} wildcard, the literal lookup is tried before the expression,
+     * which is only evaluated for values of a matching length.
+     * @param name the attribute name
+     * @param regex the regular expression
+     * @return the compiled rule
+     */
+    static AssertionRule matches(String name, String regex) {
+        Objects.requireNonNull(regex, "Regular expression is required");
+        String description = name + " matches '" + regex + "'";
+
+        Set<String> literals = AssertionRules.getLiterals(regex);
+        if (literals != null) {
+            return named(description, AssertionRules.containsAny(name, literals));
+        }
+
+        Pattern pattern = Pattern.compile(regex);
+
+        Set<String> dotted = AssertionRules.getDottedLiterals(regex);
+        if (dotted != null) {
+            Set<Integer> lengths = dotted.stream().map(String::length).collect(Collectors.toSet());
+            return named(description, attributes -> {
+                Set<String> values = AssertionRules.getValues(attributes, name);
+                return AssertionRules.containsAny(values, dotted) || values.stream().anyMatch(value ->
+                    lengths.contains(value.length()) && pattern.matcher(value).matches()
+                );
+            });
+        }
+
+        return named(description, attributes ->
+            AssertionRules.getValues(attributes, name).stream().anyMatch(value -> pattern.matcher(value).matches())
+        );
+    }
+
+    /**
+     * Rule that holds when the attribute contains any of the values.
+     * @param name the attribute name
+     * @param values the accepted values
+     * @return the rule
+     */
+    static AssertionRule oneOf(String name, String... values) {
+        return oneOf(name, new HashSet<>(Arrays.asList(values)));
+    }
+
+    static AssertionRule oneOf(String name, Set<String> values) {
+        return named(name + " is one of " + new TreeSet<>(values), AssertionRules.containsAny(name, values));
+    }
+
+    /**
+     * Rule that holds when any value of the attribute matches the predicate.
+     * @param name the attribute name
+     * @param predicate the value predicate
+     * @return the rule
+     */
+    static AssertionRule anyValue(String name, Predicate<String> predicate) {
+        return anyValue(name, "a predicate", predicate);
+    }
+
+    /**
+     * Rule that holds when any value of the attribute matches the described predicate.
+     * @param name the attribute name
+     * @param description the description of the predicate, e.g. {@code "a staff group"}
+     * @param predicate the value predicate
+     * @return the rule
+     */
+    static AssertionRule anyValue(String name, String description, Predicate<String> predicate) {
+        Objects.requireNonNull(predicate, "Predicate is required");
+        return named("any value of " + name + " matches " + description, attributes ->
+            AssertionRules.getValues(attributes, name).stream().anyMatch(predicate)
+        );
+    }
+
+}
@@ -0,0 +1,107 @@
+package nl._42.boot.saml.user;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Helper functions for compiling and evaluating {@link AssertionRule}s.
+ */
+final class AssertionRules {
+
+    private static final String META_CHARACTERS = "\\^$.?*+()[]{}";
+    private static final String META_CHARACTERS_EXCEPT_DOT = "\\^$?*+()[]{}";
+
+    private AssertionRules() {
+    }
+
+    static Set<String> getValues(Function<String, Set<String>> attributes, String name) {
+        Set<String> values = attributes.apply(name);
+        if (values == null) {
+            values = Collections.emptySet();
+        }
+        return values;
+    }
+
+    /**
+     * Compile a rule that holds when the attribute contains any of the values.
+     */
+    static AssertionRule containsAny(String name, Set<String> values) {
+        Set<String> accepted = Collections.unmodifiableSet(new HashSet<>(values));
+        if (accepted.size() == 1) {
+            String expected = accepted.iterator().next();
+            return attributes -> getValues(attributes, name).contains(expected);
+        }
+
+        return attributes -> containsAny(getValues(attributes, name), accepted);
+    }
+
+    /**
+     * Check for any overlap, iterating over the smallest set and looking up in the largest.
+     */
+    static boolean containsAny(Set<String> values, Set<String> accepted) {
+        if (values.size() <= accepted.size()) {
+            return values.stream().anyMatch(accepted::contains);
+        }
+        return accepted.stream().anyMatch(values::contains);
+    }
+
+    /**
+     * Retrieve the literal alternatives of a regular expression.
+     * @param regex the regular expression, e.g. {@code a|b|c}
+     * @return the literals, or {@code null} when the expression relies on regular expression features
+     */
+    static Set<String> getLiterals(String regex) {
+        return getAlternatives(regex, META_CHARACTERS);
+    }
+
+    /**
+     * Retrieve the alternatives of a regular expression that only uses the {@code .} wildcard,
+     * such as {@code vorsen.nl|42.nl}. Each alternative also matches itself literally.
+     * @param regex the regular expression
+     * @return the alternatives, or {@code null} when the expression relies on other regular expression features
+     */
+    static Set<String> getDottedLiterals(String regex) {
+        return getAlternatives(regex, META_CHARACTERS_EXCEPT_DOT);
+    }
+
+    private static Set<String> getAlternatives(String regex, String meta) {
+        for (int index = 0; index < regex.length(); index++) {
+            if (meta.indexOf(regex.charAt(index)) >= 0) {
+                return null;
+            }
+        }
+
+        Set<String> alternatives = new HashSet<>();
+        Collections.addAll(alternatives, regex.split("\\|", -1));
+        return alternatives;
+    }
+
+    /**
+     * Rule with a readable description, rather than the identity of a lambda.
+     */
+    static final class Named implements AssertionRule {
+
+        private final String description;
+
+        private final AssertionRule rule;
+
+        Named(String description, AssertionRule rule) {
+            this.description = description;
+            this.rule = rule;
+        }
+
+        @Override
+        public boolean test(Function<String, Set<String>> attributes) {
+            return rule.test(attributes);
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+
+    }
+
+}
@@ -3,7 +3,9 @@ package nl._42.boot.saml.user;
 import lombok.AllArgsConstructor;
 import nl._42.boot.saml.UserNotAllowedException;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
@@ -11,27 +13,41 @@ import java.util.function.Function;
 import static java.util.stream.Collectors.joining;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
-@AllArgsConstructor
+/**
+ * Assertions on the SAML response attributes, compiled once into rules.
+ */
 class Assertions {
 
-    private final Map<String, String> assertions;
+    private final List<Expectation> expectations = new ArrayList<>();
+
+    Assertions(Map<String, String> assertions) {
+        assertions.forEach((name, regex) -> {
+            if (isNotBlank(regex)) {
+                expectations.add(new Expectation(name, regex, AssertionRule.matches(name, regex)));
+            }
+        });
+    }
 
     void verify(Function<String, Set<String>> response) {
-        assertions.keySet().forEach(name ->
-            verify(name, response)
-        );
+        for (Expectation expectation : expectations) {
+            expectation.verify(response);
+        }
     }
 
-    private void verify(String name, Function<String, Set<String>> response) {
-        String regex = assertions.get(name);
+    @AllArgsConstructor
+    private static class Expectation {
 
-        if (isNotBlank(regex)) {
-            Set<String> values = response.apply(name);
-            if (values == null) {
-                values = Collections.emptySet();
-            }
+        private final String name;
+        private final String regex;
+        private final AssertionRule rule;
+
+        void verify(Function<String, Set<String>> response) {
+            if (!rule.test(response)) {
+                Set<String> values = response.apply(name);
+                if (values == null) {
+                    values = Collections.emptySet();
+                }
 
-            if (values.stream().noneMatch(value -> value.matches(regex))) {
                 throw new UserNotAllowedException(
                     String.format(
                         "Assertion failure expected attribute %s to match %s, but was: %s",
@@ -42,6 +58,7 @@ class Assertions {
                 );
             }
         }
+
     }
 
 }
@@ -0,0 +1,266 @@
+package nl._42.boot.saml.user;
+
+import nl._42.boot.saml.metrics.SAMLMetrics;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs the asynchronous user decorators, each as soon as its dependencies are completed.
+ * The decorators are sorted once on their dependencies, so each decoration is applied
+ * after the decorations it depends on.
+ */
+final class AsyncDecorators {
+
+    static final String TIMEOUT = "timeout";
+
+    private final List<Node> nodes;
+
+    private final ExecutorService executor;
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    AsyncDecorators(List<SAMLAsyncUserDecorator> decorators, ExecutorService executor, long timeout) {
+        this.nodes = sort(decorators, timeout);
+        this.executor = executor;
+
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "saml-decorator-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    private static List<Node> sort(List<SAMLAsyncUserDecorator> decorators, long timeout) {
+        Map<String, SAMLAsyncUserDecorator> named = new LinkedHashMap<>();
+        for (SAMLAsyncUserDecorator decorator : decorators) {
+            if (named.put(decorator.getName(), decorator) != null) {
+                throw new IllegalStateException("Duplicate asynchronous user decorator: " + decorator.getName());
+            }
+        }
+
+        Map<String, Node> sorted = new LinkedHashMap<>();
+        while (sorted.size() < named.size()) {
+            int before = sorted.size();
+            for (SAMLAsyncUserDecorator decorator : named.values()) {
+                if (!sorted.containsKey(decorator.getName()) && isReady(decorator, named, sorted)) {
+                    sorted.put(decorator.getName(), new Node(sorted.size(), decorator, timeout, sorted));
+                }
+            }
+            if (sorted.size() == before) {
+                throw new IllegalStateException("Cyclic dependencies between asynchronous user decorators: " + named.keySet());
+            }
+        }
+        return new ArrayList<>(sorted.values());
+    }
+
+    private static boolean isReady(SAMLAsyncUserDecorator decorator, Map<String, SAMLAsyncUserDecorator> named, Map<String, Node> sorted) {
+        for (String dependency : decorator.getDependencies()) {
+            if (!named.containsKey(dependency)) {
+                throw new IllegalStateException("Unknown dependency '" + dependency + "' of asynchronous user decorator: " + decorator.getName());
+            }
+            if (!sorted.containsKey(dependency)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Start all decorators.
+     * @param user the mapped user
+     * @param response the SAML response
+     * @param metrics the metrics
+     * @return the running decorations
+     */
+    Execution start(UserDetails user, SAMLResponse response, SAMLMetrics metrics) {
+        @SuppressWarnings("unchecked")
+        CompletableFuture<UnaryOperator<UserDetails>>[] futures = new CompletableFuture[nodes.size()];
+        for (Node node : nodes) {
+            CompletableFuture<?> ready = node.dependencies.length == 0
+                ? CompletableFuture.completedFuture(null)
+                : CompletableFuture.allOf(select(futures, node.dependencies));
+
+            futures[node.index] = ready.thenComposeAsync(ignored -> {
+                UserDetails details = apply(user, node.upstream, futures);
+                return run(node, details, response, metrics);
+            }, executor);
+        }
+        return new Execution(futures);
+    }
+
+    private CompletableFuture<UnaryOperator<UserDetails>> run(Node node, UserDetails details, SAMLResponse response, SAMLMetrics metrics) {
+        long start = System.nanoTime();
+
+        CompletableFuture<UnaryOperator<UserDetails>> result = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = scheduler.schedule(() -> result.completeExceptionally(
+            new TimeoutException("Asynchronous user decorator '" + node.name + "' timed out after " + node.timeout + " ms")
+        ), node.timeout, TimeUnit.MILLISECONDS);
+
+        try {
+            node.decorator.decorate(details, response).whenComplete((decoration, failure) -> {
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    result.complete(decoration);
+                }
+            });
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+
+        return result.handle((decoration, failure) -> {
+            timeout.cancel(false);
+
+            Throwable cause = unwrap(failure);
+            metrics.record(SAMLUserService.DECORATION, System.nanoTime() - start,
+                "decorator", node.name,
+                SAMLMetrics.OUTCOME, cause == null ? SAMLMetrics.SUCCESS : cause instanceof TimeoutException ? TIMEOUT : SAMLMetrics.FAILURE);
+
+            if (cause == null) {
+                return decoration;
+            }
+
+            UnaryOperator<UserDetails> fallback = node.decorator.fallback(details, cause);
+            if (fallback == null) {
+                throw new CompletionException(cause);
+            }
+            return fallback;
+        });
+    }
+
+    private static CompletableFuture<?>[] select(CompletableFuture<?>[] futures, int[] indexes) {
+        CompletableFuture<?>[] selected = new CompletableFuture[indexes.length];
+        for (int index = 0; index < indexes.length; index++) {
+            selected[index] = futures[indexes[index]];
+        }
+        return selected;
+    }
+
+    private static UserDetails apply(UserDetails details, int[] indexes, CompletableFuture<UnaryOperator<UserDetails>>[] futures) {
+        for (int index : indexes) {
+            details = futures[index].join().apply(details);
+        }
+        return details;
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        while (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+
+    /**
+     * Stop the decorator threads.
+     */
+    void shutdown() {
+        scheduler.shutdownNow();
+        executor.shutdown();
+    }
+
+    /**
+     * Decorations of a single login.
+     */
+    final class Execution {
+
+        private final CompletableFuture<UnaryOperator<UserDetails>>[] futures;
+
+        private Execution(CompletableFuture<UnaryOperator<UserDetails>>[] futures) {
+            this.futures = futures;
+        }
+
+        /**
+         * Wait for all decorators and apply their decorations.
+         * @param details the user details
+         * @return the decorated user details
+         */
+        UserDetails complete(UserDetails details) {
+            for (Node node : nodes) {
+                try {
+                    details = futures[node.index].join().apply(details);
+                } catch (CompletionException e) {
+                    Throwable cause = unwrap(e);
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new AuthenticationServiceException(cause.getMessage(), cause);
+                }
+            }
+            return details;
+        }
+
+        /**
+         * Stop waiting for the decorators, when the login failed.
+         */
+        void cancel() {
+            for (CompletableFuture<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+
+    }
+
+    /**
+     * Decorator with the indexes of its dependencies, in sorted order.
+     */
+    private static final class Node {
+
+        private final int index;
+
+        private final SAMLAsyncUserDecorator decorator;
+
+        private final String name;
+
+        private final long timeout;
+
+        /**
+         * Direct dependencies, which should complete before this decorator is started.
+         */
+        private final int[] dependencies;
+
+        /**
+         * Direct and transitive dependencies, of which the decorations are applied on the user.
+         */
+        private final int[] upstream;
+
+        private Node(int index, SAMLAsyncUserDecorator decorator, long timeout, Map<String, Node> sorted) {
+            this.index = index;
+            this.decorator = decorator;
+            this.name = decorator.getName();
+            this.timeout = decorator.getTimeout() >= 0 ? decorator.getTimeout() : timeout;
+
+            Set<Integer> direct = new TreeSet<>();
+            Set<Integer> transitive = new TreeSet<>();
+            for (String dependency : decorator.getDependencies()) {
+                Node node = sorted.get(dependency);
+                direct.add(node.index);
+                transitive.add(node.index);
+                for (int upstream : node.upstream) {
+                    transitive.add(upstream);
+                }
+            }
+            this.dependencies = direct.stream().mapToInt(Integer::intValue).toArray();
+            this.upstream = transitive.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+    }
+
+}
@@ -0,0 +1,74 @@
+package nl._42.boot.saml.user;
+
+import lombok.Data;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wrapper of all properties of the asynchronous user decorators.
+ */
+@Data
+public class DecoratorProperties {
+
+    private static final long DEFAULT_TIMEOUT   = 5000;
+    private static final int  DEFAULT_POOL_SIZE = 32;
+
+    /**
+     * Time in milliseconds that each asynchronous decorator may take.
+     */
+    private long timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * Run the decorators on virtual threads, when available from Java 21 onwards.
+     */
+    private boolean virtualThreads = true;
+
+    /**
+     * Maximum number of decorator threads, when not using virtual threads.
+     */
+    private int poolSize = DEFAULT_POOL_SIZE;
+
+    /**
+     * Build the executor of the decorators.
+     * @return the executor
+     */
+    public ExecutorService getExecutor() {
+        ExecutorService executor = virtualThreads ? newVirtualThreadExecutor() : null;
+        if (executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new DaemonThreadFactory());
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "saml-decorator-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
@@ -1,6 +1,5 @@
 package nl._42.boot.saml.user;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import org.apache.commons.lang3.StringUtils;
 import org.opensaml.saml2.core.Attribute;
@@ -9,35 +8,127 @@ import org.opensaml.xml.schema.XSAny;
 import org.opensaml.xml.schema.XSString;
 import org.springframework.security.saml.SAMLCredential;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
 
-@AllArgsConstructor
+/**
+ * Response backed by the attributes of a SAML credential. The attribute values are
+ * converted once, on first access, and indexed by both name and friendly name, ignoring case.
+ */
 public class DefaultSAMLResponse implements SAMLResponse {
 
+    private static final Values EMPTY = new Values(Collections.emptySet());
+
     @Getter
     private final SAMLCredential credential;
 
+    private volatile Index index;
+
+    public DefaultSAMLResponse(SAMLCredential credential) {
+        this.credential = credential;
+    }
+
+    @Override
+    public Optional<String> getValue(String name) {
+        return Optional.ofNullable(getAttribute(name).first);
+    }
+
     @Override
     public Set<String> getValues(String name) {
-        Attribute attribute = getAttribute(name);
-        if (attribute == null) {
-            return Collections.emptySet();
+        return getAttribute(name).values;
+    }
+
+    private Values getAttribute(String name) {
+        if (StringUtils.isBlank(name)) {
+            return EMPTY;
         }
 
-        return attribute.getAttributeValues().stream()
-                        .map(this::getValueAsString)
-                        .filter(StringUtils::isNotBlank)
-                        .collect(Collectors.toSet());
+        Index index = this.index;
+        if (index == null) {
+            index = buildIndex();
+            this.index = index;
+        }
+        return index.get(name);
     }
 
-    private Attribute getAttribute(String name) {
-        if (StringUtils.isBlank(name)) {
-            return null;
+    /**
+     * Index each attribute by name and friendly name, ignoring case. The first attribute matching the name wins.
+     * Friendly names are only used when no name matches, whereas {@link SAMLCredential#getAttribute(String)}
+     * never matches a friendly name.
+     */
+    private Index buildIndex() {
+        Index index = new Index();
+
+        List<Attribute> attributes = credential.getAttributes();
+        if (attributes != null) {
+            for (Attribute attribute : attributes) {
+                Values values = getValues(attribute);
+                if (attribute.getName() != null) {
+                    index.names.putIfAbsent(attribute.getName(), values);
+                }
+                if (attribute.getFriendlyName() != null) {
+                    index.friendlyNames.putIfAbsent(attribute.getFriendlyName(), values);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * SHA-256 digest of all attribute names and values, independent of their order. Used to
+     * detect that the attributes of a user changed since the user details were cached.
+     * @return the digest
+     */
+    byte[] getFingerprint() {
+        List<Attribute> attributes = credential.getAttributes();
+        List<String> entries = new ArrayList<>();
+        if (attributes != null) {
+            for (Attribute attribute : attributes) {
+                StringBuilder entry = new StringBuilder();
+                entry.append(attribute.getName()).append('\0').append(attribute.getFriendlyName());
+                getValues(attribute).values.stream().sorted().forEach(value -> entry.append('\0').append(value));
+                entries.add(entry.toString());
+            }
+        }
+        Collections.sort(entries);
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String entry : entries) {
+                byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+                digest.update(ByteBuffer.allocate(4).putInt(bytes.length).array());
+                digest.update(bytes);
+            }
+            return digest.digest();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    private Values getValues(Attribute attribute) {
+        List<XMLObject> objects = attribute.getAttributeValues();
+        if (objects == null || objects.isEmpty()) {
+            return EMPTY;
         }
 
-        return credential.getAttribute(name);
+        Set<String> values = new HashSet<>();
+        for (XMLObject object : objects) {
+            String value = getValueAsString(object);
+            if (StringUtils.isNotBlank(value)) {
+                values.add(value);
+            }
+        }
+        return values.isEmpty() ? EMPTY : new Values(Collections.unmodifiableSet(values));
     }
 
     private String getValueAsString(XMLObject object) {
@@ -50,4 +141,39 @@ public class DefaultSAMLResponse implements SAMLResponse {
         return value;
     }
 
+    /**
+     * Converted values by attribute name and by friendly name.
+     */
+    private static final class Index {
+
+        private final Map<String, Values> names = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        private final Map<String, Values> friendlyNames = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        private Values get(String name) {
+            Values values = names.get(name);
+            if (values == null) {
+                values = friendlyNames.getOrDefault(name, EMPTY);
+            }
+            return values;
+        }
+
+    }
+
+    /**
+     * Converted values of an attribute, with the first value in natural order.
+     */
+    private static final class Values {
+
+        private final Set<String> values;
+
+        private final String first;
+
+        private Values(Set<String> values) {
+            this.values = values;
+            this.first = values.stream().sorted().findFirst().orElse(null);
+        }
+
+    }
+
 }
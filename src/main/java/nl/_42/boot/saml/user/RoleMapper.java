@@ -1,31 +1,366 @@
 package nl._42.boot.saml.user;
 
-import lombok.AllArgsConstructor;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
 
-@AllArgsConstructor
+/**
+ * Maps the role values of a SAML response onto granted authorities. Roles are matched
+ * exactly, or with a {@code *} wildcard:
+ * <ul>
+ *   <li>{@code app-*} matches all roles starting with {@code app-}</li>
+ *   <li>{@code *,ou=groups,dc=42,dc=nl} matches all roles ending with the LDAP DN suffix</li>
+ *   <li>{@code cn=*-admin,*} matches any other wildcard pattern</li>
+ * </ul>
+ * The rules are compiled once into a hash table and two character tries, one for prefixes
+ * and one for suffixes. Each role is matched into a bit set of authorities, and the authorities
+ * of each distinct bit set are shared between all users with the same combination of roles.
+ */
 public class RoleMapper {
 
-    private final Map<String, String> roles;
+    private static final char WILDCARD = '*';
 
+    private static final int MAX_CACHED = 1024;
+
+    /**
+     * Distinct authorities, sorted by name, of which the index is the bit in each match.
+     */
+    private final GrantedAuthority[] authorities;
+
+    private final Map<String, int[]> exact = new HashMap<>();
+
+    private final Node prefixes = new Node(WILDCARD);
+
+    private final Node suffixes = new Node(WILDCARD);
+
+    private final List<Pattern> patterns = new ArrayList<>();
+
+    private final List<int[]> patternAuthorities = new ArrayList<>();
+
+    private final ConcurrentMap<Match, List<GrantedAuthority>> cache = new ConcurrentHashMap<>();
+
+    public RoleMapper(Map<String, String> roles) {
+        Map<String, Integer> indexes = new TreeMap<>();
+        roles.values().stream().filter(StringUtils::isNotBlank).forEach(authority -> indexes.put(authority, 0));
+
+        authorities = new GrantedAuthority[indexes.size()];
+        int index = 0;
+        for (Map.Entry<String, Integer> entry : indexes.entrySet()) {
+            authorities[index] = new SimpleGrantedAuthority(entry.getKey());
+            entry.setValue(index++);
+        }
+
+        roles.forEach((role, authority) -> {
+            if (role != null && StringUtils.isNotBlank(authority)) {
+                add(role, indexes.get(authority));
+            }
+        });
+
+        prefixes.compact(false);
+        suffixes.compact(true);
+    }
+
+    private void add(String role, int authority) {
+        int first = role.indexOf(WILDCARD);
+        int last = role.lastIndexOf(WILDCARD);
+
+        if (first < 0) {
+            exact.put(role, append(exact.get(role), authority));
+        } else if (first == last && first == role.length() - 1) {
+            prefixes.add(role, 0, role.length() - 1, 1, authority);
+        } else if (first == last && first == 0) {
+            suffixes.add(role, role.length() - 1, 0, -1, authority);
+        } else {
+            patterns.add(compile(role));
+            patternAuthorities.add(new int[] { authority });
+        }
+    }
+
+    private static Pattern compile(String role) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int index = role.indexOf(WILDCARD); index >= 0; index = role.indexOf(WILDCARD, start)) {
+            if (index > start) {
+                regex.append(Pattern.quote(role.substring(start, index)));
+            }
+            regex.append(".*");
+            start = index + 1;
+        }
+        if (start < role.length()) {
+            regex.append(Pattern.quote(role.substring(start)));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Retrieve the authorities granted to a set of roles.
+     * @param roles the roles
+     * @return the distinct authorities, sorted by name
+     */
     public Collection<GrantedAuthority> getAuthorities(Collection<String> roles) {
-        return roles.stream()
-                    .map(this::getRole)
-                    .filter(StringUtils::isNotBlank)
-                    .distinct()
-                    .sorted()
-                    .map(SimpleGrantedAuthority::new)
-                    .collect(Collectors.toList());
+        if (roles.isEmpty() || authorities.length == 0) {
+            return Collections.emptyList();
+        }
+
+        Match match = new Match(authorities.length);
+        for (String role : roles) {
+            if (role != null && match(role, match)) {
+                break;
+            }
+        }
+
+        List<GrantedAuthority> result = cache.get(match);
+        if (result == null) {
+            result = match.getAuthorities(authorities);
+            if (cache.size() >= MAX_CACHED) {
+                cache.clear();
+            }
+            cache.putIfAbsent(match, result);
+        }
+        return result;
     }
 
+    /**
+     * Retrieve the authority granted to a single role.
+     * @param value the role
+     * @return the first authority by name, or {@code null} when none
+     */
     public String getRole(String value) {
-        return roles.get(value);
+        if (value == null || authorities.length == 0) {
+            return null;
+        }
+
+        Match match = new Match(authorities.length);
+        match(value, match);
+        List<GrantedAuthority> granted = match.getAuthorities(authorities);
+        return granted.isEmpty() ? null : granted.get(0).getAuthority();
+    }
+
+    /**
+     * Match a single role.
+     * @return {@code true} when all authorities are matched, so no other roles have to be matched
+     */
+    private boolean match(String role, Match match) {
+        int[] granted = exact.get(role);
+        if (granted != null) {
+            match.add(granted);
+        }
+
+        prefixes.match(role, 0, role.length(), 1, match);
+        suffixes.match(role, role.length() - 1, -1, -1, match);
+
+        for (int index = 0; index < patterns.size(); index++) {
+            if (patterns.get(index).matcher(role).matches()) {
+                match.add(patternAuthorities.get(index));
+            }
+        }
+        return match.isComplete();
+    }
+
+    private static int[] append(int[] values, int value) {
+        if (values == null) {
+            return new int[] { value };
+        }
+        for (int current : values) {
+            if (current == value) {
+                return values;
+            }
+        }
+        int[] result = Arrays.copyOf(values, values.length + 1);
+        result[values.length] = value;
+        return result;
+    }
+
+    /**
+     * Bit set of matched authorities.
+     */
+    private static final class Match {
+
+        private final long[] words;
+
+        private final int size;
+
+        private int count;
+
+        private Match(int size) {
+            this.words = new long[(size + 63) >>> 6];
+            this.size = size;
+        }
+
+        private void add(int[] authorities) {
+            for (int authority : authorities) {
+                long bit = 1L << authority;
+                if ((words[authority >>> 6] & bit) == 0) {
+                    words[authority >>> 6] |= bit;
+                    count++;
+                }
+            }
+        }
+
+        private boolean isComplete() {
+            return count == size;
+        }
+
+        private List<GrantedAuthority> getAuthorities(GrantedAuthority[] authorities) {
+            List<GrantedAuthority> result = new ArrayList<>(count);
+            for (int index = 0; index < size; index++) {
+                if ((words[index >>> 6] & (1L << index)) != 0) {
+                    result.add(authorities[index]);
+                }
+            }
+            return Collections.unmodifiableList(result);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Match && Arrays.equals(words, ((Match) other).words);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(words);
+        }
+
+    }
+
+    /**
+     * Character trie, of which each node holds the authorities of the rules ending there.
+     * Children are kept in sorted arrays, so matching does not need to box characters.
+     * The trie is compacted once all rules are added.
+     */
+    private static final class Node {
+
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_NODES = new Node[0];
+        private static final int[] NO_AUTHORITIES = new int[0];
+
+        private final char key;
+
+        /**
+         * Characters following the key of this node after compacting, in the order of the role.
+         */
+        private String label = "";
+        private char[] keys = NO_KEYS;
+        private Node[] nodes = NO_NODES;
+        private int[] authorities = NO_AUTHORITIES;
+
+        private Node(char key) {
+            this.key = key;
+        }
+
+        private void add(String role, int from, int to, int step, int authority) {
+            Node node = this;
+            for (int index = from; index != to; index += step) {
+                node = node.child(role.charAt(index));
+            }
+            node.authorities = append(node.authorities, authority);
+        }
+
+        private Node child(char key) {
+            int index = Arrays.binarySearch(keys, key);
+            if (index >= 0) {
+                return nodes[index];
+            }
+
+            int insert = -index - 1;
+            Node child = new Node(key);
+            keys = insert(keys, insert, key);
+            nodes = insert(nodes, insert, child);
+            return child;
+        }
+
+        private void match(String role, int from, int to, int step, Match match) {
+            Node node = this;
+            int index = from;
+            while (true) {
+                if (node.authorities.length > 0) {
+                    match.add(node.authorities);
+                }
+                if (index == to) {
+                    return;
+                }
+
+                node = node.get(role.charAt(index));
+                if (node == null) {
+                    return;
+                }
+                index += step;
+
+                int length = node.label.length();
+                if (length > 0) {
+                    int start = step > 0 ? index : index - length + 1;
+                    if (!role.regionMatches(start, node.label, 0, length)) {
+                        return;
+                    }
+                    index += step * length;
+                }
+            }
+        }
+
+        /**
+         * Merge each chain of nodes with a single child and no authorities into the label of
+         * one node, so common parts such as LDAP DN suffixes are compared at once.
+         * @param reverse if the trie is walked from the end of each role
+         */
+        private void compact(boolean reverse) {
+            for (Node child : nodes) {
+                while (child.nodes.length == 1 && child.authorities.length == 0) {
+                    Node next = child.nodes[0];
+                    if (reverse) {
+                        child.label = next.label + next.key + child.label;
+                    } else {
+                        child.label = child.label + next.key + next.label;
+                    }
+                    child.keys = next.keys;
+                    child.nodes = next.nodes;
+                    child.authorities = next.authorities;
+                }
+                child.compact(reverse);
+            }
+        }
+
+        private Node get(char key) {
+            char[] keys = this.keys;
+            if (keys.length <= 8) {
+                for (int index = 0; index < keys.length; index++) {
+                    if (keys[index] == key) {
+                        return nodes[index];
+                    }
+                }
+                return null;
+            }
+            int index = Arrays.binarySearch(keys, key);
+            return index >= 0 ? nodes[index] : null;
+        }
+
+        private static char[] insert(char[] values, int index, char value) {
+            char[] result = new char[values.length + 1];
+            System.arraycopy(values, 0, result, 0, index);
+            result[index] = value;
+            System.arraycopy(values, index, result, index + 1, values.length - index);
+            return result;
+        }
+
+        private static Node[] insert(Node[] values, int index, Node value) {
+            Node[] result = new Node[values.length + 1];
+            System.arraycopy(values, 0, result, 0, index);
+            result[index] = value;
+            System.arraycopy(values, index, result, index + 1, values.length - index);
+            return result;
+        }
+
     }
 
 }
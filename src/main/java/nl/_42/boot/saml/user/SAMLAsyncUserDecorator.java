@@ -0,0 +1,62 @@
+package nl._42.boot.saml.user;
+
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
+
+/**
+ * Decorator that retrieves additional user details asynchronously, e.g. from a remote
+ * service. All asynchronous decorators are started in parallel after the user is mapped,
+ * unless they depend on other decorators, and run while the {@link SAMLUserDecorator}s
+ * are applied. Their decorations are applied afterwards, in order of their dependencies.
+ */
+public interface SAMLAsyncUserDecorator {
+
+    /**
+     * Start retrieving the decoration of the user. Invoked on a decorator thread, so
+     * blocking implementations can return a completed future.
+     * @param details the mapped user, with the decorations of all dependencies applied
+     * @param response the SAML response
+     * @return the decoration to apply on the user details
+     */
+    CompletableFuture<UnaryOperator<UserDetails>> decorate(UserDetails details, SAMLResponse response);
+
+    /**
+     * Name of this decorator, referred to in the dependencies of other decorators.
+     * @return the name, by default the simple class name
+     */
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Names of the decorators that should be applied before this decorator is started.
+     * @return the dependencies, by default none
+     */
+    default Collection<String> getDependencies() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Maximum time that this decorator may take.
+     * @return the timeout in milliseconds, or a negative value to use 'saml.decorators.timeout'
+     */
+    default long getTimeout() {
+        return -1;
+    }
+
+    /**
+     * Decoration to apply when this decorator failed or timed out. Should not block, as
+     * it may be invoked on the thread that signals the timeouts.
+     * @param details the mapped user, with the decorations of all dependencies applied
+     * @param failure the failure, a {@link java.util.concurrent.TimeoutException} on timeout
+     * @return the fallback decoration, or {@code null} to fail the login
+     */
+    default UnaryOperator<UserDetails> fallback(UserDetails details, Throwable failure) {
+        return null;
+    }
+
+}
@@ -3,8 +3,12 @@ package nl._42.boot.saml.user;
 import lombok.extern.slf4j.Slf4j;
 import nl._42.boot.saml.SAMLProperties;
 import nl._42.boot.saml.UserNotAllowedException;
+import nl._42.boot.saml.metrics.SAMLEvents;
+import nl._42.boot.saml.metrics.SAMLMetrics;
+import nl._42.boot.saml.metrics.SAMLStage;
 import org.apache.commons.lang3.StringUtils;
 import org.opensaml.saml2.core.NameID;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.User;
@@ -14,10 +18,13 @@ import org.springframework.security.saml.userdetails.SAMLUserDetailsService;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -29,18 +36,26 @@ import java.util.stream.Collectors;
  * @since Nov 18, 2014
  */
 @Slf4j
-public class SAMLUserService implements SAMLUserDetailsService {
+public class SAMLUserService implements SAMLUserDetailsService, DisposableBean {
 
     private static final String USER_NAME = "user";
     private static final String ROLE_NAME = "role";
 
+    static final String MAPPING = "saml.user.mapping";
+    static final String DECORATION = "saml.user.decorator";
+
     private final Map<String, String> attributes;
     private final Assertions assertions;
 
     private final RoleMapper roleMapper;
     private final boolean roleRequired;
+    private final DecoratorProperties decoratorProperties;
+    private final UserCache cache;
 
     private List<SAMLUserDecorator> decorators = new ArrayList<>();
+    private AsyncDecorators asyncDecorators;
+    private List<AssertionRule> rules = new ArrayList<>();
+    private SAMLMetrics metrics = SAMLMetrics.NONE;
 
     public SAMLUserService(SAMLProperties properties) {
         Objects.requireNonNull(properties, "Properties are required");
@@ -52,6 +67,8 @@ public class SAMLUserService implements SAMLUserDetailsService {
 
         this.roleMapper = properties.getRoleMapper();
         this.roleRequired = properties.isRoleRequired();
+        this.decoratorProperties = properties.getDecorators();
+        this.cache = properties.getUserCache().getCache();
     }
 
     /**
@@ -59,10 +76,64 @@ public class SAMLUserService implements SAMLUserDetailsService {
      */
     @Override
     public UserDetails loadUserBySAML(SAMLCredential credential) {
-        SAMLResponse response = new DefaultSAMLResponse(credential);
+        DefaultSAMLResponse response = new DefaultSAMLResponse(credential);
+
+        String principal = getPrincipal(credential);
+        if (cache == null || principal == null) {
+            return load(credential, response);
+        }
 
-        UserDetails user = buildUser(credential, response);
-        return decorate(user, response);
+        byte[] fingerprint = response.getFingerprint();
+        UserDetails user = cache.get(principal, fingerprint, metrics);
+        if (user == null) {
+            user = load(credential, response);
+            cache.put(principal, fingerprint, user);
+        }
+        return user;
+    }
+
+    /**
+     * Key of the user in the cache, consisting of the IdP and Name ID.
+     */
+    private String getPrincipal(SAMLCredential credential) {
+        String nameId = Optional.ofNullable(credential.getNameID()).map(NameID::getValue).orElse("");
+        if (StringUtils.isBlank(nameId)) {
+            return null;
+        }
+        return credential.getRemoteEntityID() + '|' + nameId;
+    }
+
+    private UserDetails load(SAMLCredential credential, SAMLResponse response) {
+        UserDetails user = map(credential, response);
+        if (asyncDecorators == null) {
+            return decorate(user, response);
+        }
+
+        AsyncDecorators.Execution execution = asyncDecorators.start(user, response, metrics);
+        try {
+            user = decorate(user, response);
+        } catch (RuntimeException e) {
+            execution.cancel();
+            throw e;
+        }
+        return execution.complete(user);
+    }
+
+    private UserDetails map(SAMLCredential credential, SAMLResponse response) {
+        long start = System.nanoTime();
+        SAMLStage stage = SAMLEvents.begin(SAMLEvents.MAPPING);
+        RuntimeException failure = null;
+        try {
+            return buildUser(credential, response);
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            metrics.record(MAPPING, System.nanoTime() - start,
+                SAMLMetrics.OUTCOME, failure == null ? SAMLMetrics.SUCCESS : SAMLMetrics.FAILURE,
+                "reason", SAMLMetrics.reason(failure));
+            stage.entityId(credential.getRemoteEntityID()).end(failure == null ? SAMLMetrics.SUCCESS : SAMLMetrics.FAILURE);
+        }
     }
 
     private UserDetails buildUser(SAMLCredential credential, SAMLResponse response) {
@@ -71,12 +142,25 @@ public class SAMLUserService implements SAMLUserDetailsService {
         String userName = getUserName(credential, response);
         Collection<GrantedAuthority> authorities = getAuthorities(response);
 
-        assertions.verify((name) -> {
-            String attribute = attributes.getOrDefault(name, name);
+        verify(response);
+
+        return new User(userName, "", authorities);
+    }
+
+    private void verify(SAMLResponse response) {
+        Map<String, Set<String>> values = new HashMap<>();
+        Function<String, Set<String>> resolver = (name) -> values.computeIfAbsent(name, (key) -> {
+            String attribute = attributes.getOrDefault(key, key);
             return response.getValues(attribute);
         });
 
-        return new User(userName, "", authorities);
+        assertions.verify(resolver);
+
+        for (AssertionRule rule : rules) {
+            if (!rule.test(resolver)) {
+                throw new UserNotAllowedException("Assertion failure, user does not satisfy rule: " + rule);
+            }
+        }
     }
 
     private String getUserName(SAMLCredential credential, SAMLResponse response) {
@@ -116,14 +200,56 @@ public class SAMLUserService implements SAMLUserDetailsService {
 
     private UserDetails decorate(UserDetails details, SAMLResponse response) {
         for (SAMLUserDecorator decorator : decorators) {
-            details = decorator.decorate(details, response);
+            details = decorate(decorator, details, response);
         }
         return details;
     }
 
+    private UserDetails decorate(SAMLUserDecorator decorator, UserDetails details, SAMLResponse response) {
+        long start = System.nanoTime();
+        RuntimeException failure = null;
+        try {
+            return decorator.decorate(details, response);
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            metrics.record(DECORATION, System.nanoTime() - start,
+                "decorator", decorator.getClass().getSimpleName(),
+                SAMLMetrics.OUTCOME, failure == null ? SAMLMetrics.SUCCESS : SAMLMetrics.FAILURE);
+        }
+    }
+
     @Autowired(required = false)
     public void setDecorators(List<SAMLUserDecorator> decorators) {
         this.decorators = decorators;
     }
 
+    @Autowired(required = false)
+    public void setAsyncDecorators(List<SAMLAsyncUserDecorator> decorators) {
+        destroy();
+        this.asyncDecorators = decorators.isEmpty() ? null : new AsyncDecorators(
+            decorators, decoratorProperties.getExecutor(), decoratorProperties.getTimeout()
+        );
+    }
+
+    @Autowired(required = false)
+    public void setRules(List<AssertionRule> rules) {
+        this.rules = rules;
+    }
+
+    public void setMetrics(SAMLMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Stop the threads of the asynchronous decorators.
+     */
+    @Override
+    public void destroy() {
+        if (asyncDecorators != null) {
+            asyncDecorators.shutdown();
+        }
+    }
+
 }
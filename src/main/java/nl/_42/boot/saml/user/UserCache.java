@@ -0,0 +1,88 @@
+package nl._42.boot.saml.user;
+
+import nl._42.boot.saml.metrics.SAMLMetrics;
+import nl._42.boot.saml.storage.ExpiringMap;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Cache of decorated user details, keyed by the principal of the IdP. Each entry holds the
+ * fingerprint of the attributes it was built from, so a user is mapped and decorated again
+ * as soon as the IdP sends different attributes. Users are spread over lock striped segments,
+ * each bounded in size, and expire after a fixed time.
+ */
+public class UserCache {
+
+    static final String NAME = "saml.user.cache";
+
+    static final String RESULT = "result";
+    static final String HIT = "hit";
+    static final String MISS = "miss";
+    static final String CHANGED = "changed";
+
+    private final ExpiringMap<Entry> users;
+
+    public UserCache(Duration ttl, int maxSize) {
+        this(ttl, maxSize, Clock.systemUTC());
+    }
+
+    UserCache(Duration ttl, int maxSize, Clock clock) {
+        this.users = new ExpiringMap<>(ttl, maxSize, clock);
+    }
+
+    /**
+     * Retrieve the cached user details. Entries of which the fingerprint differs are removed.
+     * @param principal the principal
+     * @param fingerprint the fingerprint of the current attributes
+     * @param metrics the metrics
+     * @return the user details, or {@code null} when not cached
+     */
+    UserDetails get(String principal, byte[] fingerprint, SAMLMetrics metrics) {
+        Entry entry = users.get(principal);
+        if (entry == null) {
+            metrics.increment(NAME, RESULT, MISS);
+            return null;
+        } else if (!MessageDigest.isEqual(entry.fingerprint, fingerprint)) {
+            users.remove(principal, entry);
+            metrics.increment(NAME, RESULT, CHANGED);
+            return null;
+        }
+        metrics.increment(NAME, RESULT, HIT);
+        return entry.user;
+    }
+
+    /**
+     * Cache the user details.
+     * @param principal the principal
+     * @param fingerprint the fingerprint of the attributes
+     * @param user the decorated user details
+     */
+    void put(String principal, byte[] fingerprint, UserDetails user) {
+        users.put(principal, new Entry(fingerprint, user));
+    }
+
+    /**
+     * Number of cached users, including expired users that are not yet evicted.
+     * @return the size
+     */
+    public int size() {
+        return users.size();
+    }
+
+    private static final class Entry {
+
+        private final byte[] fingerprint;
+
+        private final UserDetails user;
+
+        private Entry(byte[] fingerprint, UserDetails user) {
+            this.fingerprint = fingerprint;
+            this.user = user;
+        }
+
+    }
+
+}
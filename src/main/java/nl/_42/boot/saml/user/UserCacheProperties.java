@@ -0,0 +1,40 @@
+package nl._42.boot.saml.user;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+/**
+ * Wrapper of all properties of the user cache, used to skip mapping and
+ * decorating users that log in again with the same attributes.
+ */
+@Data
+public class UserCacheProperties {
+
+    private static final int DEFAULT_TTL      = 300;
+    private static final int DEFAULT_MAX_SIZE = 10000;
+
+    /**
+     * Cache the decorated user details, by default disabled.
+     */
+    private boolean enabled;
+
+    /**
+     * Time in seconds that a user is remembered.
+     */
+    private int ttl = DEFAULT_TTL;
+
+    /**
+     * Maximum number of remembered users.
+     */
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * Build the user cache.
+     * @return the cache, or {@code null} when disabled
+     */
+    public UserCache getCache() {
+        return enabled ? new UserCache(Duration.ofSeconds(ttl), maxSize) : null;
+    }
+
+}
@@ -52,9 +52,13 @@ public class SAMLDefaultEntryPoint extends SAMLEntryPoint {
     }
 
     private void configureSession(HttpServletRequest request) {
-        HttpSession session = request.getSession();
         String successUrl = getSuccessUrl(request);
-        session.setAttribute(SUCCESS_URL_SESSION_KEY, successUrl);
+
+        // Only create a session when there is something to remember
+        HttpSession session = request.getSession(successUrl != null);
+        if (session != null) {
+            session.setAttribute(SUCCESS_URL_SESSION_KEY, successUrl);
+        }
     }
 
     private String getSuccessUrl(HttpServletRequest request) {
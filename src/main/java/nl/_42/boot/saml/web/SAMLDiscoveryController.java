@@ -28,7 +28,7 @@ public class SAMLDiscoveryController {
             throw new IllegalArgumentException("Cannot directly access this service.");
         } else {
             model.addAttribute("idps", metadata.getIDPEntityNames());
-            return "redirect:/saml/login?idp=" + properties.getIdpUrl();
+            return "redirect:/saml/login?idp=" + properties.getDefaultIdpUrl();
         }
     }
 
@@ -3,10 +3,14 @@
  */
 package nl._42.boot.saml.web;
 
-import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import nl._42.boot.saml.SAMLProperties;
 import nl._42.boot.saml.UserNotAllowedException;
+import nl._42.boot.saml.metrics.SAMLEvents;
+import nl._42.boot.saml.metrics.SAMLMetrics;
+import nl._42.boot.saml.metrics.SAMLStage;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -19,35 +23,54 @@ import java.util.Optional;
 import java.util.stream.Stream;
 
 @Slf4j
-@AllArgsConstructor
+@RequiredArgsConstructor
 public class SAMLFailureHandler implements AuthenticationFailureHandler {
 
+    static final String LOGIN = "saml.login";
+
     private final SAMLProperties properties;
 
+    @Setter
+    private SAMLMetrics metrics = SAMLMetrics.NONE;
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void onAuthenticationFailure(HttpServletRequest request, HttpServletResponse response, AuthenticationException exception) {
         String location = properties.getForbiddenUrl();
+        metrics.increment(LOGIN, SAMLMetrics.OUTCOME, SAMLMetrics.FAILURE, "reason", getReason(exception));
 
-        if (exception instanceof UserNotAllowedException) {
-            log.warn("Attempted to login with unauthorized role...", exception);
-        } else {
-            log.warn("Could not authenticate, clearing sessions and cookies...", exception);
-            request.getSession().invalidate();
-            SecurityContextHolder.getContext().setAuthentication(null);
+        SAMLStage stage = SAMLEvents.begin(SAMLEvents.REDIRECT);
+        try {
+            if (exception instanceof UserNotAllowedException) {
+                log.warn("Attempted to login with unauthorized role...", exception);
+            } else {
+                log.warn("Could not authenticate, clearing sessions and cookies...", exception);
+                request.getSession().invalidate();
+                SecurityContextHolder.getContext().setAuthentication(null);
 
-            if (properties.isRemoveAllCookiesUponAuthenticationFailure()) {
-                removeAllCookies(request, response);
+                if (properties.isRemoveAllCookiesUponAuthenticationFailure()) {
+                    removeAllCookies(request, response);
+                }
+
+                location = properties.getExpiredUrl();
             }
 
-            location = properties.getExpiredUrl();
+            redirectTo(response, location);
+        } finally {
+            stage.end(SAMLMetrics.FAILURE);
         }
-
-        redirectTo(response, location);
     }
     
+    /**
+     * Authentication failures are usually wrapped, the cause tells what went wrong.
+     */
+    private static String getReason(AuthenticationException exception) {
+        Throwable cause = exception.getCause();
+        return SAMLMetrics.reason(cause != null ? cause : exception);
+    }
+
     private void redirectTo(HttpServletResponse response, String location) {
         response.setHeader("Location", location);
         response.setStatus(HttpStatus.SEE_OTHER.value());
@@ -1,10 +1,8 @@
 package nl._42.boot.saml.web;
 
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.security.saml.metadata.MetadataGeneratorFilter;
-import org.springframework.security.web.DefaultSecurityFilterChain;
-import org.springframework.security.web.SecurityFilterChain;
-import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import nl._42.boot.saml.metrics.SAMLEvents;
+import nl._42.boot.saml.metrics.SAMLMetrics;
 import org.springframework.web.filter.GenericFilterBean;
 
 import javax.servlet.Filter;
@@ -14,50 +12,60 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 @Slf4j
 public class SAMLFilter extends GenericFilterBean {
 
-  private final MetadataGeneratorFilter generator;
+  static final String DISPATCH = "saml.filter";
 
-  private final List<SecurityFilterChain> filters = new ArrayList<>();
+  /**
+   * Request attribute with the {@link System#nanoTime()} the SAML endpoint was dispatched.
+   */
+  public static final String STARTED = SAMLFilter.class.getName() + ".STARTED";
 
-  public SAMLFilter(MetadataGeneratorFilter generator) {
-    this.generator = generator;
-  }
+  private final SAMLRequestRouter router = new SAMLRequestRouter();
+
+  private final Map<Filter, String> endpoints = new IdentityHashMap<>();
+
+  private SAMLMetrics metrics = SAMLMetrics.NONE;
 
   public void on(String url, Filter filter) {
-    AntPathRequestMatcher matcher = new AntPathRequestMatcher(url);
-    filters.add(new DefaultSecurityFilterChain(matcher, filter));
+    router.on(url, filter);
+    endpoints.putIfAbsent(filter, url);
   }
 
   @Override
   public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
-    HttpServletRequest httpServletRequest = (HttpServletRequest) request;
-    Filter filter = getFilter(httpServletRequest);
+    Filter filter = router.getFilter((HttpServletRequest) request);
 
     if (filter == null) {
       chain.doFilter(request, response);
     } else {
-      proceed(request, response, filter, chain);
+      dispatch(filter, request, response, chain);
     }
   }
 
-  private void proceed(ServletRequest request, ServletResponse response, Filter filter, FilterChain chain) throws IOException, ServletException {
-    // Ensure metadata generation is performed
-    generator.doFilter(request, response, (req, res) -> {});
-
-    // Perform SAML action
-    filter.doFilter(request, response, chain);
+  private void dispatch(Filter filter, ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+    long start = System.nanoTime();
+    request.setAttribute(STARTED, start);
+    Exception failure = null;
+    try {
+      filter.doFilter(request, response, chain);
+    } catch (IOException | ServletException | RuntimeException e) {
+      failure = e;
+      throw e;
+    } finally {
+      metrics.record(DISPATCH, System.nanoTime() - start,
+          "endpoint", endpoints.get(filter),
+          SAMLMetrics.OUTCOME, failure == null ? SAMLMetrics.SUCCESS : SAMLMetrics.FAILURE);
+      SAMLEvents.clear();
+    }
   }
 
-  private Filter getFilter(HttpServletRequest request) {
-    return filters.stream()
-                  .filter(filter -> filter.matches(request))
-                  .flatMap(chain -> chain.getFilters().stream())
-                  .findFirst().orElse(null);
+  public void setMetrics(SAMLMetrics metrics) {
+    this.metrics = metrics;
   }
 
 }
@@ -1,14 +1,34 @@
 package nl._42.boot.saml.web;
 
 import org.apache.commons.lang.StringUtils;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.opensaml.xml.io.MarshallingException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.saml.key.KeyManager;
 import org.springframework.security.saml.metadata.MetadataDisplayFilter;
+import org.springframework.security.saml.metadata.MetadataManager;
+import org.springframework.util.DigestUtils;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Displays the metadata of our service provider. The (signed) metadata is serialized
+ * once and served from memory, with a strong ETag and a precompressed gzip variant.
+ * Serialization is only repeated when the entity descriptor or signing certificate changes.
+ */
 public class SAMLMetadataDisplayFilter extends MetadataDisplayFilter {
 
   private static final String SPRING_SAML_METADATA = "spring_saml_metadata";
@@ -18,8 +38,21 @@ public class SAMLMetadataDisplayFilter extends MetadataDisplayFilter {
   private static final String PROTOCOL = "://";
   private static final String PATH = "/";
 
+  private static final String CONTENT_TYPE = "application/samlmetadata+xml;charset=UTF-8";
+  private static final String GZIP = "gzip";
+  private static final String X_GZIP = "x-gzip";
+  private static final String IDENTITY = "identity";
+  private static final String ANY = "*";
+  private static final String QUALITY = "q";
+
   private final String fileName;
 
+  private MetadataManager manager;
+
+  private KeyManager keyManager;
+
+  private volatile Snapshot snapshot;
+
   public SAMLMetadataDisplayFilter(String provider) {
     this.fileName = getMetadataFileName(provider);
   }
@@ -40,8 +73,183 @@ public class SAMLMetadataDisplayFilter extends MetadataDisplayFilter {
 
   @Override
   protected void processMetadataDisplay(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
-    super.processMetadataDisplay(request, response);
+    Snapshot current = getSnapshot();
+
+    boolean gzip = acceptsGzip(request);
+    String etag = gzip ? current.gzipEtag : current.etag;
+
+    response.setHeader(HttpHeaders.ETAG, etag);
+    response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePublic().getHeaderValue());
+    response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+    if (isNotModified(request, etag)) {
+      response.setStatus(HttpStatus.NOT_MODIFIED.value());
+      return;
+    }
+
+    byte[] content = gzip ? current.gzip : current.xml;
+
+    response.setContentType(CONTENT_TYPE);
     response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + this.fileName + "\"");
+    if (gzip) {
+      response.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP);
+    }
+    response.setContentLength(content.length);
+    response.getOutputStream().write(content);
+  }
+
+  private Snapshot getSnapshot() throws ServletException {
+    String entityId = manager.getHostedSPName();
+
+    EntityDescriptor descriptor;
+    try {
+      descriptor = manager.getEntityDescriptor(entityId);
+    } catch (MetadataProviderException e) {
+      throw new ServletException("Error retrieving metadata", e);
+    }
+
+    if (descriptor == null) {
+      throw new ServletException("Metadata entity with ID " + entityId + " wasn't found");
+    }
+
+    X509Certificate certificate = keyManager.getCertificate(keyManager.getDefaultCredentialName());
+
+    Snapshot current = snapshot;
+    if (current == null || !current.isFor(descriptor, certificate)) {
+      current = new Snapshot(descriptor, certificate, serialize(descriptor));
+      snapshot = current;
+    }
+    return current;
+  }
+
+  private byte[] serialize(EntityDescriptor descriptor) throws ServletException {
+    try {
+      return getMetadataAsString(descriptor).getBytes(StandardCharsets.UTF_8);
+    } catch (MarshallingException e) {
+      throw new ServletException("Error marshalling entity descriptor", e);
+    }
+  }
+
+  /**
+   * Whether the client accepts gzip, or its alias x-gzip, with a quality above zero. Without
+   * a gzip coding the quality of {@code *} applies, and an explicit identity coding with
+   * higher quality is preferred over gzip.
+   */
+  private static boolean acceptsGzip(HttpServletRequest request) {
+    String header = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+    if (StringUtils.isBlank(header)) {
+      return false;
+    }
+
+    float gzip = -1;
+    float identity = -1;
+    float any = -1;
+    for (String element : header.split(",")) {
+      String[] parts = element.split(";");
+      String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+      float quality = getQuality(parts);
+
+      if (GZIP.equals(coding) || X_GZIP.equals(coding)) {
+        gzip = Math.max(gzip, quality);
+      } else if (IDENTITY.equals(coding)) {
+        identity = quality;
+      } else if (ANY.equals(coding)) {
+        any = quality;
+      }
+    }
+
+    if (gzip < 0) {
+      gzip = any;
+    }
+    return gzip > 0 && gzip >= identity;
+  }
+
+  private static float getQuality(String[] parts) {
+    for (int index = 1; index < parts.length; index++) {
+      String name = StringUtils.substringBefore(parts[index], "=").trim();
+      if (QUALITY.equalsIgnoreCase(name)) {
+        try {
+          return Float.parseFloat(StringUtils.substringAfter(parts[index], "=").trim());
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Whether the If-None-Match header matches the ETag of the representation being served,
+   * as the gzip and identity representations each have their own ETag.
+   */
+  private static boolean isNotModified(HttpServletRequest request, String etag) {
+    String header = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+    if (StringUtils.isBlank(header)) {
+      return false;
+    }
+
+    for (String tag : header.split(",")) {
+      tag = StringUtils.removeStart(tag.trim(), "W/");
+      if (ANY.equals(tag) || etag.equals(tag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  @Autowired
+  public void setManager(MetadataManager manager) {
+    super.setManager(manager);
+    this.manager = manager;
+  }
+
+  @Override
+  @Autowired
+  public void setKeyManager(KeyManager keyManager) {
+    super.setKeyManager(keyManager);
+    this.keyManager = keyManager;
+  }
+
+  /**
+   * Serialized metadata, for a specific entity descriptor and certificate.
+   */
+  private static final class Snapshot {
+
+    private final EntityDescriptor descriptor;
+    private final X509Certificate certificate;
+
+    private final byte[] xml;
+    private final byte[] gzip;
+
+    private final String etag;
+    private final String gzipEtag;
+
+    private Snapshot(EntityDescriptor descriptor, X509Certificate certificate, byte[] xml) throws ServletException {
+      this.descriptor = descriptor;
+      this.certificate = certificate;
+      this.xml = xml;
+      this.gzip = compress(xml);
+
+      String hash = DigestUtils.md5DigestAsHex(xml);
+      this.etag = "\"" + hash + "\"";
+      this.gzipEtag = "\"" + hash + SEPARATOR + GZIP + "\"";
+    }
+
+    private static byte[] compress(byte[] content) throws ServletException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4);
+      try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+        gzip.write(content);
+      } catch (IOException e) {
+        throw new ServletException("Could not compress metadata", e);
+      }
+      return bytes.toByteArray();
+    }
+
+    boolean isFor(EntityDescriptor descriptor, X509Certificate certificate) {
+      return this.descriptor == descriptor && Objects.equals(this.certificate, certificate);
+    }
+
   }
 
 }
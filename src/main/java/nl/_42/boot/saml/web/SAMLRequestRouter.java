@@ -0,0 +1,163 @@
+package nl._42.boot.saml.web;
+
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+
+import javax.servlet.Filter;
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Routes requests to the first registered filter with a matching URL pattern.
+ * Sub path patterns, such as {@code /saml/login/**}, are stored in a character
+ * trie so that a request is rejected as soon as its path leaves the registered
+ * prefixes, without allocating. Other patterns are matched with an
+ * {@link AntPathRequestMatcher}, in order of registration.
+ */
+class SAMLRequestRouter {
+
+  private static final String SUB_PATH = "/**";
+
+  private static final int NONE = Integer.MAX_VALUE;
+
+  private final Node root = new Node();
+
+  private final List<Filter> filters = new ArrayList<>();
+
+  private final List<Route> routes = new ArrayList<>();
+
+  /**
+   * Register a filter, earlier registrations take precedence.
+   * @param url the URL pattern
+   * @param filter the filter
+   */
+  void on(String url, Filter filter) {
+    int index = filters.size();
+    filters.add(filter);
+
+    if (isSubPath(url)) {
+      root.insert(url.substring(0, url.length() - SUB_PATH.length()), index);
+    } else {
+      routes.add(new Route(new AntPathRequestMatcher(url), index));
+    }
+  }
+
+  // Same conditions as the sub path matcher of AntPathRequestMatcher
+  private static boolean isSubPath(String url) {
+    return url.endsWith(SUB_PATH)
+        && url.indexOf('?') == -1
+        && url.indexOf('{') == -1
+        && url.indexOf('}') == -1
+        && url.indexOf('*') == url.length() - 2;
+  }
+
+  /**
+   * Retrieve the filter of the request.
+   * @param request the request
+   * @return the first matching filter, or {@code null} when none match
+   */
+  Filter getFilter(HttpServletRequest request) {
+    int index = find(request.getServletPath(), request.getPathInfo());
+
+    for (Route route : routes) {
+      if (route.index > index) {
+        break;
+      }
+      if (route.matcher.matches(request)) {
+        index = route.index;
+        break;
+      }
+    }
+
+    return index == NONE ? null : filters.get(index);
+  }
+
+  /**
+   * Walk the trie over the request path, which is the servlet path followed by the
+   * path info, without concatenating both.
+   */
+  private int find(String servletPath, String pathInfo) {
+    String first = servletPath == null ? "" : servletPath;
+    String second = pathInfo == null ? "" : pathInfo;
+    int length = first.length() + second.length();
+
+    int index = NONE;
+
+    Node node = root;
+    int position = 0;
+    while (node != null) {
+      if (node.index < index && (position == 0 || position == length || charAt(first, second, position) == '/')) {
+        index = node.index;
+      }
+      if (position == length) {
+        break;
+      }
+      node = node.getChild(charAt(first, second, position++));
+    }
+    return index;
+  }
+
+  private static char charAt(String first, String second, int position) {
+    return position < first.length() ? first.charAt(position) : second.charAt(position - first.length());
+  }
+
+  private static class Node {
+
+    private char[] keys = new char[0];
+
+    private Node[] children = new Node[0];
+
+    private int index = NONE;
+
+    void insert(String prefix, int index) {
+      Node node = this;
+      for (int position = 0; position < prefix.length(); position++) {
+        node = node.getOrCreateChild(prefix.charAt(position));
+      }
+      node.index = Math.min(node.index, index);
+    }
+
+    Node getChild(char key) {
+      for (int position = 0; position < keys.length; position++) {
+        if (keys[position] == key) {
+          return children[position];
+        }
+      }
+      return null;
+    }
+
+    private Node getOrCreateChild(char key) {
+      Node child = getChild(key);
+      if (child == null) {
+        child = new Node();
+
+        int size = keys.length;
+        char[] newKeys = new char[size + 1];
+        System.arraycopy(keys, 0, newKeys, 0, size);
+        newKeys[size] = key;
+        Node[] newChildren = new Node[size + 1];
+        System.arraycopy(children, 0, newChildren, 0, size);
+        newChildren[size] = child;
+
+        keys = newKeys;
+        children = newChildren;
+      }
+      return child;
+    }
+
+  }
+
+  private static class Route {
+
+    private final AntPathRequestMatcher matcher;
+
+    private final int index;
+
+    Route(AntPathRequestMatcher matcher, int index) {
+      this.matcher = matcher;
+      this.index = index;
+    }
+
+  }
+
+}
@@ -0,0 +1,97 @@
+package nl._42.boot.saml.web;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import nl._42.boot.saml.key.ReloadingKeyManager;
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.springframework.security.saml.key.KeyManager;
+import org.springframework.security.saml.metadata.ExtendedMetadata;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+import org.springframework.security.saml.metadata.MetadataGenerator;
+import org.springframework.security.saml.metadata.MetadataManager;
+import org.springframework.security.saml.metadata.MetadataMemoryProvider;
+
+import java.util.Objects;
+
+/**
+ * Metadata of our own service provider, generated once at startup and registered
+ * as hosted service provider in the metadata manager. Replaces the lazy generation
+ * of the {@code MetadataGeneratorFilter}, which is checked on each SAML request.
+ * <p>
+ * When the keys are reloaded, the metadata is generated again, so the published
+ * certificates and the signing and encryption keys match the current keys.
+ */
+@Slf4j
+public final class SAMLServiceProviderMetadata {
+
+    private final MetadataGenerator generator;
+
+    private final MetadataManager manager;
+
+    @Getter
+    private final String entityId;
+
+    private volatile ExtendedMetadataDelegate provider;
+
+    @Getter
+    private volatile ExtendedMetadata extendedMetadata;
+
+    private SAMLServiceProviderMetadata(MetadataGenerator generator, MetadataManager manager) {
+        this.generator = generator;
+        this.manager = manager;
+        this.entityId = generator.getEntityId();
+    }
+
+    /**
+     * Generate the service provider metadata and register it as hosted service provider.
+     * @param generator the generator, with configured entity identifier and base URL
+     * @param manager the metadata manager
+     * @param keyManager the key manager, of which reloads trigger a new registration
+     * @return the generated metadata
+     * @throws MetadataProviderException whenever the metadata could not be registered
+     */
+    public static SAMLServiceProviderMetadata register(MetadataGenerator generator, MetadataManager manager, KeyManager keyManager) throws MetadataProviderException {
+        Objects.requireNonNull(generator.getEntityId(), "Entity ID is required");
+        Objects.requireNonNull(generator.getEntityBaseURL(), "Entity base URL is required");
+
+        SAMLServiceProviderMetadata metadata = new SAMLServiceProviderMetadata(generator, manager);
+        metadata.refresh();
+
+        if (keyManager instanceof ReloadingKeyManager) {
+            ((ReloadingKeyManager) keyManager).addListener(reloaded -> {
+                try {
+                    metadata.refresh();
+                } catch (MetadataProviderException e) {
+                    throw new IllegalStateException("Could not register service provider metadata", e);
+                }
+            });
+        }
+
+        log.info("Registered service provider metadata with entityID: {}", metadata.entityId);
+        return metadata;
+    }
+
+    /**
+     * Generate the metadata again and replace the registered hosted service provider.
+     * @throws MetadataProviderException whenever the metadata could not be registered
+     */
+    public synchronized void refresh() throws MetadataProviderException {
+        MetadataMemoryProvider memory = new MetadataMemoryProvider(generator.generateMetadata());
+        memory.initialize();
+
+        ExtendedMetadata extendedMetadata = generator.generateExtendedMetadata();
+        ExtendedMetadataDelegate previous = this.provider;
+        ExtendedMetadataDelegate current = new ExtendedMetadataDelegate(memory, extendedMetadata);
+
+        if (previous != null) {
+            manager.removeMetadataProvider(previous);
+        }
+        manager.addMetadataProvider(current);
+        manager.setHostedSPName(entityId);
+        manager.refreshMetadata();
+
+        this.provider = current;
+        this.extendedMetadata = extendedMetadata;
+    }
+
+}
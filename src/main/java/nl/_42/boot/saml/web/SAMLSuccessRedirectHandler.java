@@ -3,8 +3,12 @@
  */
 package nl._42.boot.saml.web;
 
-import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import nl._42.boot.saml.SAMLProperties;
+import nl._42.boot.saml.metrics.SAMLEvents;
+import nl._42.boot.saml.metrics.SAMLMetrics;
+import nl._42.boot.saml.metrics.SAMLStage;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.core.Authentication;
@@ -26,26 +30,36 @@ import java.util.Date;
  * @author Jeroen van Schagen
  * @since Apr 21, 2015
  */
-@AllArgsConstructor
+@RequiredArgsConstructor
 public class SAMLSuccessRedirectHandler implements AuthenticationSuccessHandler {
 
     private final SAMLProperties properties;
     private final RememberMeServices rememberMeServices;
 
+    @Setter
+    private SAMLMetrics metrics = SAMLMetrics.NONE;
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void onAuthenticationSuccess(HttpServletRequest request, HttpServletResponse response, Authentication authentication) {
-        if (rememberMeServices != null) {
-            rememberMeServices.loginSuccess(request, response, authentication);
-        }
+        metrics.increment(SAMLFailureHandler.LOGIN, SAMLMetrics.OUTCOME, SAMLMetrics.SUCCESS, "reason", SAMLMetrics.reason(null));
+
+        SAMLStage stage = SAMLEvents.begin(SAMLEvents.REDIRECT);
+        try {
+            if (rememberMeServices != null) {
+                rememberMeServices.loginSuccess(request, response, authentication);
+            }
+
+            HttpSession session = request.getSession();
+            configureSession(session, authentication);
 
-        HttpSession session = request.getSession();
-        configureSession(session, authentication);
-        
-        String successUrl = (String) session.getAttribute(SAMLDefaultEntryPoint.SUCCESS_URL_SESSION_KEY);
-        redirectTo(response, StringUtils.defaultIfBlank(successUrl, properties.getSuccessUrl()));
+            String successUrl = (String) session.getAttribute(SAMLDefaultEntryPoint.SUCCESS_URL_SESSION_KEY);
+            redirectTo(response, StringUtils.defaultIfBlank(successUrl, properties.getSuccessUrl()));
+        } finally {
+            stage.end(SAMLMetrics.SUCCESS);
+        }
     }
 
     private void redirectTo(HttpServletResponse response, String location) {
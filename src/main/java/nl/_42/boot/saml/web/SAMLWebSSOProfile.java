@@ -7,8 +7,13 @@ import org.springframework.security.saml.metadata.MetadataManager;
 import org.springframework.security.saml.processor.SAMLProcessor;
 import org.springframework.security.saml.websso.WebSSOProfileImpl;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+
 public class SAMLWebSSOProfile extends WebSSOProfileImpl {
 
+  private static final String WWW = "www.";
+
   private boolean stripWww;
 
   public SAMLWebSSOProfile(SAMLProcessor processor, MetadataManager manager) {
@@ -23,10 +28,38 @@ public class SAMLWebSSOProfile extends WebSSOProfileImpl {
     super.buildReturnAddress(request, service);
 
     if (stripWww) {
-      String url = request.getAssertionConsumerServiceURL();
-      String newUrl = url.replaceAll("www.", "");
-      request.setAssertionConsumerServiceURL(newUrl);
+      request.setAssertionConsumerServiceURL(stripWww(request.getAssertionConsumerServiceURL()));
+    }
+  }
+
+  /**
+   * Remove the 'www.' prefix of the host, leaving the rest of the URL untouched.
+   * @param url the URL
+   * @return the URL without 'www.' prefix
+   */
+  static String stripWww(String url) {
+    if (url == null) {
+      return null;
+    }
+
+    String host;
+    try {
+      host = new URI(url).getHost();
+    } catch (URISyntaxException e) {
+      return url;
+    }
+    if (host == null || !host.regionMatches(true, 0, WWW, 0, WWW.length())) {
+      return url;
+    }
+
+    int authority = url.indexOf("//") + 2;
+    int userInfo = url.indexOf('@', authority);
+    int path = url.indexOf('/', authority);
+    if (userInfo >= 0 && (path < 0 || userInfo < path)) {
+      authority = userInfo + 1;
     }
+    int start = url.indexOf(host, authority);
+    return url.substring(0, start) + url.substring(start + WWW.length());
   }
 
   public void setStripWww(boolean stripWww) {
@@ -0,0 +1,60 @@
+package nl._42.boot.saml.web;
+
+import nl._42.boot.saml.replay.AssertionReplayCache;
+import org.opensaml.common.SAMLException;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.AuthnRequest;
+import org.opensaml.saml2.core.Conditions;
+import org.opensaml.xml.encryption.DecryptionException;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.validation.ValidationException;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.saml.context.SAMLMessageContext;
+import org.springframework.security.saml.metadata.MetadataManager;
+import org.springframework.security.saml.processor.SAMLProcessor;
+import org.springframework.security.saml.websso.WebSSOProfileConsumerImpl;
+
+/**
+ * Consumer that only accepts each assertion once. Assertions are remembered until
+ * they would be rejected anyway: after the NotOnOrAfter of their conditions, or the
+ * maximum assertion time since issuing, plus the allowed clock skew.
+ */
+public class SAMLWebSSOProfileConsumer extends WebSSOProfileConsumerImpl {
+
+  private AssertionReplayCache replayCache;
+
+  public SAMLWebSSOProfileConsumer(SAMLProcessor processor, MetadataManager manager) {
+    super(processor, manager);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void verifyAssertion(Assertion assertion, AuthnRequest request, SAMLMessageContext context)
+      throws AuthenticationException, SAMLException, SecurityException, ValidationException, DecryptionException {
+    super.verifyAssertion(assertion, request, context);
+
+    // Only valid assertions are registered, others could be forged to block the real ones
+    if (replayCache != null && !replayCache.add(assertion.getID(), getExpires(assertion))) {
+      throw new SAMLException("Assertion " + assertion.getID() + " was already consumed");
+    }
+  }
+
+  private long getExpires(Assertion assertion) {
+    long skew = getResponseSkew() * 1000L;
+    long expires = assertion.getIssueInstant().getMillis() + getMaxAssertionTime() * 1000L;
+
+    Conditions conditions = assertion.getConditions();
+    if (conditions != null && conditions.getNotOnOrAfter() != null) {
+      expires = Math.min(expires, conditions.getNotOnOrAfter().getMillis());
+    }
+
+    return expires + skew;
+  }
+
+  public void setReplayCache(AssertionReplayCache replayCache) {
+    this.replayCache = replayCache;
+  }
+
+}
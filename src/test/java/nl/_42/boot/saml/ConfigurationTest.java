@@ -1,19 +1,42 @@
 package nl._42.boot.saml;
 
+import nl._42.boot.saml.metadata.ResourceMetadataProvider;
 import org.junit.Test;
+import org.opensaml.saml2.metadata.provider.MetadataProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+import org.springframework.security.saml.metadata.MetadataManager;
 import org.springframework.security.saml.userdetails.SAMLUserDetailsService;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class ConfigurationTest extends AbstractApplicationTest {
 
     @Autowired
     private SAMLUserDetailsService samlUserDetailsService;
 
+    @Autowired
+    private MetadataProvider metadataProvider;
+
+    @Autowired
+    private MetadataManager metadataManager;
+
     @Test
     public void loads() {
         assertNotNull(samlUserDetailsService);
     }
 
+    @Test
+    public void defaultIdp_shouldBeIdpUrl() throws Exception {
+        assertEquals("https://saml-service/sso", metadataManager.getDefaultIDP());
+    }
+
+    @Test
+    public void metadataProvider() {
+        assertTrue(metadataProvider instanceof ExtendedMetadataDelegate);
+        assertTrue(((ExtendedMetadataDelegate) metadataProvider).getDelegate() instanceof ResourceMetadataProvider);
+    }
+
 }
@@ -0,0 +1,33 @@
+package nl._42.boot.saml;
+
+import nl._42.application.Application;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.saml.metadata.MetadataManager;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@SpringBootTest(classes = Application.class, properties = {
+    "saml.idp_url=",
+    "saml.idps[0].url=https://customer-a/idp",
+    "saml.idps[0].metadata_url=classpath:idp-metadata.xml",
+    "saml.idps[1].url=https://customer-b/idp",
+    "saml.idps[1].metadata_url=classpath:idp-metadata.xml"
+})
+@RunWith(SpringRunner.class)
+public class MultipleIdpConfigurationTest {
+
+    @Autowired
+    private MetadataManager metadata;
+
+    @Test
+    public void defaultIdp_shouldBeFirstConfigured() throws Exception {
+        assertTrue(metadata.getIDPEntityNames().contains("https://customer-b/idp"));
+        assertEquals("https://customer-a/idp", metadata.getDefaultIDP());
+    }
+
+}
@@ -0,0 +1,107 @@
+package nl._42.boot.saml.audit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opensaml.common.SAMLObject;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.saml.context.SAMLMessageContext;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SAMLAuditLoggerTest {
+
+    private final BlockingQueue<AuditEvent> events = new LinkedBlockingQueue<>();
+
+    private SAMLAuditLogger logger;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        logger.close();
+    }
+
+    @Test
+    public void log_shouldWriteCompactEvent() throws Exception {
+        logger = new SAMLAuditLogger(16, events::add);
+        logger.log("AuthNResponse", "SUCCESS", context(), new TestingAuthenticationToken("jan", ""), null);
+
+        String line = next().format();
+        assertTrue(line, line.contains(" operation=AuthNResponse result=SUCCESS entityId=https://idp messageId=_response user=jan"));
+        assertFalse(line, line.contains("payload="));
+    }
+
+    @Test
+    public void log_shouldIncludePayload_whenFailed() throws Exception {
+        logger = new SAMLAuditLogger(16, events::add);
+        logger.setPayloadOnFailure(true);
+        logger.log("AuthNResponse", "FAILURE", context(), new IllegalStateException("Invalid signature"));
+
+        AuditEvent event = next();
+        assertTrue(event.isFailure());
+
+        String line = event.format();
+        assertTrue(line, line.contains(" error=\"IllegalStateException: Invalid signature\""));
+        assertTrue(line, line.contains("<Response ID=\\\"_response\\\"/>\""));
+    }
+
+    @Test
+    public void log_shouldDropEvents_whenQueueFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        logger = new SAMLAuditLogger(2, event -> {
+            events.add(event);
+            await(release);
+        });
+
+        for (int index = 0; index < 10; index++) {
+            logger.log("AuthNRequest", "SUCCESS", context());
+        }
+
+        assertTrue(logger.getDropped() >= 7);
+        release.countDown();
+
+        logger.close();
+        assertEquals(10 - logger.getDropped(), events.size());
+    }
+
+    private AuditEvent next() throws InterruptedException {
+        AuditEvent event = events.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Expected an audit event", event);
+        return event;
+    }
+
+    private static SAMLMessageContext context() throws Exception {
+        String xml = "<Response ID=\"_response\"/>";
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+
+        SAMLObject message = mock(SAMLObject.class);
+        when(message.getDOM()).thenReturn(document.getDocumentElement());
+
+        SAMLMessageContext context = mock(SAMLMessageContext.class);
+        when(context.getPeerEntityId()).thenReturn("https://idp");
+        when(context.getInboundSAMLMessageId()).thenReturn("_response");
+        when(context.getInboundSAMLMessage()).thenReturn(message);
+        return context;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
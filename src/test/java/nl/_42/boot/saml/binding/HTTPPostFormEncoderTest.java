@@ -0,0 +1,93 @@
+package nl._42.boot.saml.binding;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.common.binding.BasicSAMLMessageContext;
+import org.opensaml.common.binding.SAMLMessageContext;
+import org.opensaml.saml2.binding.encoding.HTTPPostEncoder;
+import org.opensaml.saml2.core.AuthnRequest;
+import org.opensaml.saml2.metadata.SingleSignOnService;
+import org.opensaml.ws.message.encoder.MessageEncoder;
+import org.opensaml.ws.transport.http.HttpServletResponseAdapter;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.XMLObjectBuilder;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.saml.util.VelocityFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HTTPPostFormEncoderTest {
+
+    private static final Pattern SAML_REQUEST = Pattern.compile("name=\"SAMLRequest\" value=\"([^\"]*)\"");
+
+    @BeforeClass
+    public static void bootstrap() throws Exception {
+        DefaultBootstrap.bootstrap();
+    }
+
+    @Test
+    public void encode_shouldWriteForm() throws Exception {
+        MockHttpServletResponse response = encode(new HTTPPostFormEncoder(), "https://idp/sso?a=1&b=2", "\"><script>");
+        String body = response.getContentAsString();
+
+        assertEquals("text/html", response.getContentType());
+        assertEquals("UTF-8", response.getCharacterEncoding());
+        assertEquals("no-cache, no-store", response.getHeader("Cache-control"));
+        assertTrue(body, body.contains("<form action=\"https://idp/sso?a=1&amp;b=2\" method=\"post\">"));
+        assertTrue(body, body.contains("<input type=\"hidden\" name=\"RelayState\" value=\"&quot;&gt;&lt;script&gt;\"/>"));
+
+        String message = new String(Base64.getDecoder().decode(getSAMLRequest(body)), StandardCharsets.UTF_8);
+        assertTrue(message, message.contains("ID=\"request\""));
+    }
+
+    @Test
+    public void encode_shouldMatchVelocityTemplate() throws Exception {
+        String expected = getSAMLRequest(encode(new HTTPPostEncoder(VelocityFactory.getEngine(), "/templates/saml2-post-binding.vm"), "https://idp/sso", null).getContentAsString());
+        String actual = getSAMLRequest(encode(new HTTPPostFormEncoder(), "https://idp/sso", null).getContentAsString());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void escape_shouldOnlyCopy_whenNeeded() {
+        String value = "https://idp/sso";
+        assertSame(value, HTTPPostFormEncoder.escape(value));
+        assertEquals("a&amp;b&#x27;c", HTTPPostFormEncoder.escape("a&b'c"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MockHttpServletResponse encode(MessageEncoder encoder, String location, String relayState) throws Exception {
+        XMLObjectBuilder<AuthnRequest> requestBuilder = Configuration.getBuilderFactory().getBuilder(AuthnRequest.DEFAULT_ELEMENT_NAME);
+        AuthnRequest request = requestBuilder.buildObject(AuthnRequest.DEFAULT_ELEMENT_NAME);
+        request.setID("request");
+
+        XMLObjectBuilder<SingleSignOnService> serviceBuilder = Configuration.getBuilderFactory().getBuilder(SingleSignOnService.DEFAULT_ELEMENT_NAME);
+        SingleSignOnService service = serviceBuilder.buildObject(SingleSignOnService.DEFAULT_ELEMENT_NAME);
+        service.setLocation(location);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        SAMLMessageContext context = new BasicSAMLMessageContext();
+        context.setOutboundSAMLMessage(request);
+        context.setPeerEntityEndpoint(service);
+        context.setRelayState(relayState);
+        context.setOutboundMessageTransport(new HttpServletResponseAdapter(response, true));
+
+        encoder.encode(context);
+        return response;
+    }
+
+    private static String getSAMLRequest(String body) {
+        Matcher matcher = SAML_REQUEST.matcher(body);
+        assertTrue(body, matcher.find());
+        return matcher.group(1);
+    }
+
+}
@@ -0,0 +1,84 @@
+package nl._42.boot.saml.binding;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.common.binding.BasicSAMLMessageContext;
+import org.opensaml.common.binding.SAMLMessageContext;
+import org.opensaml.saml2.binding.encoding.HTTPRedirectDeflateEncoder;
+import org.opensaml.saml2.core.AuthnRequest;
+import org.opensaml.saml2.metadata.SingleSignOnService;
+import org.opensaml.ws.message.encoder.MessageEncoder;
+import org.opensaml.ws.transport.http.HttpServletResponseAdapter;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.XMLObjectBuilder;
+import org.opensaml.xml.security.credential.Credential;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.saml.key.JKSKeyManager;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HTTPRedirectEncoderTest {
+
+    private Credential credential;
+
+    @BeforeClass
+    public static void bootstrap() throws Exception {
+        DefaultBootstrap.bootstrap();
+    }
+
+    @Before
+    public void setUp() {
+        credential = new JKSKeyManager(new ClassPathResource("simple-saml.jks"), "nalle123", Collections.singletonMap("apollo", "nalle123"), "apollo").getDefaultCredential();
+    }
+
+    @Test
+    public void encode_shouldMatchDefaultEncoder() throws Exception {
+        String expected = encode(new HTTPRedirectDeflateEncoder(), null);
+        HTTPRedirectEncoder encoder = new HTTPRedirectEncoder();
+
+        assertEquals(expected, encode(encoder, null));
+        assertEquals(expected, encode(encoder, null));
+    }
+
+    @Test
+    public void encode_shouldMatchDefaultEncoder_whenSigned() throws Exception {
+        String expected = encode(new HTTPRedirectDeflateEncoder(), credential);
+        assertTrue(expected, expected.contains("&Signature="));
+
+        HTTPRedirectEncoder encoder = new HTTPRedirectEncoder();
+        assertEquals(expected, encode(encoder, credential));
+        assertEquals(expected, encode(encoder, credential));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String encode(MessageEncoder encoder, Credential signingCredential) throws Exception {
+        XMLObjectBuilder<AuthnRequest> requestBuilder = Configuration.getBuilderFactory().getBuilder(AuthnRequest.DEFAULT_ELEMENT_NAME);
+        AuthnRequest request = requestBuilder.buildObject(AuthnRequest.DEFAULT_ELEMENT_NAME);
+        request.setID("request");
+        request.setAssertionConsumerServiceURL("https://sp/saml/SSO");
+        request.setProviderName("Zo\u00eb \u20ac \ud83d\ude00");
+
+        XMLObjectBuilder<SingleSignOnService> serviceBuilder = Configuration.getBuilderFactory().getBuilder(SingleSignOnService.DEFAULT_ELEMENT_NAME);
+        SingleSignOnService service = serviceBuilder.buildObject(SingleSignOnService.DEFAULT_ELEMENT_NAME);
+        service.setLocation("https://idp/sso");
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        SAMLMessageContext context = new BasicSAMLMessageContext();
+        context.setOutboundSAMLMessage(request);
+        context.setOutboundSAMLMessageSigningCredential(signingCredential);
+        context.setPeerEntityEndpoint(service);
+        context.setRelayState("https://sp/secured?page=1");
+        context.setOutboundMessageTransport(new HttpServletResponseAdapter(response, true));
+
+        encoder.encode(context);
+        return response.getRedirectedUrl();
+    }
+
+}
@@ -5,8 +5,17 @@ import nl._42.boot.saml.SAMLProperties;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.saml.SAMLEntryPoint;
+
+import javax.servlet.http.HttpServletResponse;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
 
 public class SAMLLoginUrlResolverTest extends AbstractApplicationTest {
 
@@ -18,14 +27,14 @@ public class SAMLLoginUrlResolverTest extends AbstractApplicationTest {
         SAMLProperties properties = new SAMLProperties();
 
         MockHttpServletRequest request = new MockHttpServletRequest();
-        String loginUrl = new SAMLLoginUrlResolver(properties).getLoginUrl(request);
+        String loginUrl = new SAMLLoginUrlResolver(properties).getLoginUrl(request, new MockHttpServletResponse());
         assertEquals("", loginUrl);
     }
 
     @Test
     public void resolveWith_shouldSucceed() {
         MockHttpServletRequest request = new MockHttpServletRequest();
-        String loginUrl = resolver.getLoginUrl(request);
+        String loginUrl = resolver.getLoginUrl(request, new MockHttpServletResponse());
         assertEquals("http://unit-test/api/saml/login", loginUrl);
     }
 
@@ -34,8 +43,70 @@ public class SAMLLoginUrlResolverTest extends AbstractApplicationTest {
         MockHttpServletRequest request = new MockHttpServletRequest();
         request.setParameter("successUrl", "42.nl/congrats");
 
-        String loginUrl = resolver.getLoginUrl(request);
+        String loginUrl = resolver.getLoginUrl(request, new MockHttpServletResponse());
         assertEquals("http://unit-test/api/saml/login?successUrl=42.nl/congrats", loginUrl);
     }
 
+    @Test
+    public void resolveWith_whenSkipLoginRedirect_shouldResolveInProcess() throws Exception {
+        SAMLProperties properties = new SAMLProperties();
+        properties.setEnabled(true);
+        properties.setSkipLoginRedirect(true);
+        properties.setSpBaseUrl("http://unit-test/api");
+
+        SAMLEntryPoint entryPoint = mock(SAMLEntryPoint.class);
+        doAnswer(invocation -> {
+            HttpServletResponse response = invocation.getArgument(1);
+            response.setHeader("Cache-Control", "no-cache, no-store");
+            response.sendRedirect("https://saml-service/sso?SAMLRequest=request");
+            return null;
+        }).when(entryPoint).commence(any(), any(), isNull());
+
+        SAMLLoginUrlResolver resolver = new SAMLLoginUrlResolver(properties);
+        resolver.setEntryPoint(entryPoint);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        String loginUrl = resolver.getLoginUrl(new MockHttpServletRequest(), response);
+
+        assertEquals("https://saml-service/sso?SAMLRequest=request", loginUrl);
+        assertEquals(200, response.getStatus());
+        assertNull(response.getRedirectedUrl());
+        assertNull(response.getHeader("Cache-Control"));
+    }
+
+    @Test
+    public void resolveWith_whenSkipLoginRedirectFails_shouldFallback() throws Exception {
+        SAMLProperties properties = new SAMLProperties();
+        properties.setEnabled(true);
+        properties.setSkipLoginRedirect(true);
+        properties.setSpBaseUrl("http://unit-test/api");
+
+        SAMLLoginUrlResolver resolver = new SAMLLoginUrlResolver(properties);
+        resolver.setEntryPoint(mock(SAMLEntryPoint.class));
+
+        String loginUrl = resolver.getLoginUrl(new MockHttpServletRequest(), new MockHttpServletResponse());
+        assertEquals("http://unit-test/api/saml/login", loginUrl);
+    }
+
+    @Test
+    public void resolveWith_whenSkipLoginRedirectHasNonStandardStatus_shouldFallback() throws Exception {
+        SAMLProperties properties = new SAMLProperties();
+        properties.setEnabled(true);
+        properties.setSkipLoginRedirect(true);
+        properties.setSpBaseUrl("http://unit-test/api");
+
+        SAMLEntryPoint entryPoint = mock(SAMLEntryPoint.class);
+        doAnswer(invocation -> {
+            HttpServletResponse response = invocation.getArgument(1);
+            response.setStatus(599);
+            return null;
+        }).when(entryPoint).commence(any(), any(), isNull());
+
+        SAMLLoginUrlResolver resolver = new SAMLLoginUrlResolver(properties);
+        resolver.setEntryPoint(entryPoint);
+
+        String loginUrl = resolver.getLoginUrl(new MockHttpServletRequest(), new MockHttpServletResponse());
+        assertEquals("http://unit-test/api/saml/login", loginUrl);
+    }
+
 }
@@ -0,0 +1,222 @@
+package nl._42.boot.saml.key;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.criteria.EntityIDCriteria;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.security.saml.key.JKSKeyManager;
+import org.springframework.security.saml.key.KeyManager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.Key;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReloadingKeyManagerTest {
+
+    private static final String PASSWORD = "nalle123";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private KeyStore original;
+
+    private Key privateKey;
+
+    private Certificate[] chain;
+
+    @Before
+    public void setUp() throws Exception {
+        original = KeyStores.load(new ClassPathResource("simple-saml.jks"), "JKS", PASSWORD);
+        privateKey = original.getKey("apollo", PASSWORD.toCharArray());
+        chain = original.getCertificateChain("apollo");
+    }
+
+    @Test
+    public void pem() throws Exception {
+        File certificate = write("certificate.pem", "CERTIFICATE", chain[0].getEncoded());
+        File key = write("key.pem", "PRIVATE KEY", privateKey.getEncoded());
+
+        KeystoreProperties properties = new KeystoreProperties();
+        properties.setCertificate(certificate.toURI().toString());
+        properties.setPrivateKey(key.toURI().toString());
+        properties.setKey("apollo");
+        properties.setPassword(PASSWORD);
+
+        KeyManager keyManager = properties.getKeyManager();
+        assertEquals("apollo", keyManager.getDefaultCredentialName());
+        assertEquals(chain[0].getPublicKey(), keyManager.getDefaultCredential().getPublicKey());
+        assertEquals(privateKey, keyManager.getDefaultCredential().getPrivateKey());
+    }
+
+    @Test
+    public void pkcs12() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("apollo", privateKey, PASSWORD.toCharArray(), chain);
+
+        File file = folder.newFile("saml.p12");
+        try (OutputStream os = new FileOutputStream(file)) {
+            keyStore.store(os, PASSWORD.toCharArray());
+        }
+
+        KeystoreProperties properties = new KeystoreProperties();
+        properties.setFileName(file.toURI().toString());
+        properties.setType("PKCS12");
+        properties.setUser("apollo");
+        properties.setKey("apollo");
+        properties.setPassword(PASSWORD);
+
+        KeyManager keyManager = properties.getKeyManager();
+        assertEquals(privateKey, keyManager.getCredential("apollo").getPrivateKey());
+    }
+
+    @Test
+    public void reloadInterval_shouldWatchKeystoreFile() throws Exception {
+        File file = folder.newFile("saml.jks");
+        Files.copy(new ClassPathResource("simple-saml.jks").getFile().toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        KeystoreProperties properties = new KeystoreProperties();
+        properties.setFileName(file.toURI().toString());
+        properties.setUser("apollo");
+        properties.setKey("apollo");
+        properties.setPassword(PASSWORD);
+        properties.setReloadInterval(60);
+
+        KeyManager keyManager = properties.getKeyManager();
+        try {
+            assertTrue(keyManager instanceof ReloadingKeyManager);
+            assertEquals(privateKey, keyManager.getDefaultCredential().getPrivateKey());
+        } finally {
+            ((ReloadingKeyManager) keyManager).close();
+        }
+    }
+
+    @Test
+    public void reload_shouldSwapKeys_andKeepPrevious() throws Exception {
+        File file = folder.newFile("keys");
+        AtomicReference<String> alias = new AtomicReference<>("apollo");
+
+        ReloadingKeyManager keyManager = new ReloadingKeyManager(() -> build(alias.get()), Collections.singletonList(file));
+        List<String> reloads = new ArrayList<>();
+        keyManager.addListener(reloaded -> reloads.add(reloaded.getDefaultCredentialName()));
+
+        assertFalse(keyManager.reloadIfModified());
+
+        alias.set("rotated");
+        touch(file);
+        assertTrue(keyManager.reloadIfModified());
+        assertEquals(Collections.singletonList("rotated"), reloads);
+
+        assertEquals("rotated", keyManager.getDefaultCredentialName());
+        assertNotNull(keyManager.getCredential("rotated"));
+        // Messages issued before the swap can still use the previous key
+        assertNotNull(keyManager.getCredential("apollo"));
+        assertNotNull(keyManager.getCertificate("apollo"));
+        assertEquals(1, count(keyManager.resolve(new CriteriaSet(new EntityIDCriteria("apollo")))));
+        assertEquals(2, keyManager.getCredentials(null).size());
+    }
+
+    @Test
+    public void reload_shouldKeepKeys_whenLoadingFails() throws Exception {
+        File file = folder.newFile("keys");
+        AtomicReference<Supplier<KeyManager>> loader = new AtomicReference<>(() -> build("apollo"));
+
+        ReloadingKeyManager keyManager = new ReloadingKeyManager(() -> loader.get().get(), Collections.singletonList(file));
+        KeyManager current = keyManager.getCurrent();
+
+        loader.set(() -> {
+            throw new IllegalStateException("Corrupt keystore");
+        });
+        touch(file);
+
+        assertFalse(keyManager.reloadIfModified());
+        assertSame(current, keyManager.getCurrent());
+        assertEquals("apollo", keyManager.getDefaultCredentialName());
+
+        // Not retried until the file changes again
+        assertFalse(keyManager.reloadIfModified());
+    }
+
+    @Test
+    public void reload_shouldKeepKeys_whenPemKeyDoesNotMatchCertificate() throws Exception {
+        File certificate = write("certificate.pem", "CERTIFICATE", chain[0].getEncoded());
+        File key = write("key.pem", "PRIVATE KEY", privateKey.getEncoded());
+
+        KeystoreProperties properties = new KeystoreProperties();
+        properties.setCertificate(certificate.toURI().toString());
+        properties.setPrivateKey(key.toURI().toString());
+        properties.setKey("apollo");
+        properties.setPassword(PASSWORD);
+
+        ReloadingKeyManager keyManager = new ReloadingKeyManager(properties::getKeyManager, Arrays.asList(certificate, key));
+        KeyManager current = keyManager.getCurrent();
+
+        // Half rotated, only the private key was replaced
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        Files.delete(key.toPath());
+        write("key.pem", "PRIVATE KEY", generator.generateKeyPair().getPrivate().getEncoded());
+        touch(key);
+
+        assertFalse(keyManager.reloadIfModified());
+        assertSame(current, keyManager.getCurrent());
+        assertEquals(privateKey, keyManager.getDefaultCredential().getPrivateKey());
+    }
+
+    private KeyManager build(String alias) {
+        try {
+            KeyStore keyStore = KeyStore.getInstance("JKS");
+            keyStore.load(null, null);
+            keyStore.setKeyEntry(alias, privateKey, PASSWORD.toCharArray(), chain);
+            return new JKSKeyManager(keyStore, Collections.singletonMap(alias, PASSWORD), alias);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private File write(String name, String type, byte[] content) throws Exception {
+        String encoded = Base64.getMimeEncoder(64, new byte[] { '\n' }).encodeToString(content);
+        String pem = "-----BEGIN " + type + "-----\n" + encoded + "\n-----END " + type + "-----\n";
+
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), pem.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    private static void touch(File file) {
+        assertTrue(file.setLastModified(file.lastModified() + 10_000));
+    }
+
+    private static int count(Iterable<Credential> credentials) {
+        int count = 0;
+        for (Credential ignored : credentials) {
+            count++;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,131 @@
+package nl._42.boot.saml.key;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml2.core.Issuer;
+import org.opensaml.saml2.encryption.Encrypter;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.XMLObjectBuilder;
+import org.opensaml.xml.encryption.DecryptionException;
+import org.opensaml.xml.encryption.EncryptionConstants;
+import org.opensaml.xml.encryption.EncryptionParameters;
+import org.opensaml.xml.encryption.KeyEncryptionParameters;
+import org.opensaml.xml.security.SecurityHelper;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.keyinfo.KeyInfoGenerator;
+import org.opensaml.xml.security.x509.X509KeyInfoGeneratorFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.security.saml.key.JKSKeyManager;
+import org.springframework.security.saml.key.KeyManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SAMLDecrypterTest {
+
+    private Credential credential;
+
+    private Credential other;
+
+    @BeforeClass
+    public static void bootstrap() throws Exception {
+        DefaultBootstrap.bootstrap();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        KeyManager keyManager = new JKSKeyManager(new ClassPathResource("simple-saml.jks"), "nalle123", Collections.singletonMap("apollo", "nalle123"), "apollo");
+        credential = keyManager.getDefaultCredential();
+        other = SecurityHelper.generateKeyPairAndCredential(EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSAOAEP, 2048, false);
+    }
+
+    @Test
+    public void decrypt_shouldUseKeyInfo() throws Exception {
+        EncryptedAssertion encrypted = encrypt(EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES128, EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSAOAEP, true);
+        SAMLDecrypter decrypter = new SAMLDecrypter(Arrays.asList(other, credential));
+
+        assertEquals(Collections.singletonList(credential), decrypter.resolve(encrypted.getEncryptedData().getKeyInfo().getEncryptedKeys().get(0).getKeyInfo()));
+        assertEquals("assertion", decrypter.decrypt(encrypted).getID());
+    }
+
+    @Test
+    public void decrypt_shouldTryAll_withoutKeyInfo() throws Exception {
+        EncryptedAssertion encrypted = encrypt(EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES256, EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSAOAEP, false);
+        SAMLDecrypter decrypter = new SAMLDecrypter(Arrays.asList(other, credential));
+
+        assertEquals(2, decrypter.resolve(encrypted.getEncryptedData().getKeyInfo().getEncryptedKeys().get(0).getKeyInfo()).size());
+        assertEquals("assertion", decrypter.decrypt(encrypted).getID());
+    }
+
+    @Test
+    public void decrypt_shouldSupportGcm() throws Exception {
+        EncryptedAssertion encrypted = encrypt(EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES128_GCM, EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSAOAEP, true);
+        SAMLDecrypter decrypter = new SAMLDecrypter(Collections.singletonList(credential));
+
+        assertEquals("assertion", decrypter.decrypt(encrypted).getID());
+    }
+
+    @Test
+    public void decrypt_shouldFallback_whenUnsupportedAlgorithm() throws Exception {
+        EncryptedAssertion encrypted = encrypt(EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES128, EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSA15, true);
+        SAMLDecrypter decrypter = new SAMLDecrypter(Collections.singletonList(credential));
+
+        assertEquals("assertion", decrypter.decrypt(encrypted).getID());
+    }
+
+    @Test
+    public void decrypt_shouldBeReusable() throws Exception {
+        SAMLDecrypter decrypter = new SAMLDecrypter(Collections.singletonList(credential));
+
+        for (int index = 0; index < 3; index++) {
+            EncryptedAssertion encrypted = encrypt(EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES128, EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSAOAEP, true);
+            Assertion assertion = decrypter.decrypt(encrypted);
+            assertEquals("assertion", assertion.getID());
+            assertEquals("https://idp", assertion.getIssuer().getValue());
+            assertSame(assertion.getDOM(), assertion.getDOM().getOwnerDocument().getDocumentElement());
+        }
+    }
+
+    @Test(expected = DecryptionException.class)
+    public void decrypt_shouldFail_withUnknownKey() throws Exception {
+        EncryptedAssertion encrypted = encrypt(EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES128, EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSAOAEP, true);
+        new SAMLDecrypter(Collections.singletonList(other)).decrypt(encrypted);
+    }
+
+    @SuppressWarnings("unchecked")
+    private EncryptedAssertion encrypt(String dataAlgorithm, String keyAlgorithm, boolean keyInfo) throws Exception {
+        XMLObjectBuilder<Issuer> issuerBuilder = Configuration.getBuilderFactory().getBuilder(Issuer.DEFAULT_ELEMENT_NAME);
+        Issuer issuer = issuerBuilder.buildObject(Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setValue("https://idp");
+
+        XMLObjectBuilder<Assertion> assertionBuilder = Configuration.getBuilderFactory().getBuilder(Assertion.DEFAULT_ELEMENT_NAME);
+        Assertion assertion = assertionBuilder.buildObject(Assertion.DEFAULT_ELEMENT_NAME);
+        assertion.setID("assertion");
+        assertion.setIssuer(issuer);
+
+        EncryptionParameters data = new EncryptionParameters();
+        data.setAlgorithm(dataAlgorithm);
+
+        KeyEncryptionParameters key = new KeyEncryptionParameters();
+        key.setAlgorithm(keyAlgorithm);
+        key.setEncryptionCredential(credential);
+        if (keyInfo) {
+            X509KeyInfoGeneratorFactory factory = new X509KeyInfoGeneratorFactory();
+            factory.setEmitEntityCertificate(true);
+            KeyInfoGenerator generator = factory.newInstance();
+            key.setKeyInfoGenerator(generator);
+        }
+
+        Encrypter encrypter = new Encrypter(data, key);
+        encrypter.setKeyPlacement(Encrypter.KeyPlacement.INLINE);
+        return encrypter.encrypt(assertion);
+    }
+
+}
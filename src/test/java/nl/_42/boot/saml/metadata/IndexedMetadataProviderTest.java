@@ -0,0 +1,153 @@
+package nl._42.boot.saml.metadata;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml2.metadata.provider.MetadataProvider;
+import org.opensaml.xml.parse.StaticBasicParserPool;
+import org.springframework.security.saml.key.KeyManager;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class IndexedMetadataProviderTest {
+
+  private static final String LOCATION = "classpath:federation-metadata.xml";
+
+  private final Timer timer = new Timer(true);
+
+  private final HttpClient httpClient = new HttpClient(new MultiThreadedHttpConnectionManager());
+
+  private IndexedMetadataProvider provider;
+
+  @BeforeClass
+  public static void bootstrap() throws Exception {
+    DefaultBootstrap.bootstrap();
+  }
+
+  @After
+  public void tearDown() {
+    if (provider != null) {
+      provider.destroy();
+    }
+    timer.cancel();
+  }
+
+  @Test
+  public void entity_shouldUnmarshal_onFirstUse() throws Exception {
+    provider = initialize();
+
+    EntityDescriptor descriptor = provider.getEntityDescriptor("https://idp-one");
+    assertNotNull(descriptor);
+    assertSame(descriptor, provider.getEntityDescriptor("https://idp-one"));
+
+    IDPSSODescriptor idp = descriptor.getIDPSSODescriptor(SAMLConstants.SAML20P_NS);
+    assertEquals("https://idp-one/sso", idp.getSingleSignOnServices().get(0).getLocation());
+    assertEquals("idp-one", idp.getKeyDescriptors().get(0).getKeyInfo().getKeyNames().get(0).getValue());
+  }
+
+  @Test
+  public void entity_shouldResolve_whenNested() throws Exception {
+    provider = initialize();
+
+    EntityDescriptor descriptor = provider.getEntityDescriptor("https://idp-two");
+    assertEquals("https://idp-two/sso", descriptor.getIDPSSODescriptor(SAMLConstants.SAML20P_NS).getSingleSignOnServices().get(0).getLocation());
+  }
+
+  @Test
+  public void entity_shouldSkip_whenUnknown() throws Exception {
+    provider = initialize();
+
+    assertNull(provider.getEntityDescriptor("https://unknown"));
+    assertNull(provider.getEntityDescriptor("https://ignored"));
+  }
+
+  @Test
+  public void metadata_shouldOnlyContainRoot() throws Exception {
+    provider = initialize();
+
+    EntitiesDescriptor metadata = (EntitiesDescriptor) provider.getMetadata();
+    assertEquals("urn:federation", metadata.getName());
+    assertTrue(metadata.getEntityDescriptors().isEmpty());
+  }
+
+  @Test
+  public void roles_shouldResolve_fromIndex() throws Exception {
+    provider = initialize();
+
+    assertEquals(new HashSet<>(Arrays.asList("https://idp-one", "https://idp-two")), provider.getIDPEntityNames());
+    assertEquals(Collections.singleton("https://sp"), provider.getSPEntityNames());
+    assertSame(provider.getIDPEntityNames(), provider.getIDPEntityNames());
+    assertTrue(provider.isIDP("https://idp-one"));
+    assertFalse(provider.isIDP("https://sp"));
+    assertTrue(provider.isSP("https://sp"));
+  }
+
+  @Test
+  public void filter_shouldRemoveEntities() throws Exception {
+    provider = new IndexedMetadataProvider(timer, httpClient, LOCATION);
+    provider.setMetadataFilter(metadata -> {
+      List<EntityDescriptor> entities = ((EntitiesDescriptor) metadata).getEntityDescriptors();
+      entities.remove(entities.get(entities.size() - 1));
+    });
+    initialize(provider);
+
+    assertNotNull(provider.getEntityDescriptor("https://idp-one"));
+    assertNull(provider.getEntityDescriptor("https://sp"));
+  }
+
+  @Test
+  public void manager_shouldResolveProviders_fromIndex() throws Exception {
+    provider = initialize();
+
+    List<MetadataProvider> providers = Collections.singletonList(new ExtendedMetadataDelegate(provider));
+    SAMLMetadataManager manager = new SAMLMetadataManager(providers);
+    manager.setKeyManager(mock(KeyManager.class));
+    manager.setRefreshCheckInterval(0);
+    manager.afterPropertiesSet();
+
+    try {
+      assertTrue(manager.isIDPValid("https://idp-two"));
+      assertFalse(manager.isIDPValid("https://sp"));
+      assertTrue(manager.isSPValid("https://sp"));
+      assertEquals(new HashSet<>(Arrays.asList("https://idp-one", "https://idp-two")), manager.getIDPEntityNames());
+      assertSame(provider.getIDPEntityNames(), manager.getIDPEntityNames());
+      assertNotNull(manager.getEntityDescriptor("https://idp-one"));
+    } finally {
+      manager.destroy();
+    }
+  }
+
+  private IndexedMetadataProvider initialize() throws Exception {
+    return initialize(new IndexedMetadataProvider(timer, httpClient, LOCATION));
+  }
+
+  private IndexedMetadataProvider initialize(IndexedMetadataProvider provider) throws Exception {
+    StaticBasicParserPool parserPool = new StaticBasicParserPool();
+    parserPool.initialize();
+
+    provider.setParserPool(parserPool);
+    provider.initialize();
+    return provider;
+  }
+
+}
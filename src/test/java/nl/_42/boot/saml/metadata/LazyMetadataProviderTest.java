@@ -0,0 +1,102 @@
+package nl._42.boot.saml.metadata;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.saml2.metadata.provider.MetadataProvider;
+import org.opensaml.xml.parse.StaticBasicParserPool;
+import org.springframework.security.saml.key.KeyManager;
+import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class LazyMetadataProviderTest {
+
+  private final Timer timer = new Timer(true);
+
+  private final HttpClient httpClient = new HttpClient(new MultiThreadedHttpConnectionManager());
+
+  private LazyMetadataProvider provider;
+
+  @BeforeClass
+  public static void bootstrap() throws Exception {
+    DefaultBootstrap.bootstrap();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    provider = lazy("https://saml-service", "classpath:idp-metadata.xml");
+  }
+
+  @After
+  public void tearDown() {
+    provider.destroy();
+    timer.cancel();
+  }
+
+  @Test
+  public void initialize_shouldNotLoad() {
+    assertFalse(provider.isLoaded());
+    assertTrue(provider.isIDP("https://saml-service"));
+    assertFalse(provider.isSP("https://saml-service"));
+  }
+
+  @Test
+  public void entity_shouldLoad_onFirstUse() throws Exception {
+    assertNull(provider.getEntityDescriptor("https://other"));
+    assertFalse(provider.isLoaded());
+
+    assertNotNull(provider.getEntityDescriptor("https://saml-service"));
+    assertTrue(provider.isLoaded());
+  }
+
+  @Test
+  public void manager_shouldOnlyLoad_usedProviders() throws Exception {
+    LazyMetadataProvider other = lazy("https://other", "classpath:federation-metadata.xml");
+
+    List<MetadataProvider> providers = Arrays.asList(new ExtendedMetadataDelegate(provider), new ExtendedMetadataDelegate(other));
+    SAMLMetadataManager manager = new SAMLMetadataManager(providers);
+    manager.setKeyManager(mock(KeyManager.class));
+    manager.setRefreshCheckInterval(0);
+    manager.afterPropertiesSet();
+
+    try {
+      assertTrue(manager.isIDPValid("https://saml-service"));
+      assertTrue(manager.isIDPValid("https://other"));
+      assertEquals(2, manager.getIDPEntityNames().size());
+      assertFalse(provider.isLoaded());
+
+      assertNotNull(manager.getEntityDescriptor("https://saml-service"));
+      assertTrue(provider.isLoaded());
+      assertFalse(other.isLoaded());
+    } finally {
+      manager.destroy();
+    }
+  }
+
+  private LazyMetadataProvider lazy(String entityId, String location) throws Exception {
+    StaticBasicParserPool parserPool = new StaticBasicParserPool();
+    parserPool.initialize();
+
+    ResourceMetadataProvider delegate = new ResourceMetadataProvider(timer, httpClient, location);
+    delegate.setParserPool(parserPool);
+
+    LazyMetadataProvider provider = new LazyMetadataProvider(entityId, delegate);
+    provider.initialize();
+    return provider;
+  }
+
+}
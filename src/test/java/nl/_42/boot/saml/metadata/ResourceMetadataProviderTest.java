@@ -0,0 +1,184 @@
+package nl._42.boot.saml.metadata;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.xml.parse.StaticBasicParserPool;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceMetadataProviderTest {
+
+  private static final String METADATA =
+    "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" entityID=\"%s\">" +
+      "<md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">" +
+        "<md:SingleSignOnService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect\" Location=\"%s/sso\"/>" +
+      "</md:IDPSSODescriptor>" +
+    "</md:EntityDescriptor>";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Timer timer = new Timer(true);
+
+  private final HttpClient httpClient = new HttpClient(new MultiThreadedHttpConnectionManager());
+
+  private final List<String> conditions = new ArrayList<>();
+
+  private HttpServer server;
+
+  private ResourceMetadataProvider provider;
+
+  @BeforeClass
+  public static void bootstrap() throws Exception {
+    DefaultBootstrap.bootstrap();
+  }
+
+  @After
+  public void tearDown() {
+    if (provider != null) {
+      provider.destroy();
+    }
+    if (server != null) {
+      server.stop(0);
+    }
+    timer.cancel();
+  }
+
+  @Test
+  public void classpath() throws Exception {
+    provider = initialize("classpath:idp-metadata.xml", null);
+
+    assertNotNull(provider.getEntityDescriptor("https://saml-service"));
+  }
+
+  @Test
+  public void file_shouldSkip_whenNotModified() throws Exception {
+    File file = folder.newFile("metadata.xml");
+    Files.write(file.toPath(), metadata("https://file").getBytes(StandardCharsets.UTF_8));
+
+    provider = initialize(file.toURI().toString(), null);
+    DateTime lastUpdate = provider.getLastUpdate();
+    assertNotNull(provider.getEntityDescriptor("https://file"));
+
+    provider.refresh();
+    assertEquals(lastUpdate, provider.getLastUpdate());
+  }
+
+  @Test
+  public void url_shouldSkip_whenNotModified() throws Exception {
+    String url = startServer("https://remote");
+    Path backup = folder.getRoot().toPath().resolve("backup").resolve("metadata.xml");
+
+    provider = initialize(url, backup);
+    DateTime lastUpdate = provider.getLastUpdate();
+    assertNotNull(provider.getEntityDescriptor("https://remote"));
+
+    provider.refresh();
+    assertEquals(lastUpdate, provider.getLastUpdate());
+    assertNull(conditions.get(0));
+    assertEquals("\"v1\"", conditions.get(1));
+
+    assertTrue(new String(Files.readAllBytes(backup), StandardCharsets.UTF_8).contains("https://remote"));
+  }
+
+  @Test
+  public void url_shouldStart_fromBackup() throws Exception {
+    Path backup = folder.newFile("backup.xml").toPath();
+    Files.write(backup, metadata("https://backup").getBytes(StandardCharsets.UTF_8));
+
+    String url = startServer("https://remote");
+    provider = initialize(url, backup);
+
+    assertNotNull(provider.getEntityDescriptor("https://backup"));
+    assertTrue(conditions.isEmpty());
+
+    provider.refresh();
+    assertNotNull(provider.getEntityDescriptor("https://remote"));
+    assertTrue(new String(Files.readAllBytes(backup), StandardCharsets.UTF_8).contains("https://remote"));
+  }
+
+  @Test
+  public void url_shouldKeepBackup_whenUnavailable() throws Exception {
+    Path backup = folder.newFile("backup.xml").toPath();
+    Files.write(backup, metadata("https://backup").getBytes(StandardCharsets.UTF_8));
+
+    String url = startServer("https://remote");
+    server.stop(0);
+    server = null;
+
+    provider = initialize(url, backup);
+    assertNotNull(provider.getEntityDescriptor("https://backup"));
+
+    try {
+      provider.refresh();
+    } catch (Exception e) {
+      // Expected, server is no longer available
+    }
+
+    assertNotNull(provider.getEntityDescriptor("https://backup"));
+    assertFalse(new String(Files.readAllBytes(backup), StandardCharsets.UTF_8).contains("https://remote"));
+  }
+
+  private ResourceMetadataProvider initialize(String location, Path backup) throws Exception {
+    StaticBasicParserPool parserPool = new StaticBasicParserPool();
+    parserPool.initialize();
+
+    ResourceMetadataProvider provider = new ResourceMetadataProvider(timer, httpClient, location);
+    provider.setParserPool(parserPool);
+    provider.setBackupFile(backup);
+    provider.setTimeout(1000);
+    provider.initialize();
+    return provider;
+  }
+
+  private String startServer(String entityId) throws Exception {
+    byte[] content = metadata(entityId).getBytes(StandardCharsets.UTF_8);
+
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/metadata", exchange -> {
+      String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+      conditions.add(condition);
+
+      exchange.getResponseHeaders().add("ETag", "\"v1\"");
+      if ("\"v1\"".equals(condition)) {
+        exchange.sendResponseHeaders(304, -1);
+      } else {
+        exchange.sendResponseHeaders(200, content.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+          body.write(content);
+        }
+      }
+      exchange.close();
+    });
+    server.start();
+
+    return "http://localhost:" + server.getAddress().getPort() + "/metadata";
+  }
+
+  private static String metadata(String entityId) {
+    return String.format(METADATA, entityId, entityId);
+  }
+
+}
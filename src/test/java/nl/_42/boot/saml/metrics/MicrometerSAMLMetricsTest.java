@@ -0,0 +1,130 @@
+package nl._42.boot.saml.metrics;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl._42.boot.saml.SAMLProperties;
+import nl._42.boot.saml.UserNotAllowedException;
+import nl._42.boot.saml.parser.InstrumentedParserPool;
+import nl._42.boot.saml.parser.ParserPoolProperties;
+import nl._42.boot.saml.web.SAMLFailureHandler;
+import nl._42.boot.saml.web.SAMLFilter;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.AuthenticationServiceException;
+
+import javax.servlet.Filter;
+import javax.servlet.ServletException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+public class MicrometerSAMLMetricsTest {
+
+    private MeterRegistry registry;
+
+    private SAMLMetrics metrics;
+
+    @Before
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        metrics = new MicrometerSAMLMetrics(registry);
+    }
+
+    @Test
+    public void filter_shouldTimeEndpoints() throws Exception {
+        SAMLFilter filter = new SAMLFilter();
+        filter.setMetrics(metrics);
+        filter.on("/saml/login/**", mock(Filter.class));
+
+        Filter failing = mock(Filter.class);
+        doThrow(new ServletException("Failed")).when(failing).doFilter(any(), any(), any());
+        filter.on("/saml/SSO/**", failing);
+
+        filter.doFilter(request("/saml/login"), new MockHttpServletResponse(), new MockFilterChain());
+        filter.doFilter(request("/api/users"), new MockHttpServletResponse(), new MockFilterChain());
+        try {
+            filter.doFilter(request("/saml/SSO"), new MockHttpServletResponse(), new MockFilterChain());
+        } catch (ServletException e) {
+            // Expected
+        }
+
+        assertEquals(1, registry.get("saml.filter").tag("endpoint", "/saml/login/**").tag("outcome", "success").timer().count());
+        assertEquals(1, registry.get("saml.filter").tag("endpoint", "/saml/SSO/**").tag("outcome", "failure").timer().count());
+        assertNull(registry.find("saml.filter").tag("endpoint", "/api/users").timer());
+    }
+
+    @Test
+    public void failureHandler_shouldCountByReason() {
+        SAMLProperties properties = new SAMLProperties();
+        properties.setForbiddenUrl("/forbidden");
+        properties.setExpiredUrl("/expired");
+
+        SAMLFailureHandler handler = new SAMLFailureHandler(properties);
+        handler.setMetrics(metrics);
+
+        handler.onAuthenticationFailure(new MockHttpServletRequest(), new MockHttpServletResponse(), new UserNotAllowedException("Not allowed"));
+        handler.onAuthenticationFailure(new MockHttpServletRequest(), new MockHttpServletResponse(),
+            new AuthenticationServiceException("Error", new IllegalStateException("Expired")));
+
+        assertEquals(1.0, registry.get("saml.login").tag("outcome", "failure").tag("reason", "UserNotAllowedException").counter().count(), 0.0);
+        assertEquals(1.0, registry.get("saml.login").tag("outcome", "failure").tag("reason", "IllegalStateException").counter().count(), 0.0);
+    }
+
+    @Test
+    public void meters_shouldOnlyRegisterOnce() {
+        AtomicInteger registrations = new AtomicInteger();
+        registry.config().meterFilter(new MeterFilter() {
+
+            @Override
+            public Meter.Id map(Meter.Id id) {
+                registrations.incrementAndGet();
+                return id;
+            }
+
+        });
+
+        for (int i = 0; i < 3; i++) {
+            metrics.record("saml.decode", 10, "outcome", "success");
+            metrics.record("saml.decode", 10, "outcome", "failure");
+            metrics.increment("saml.login", "outcome", "success");
+        }
+
+        assertEquals(3, registrations.get());
+        assertEquals(3, registry.get("saml.decode").tag("outcome", "success").timer().count());
+        assertEquals(3, registry.get("saml.decode").tag("outcome", "failure").timer().count());
+        assertEquals(3.0, registry.get("saml.login").tag("outcome", "success").counter().count(), 0.0);
+    }
+
+    @Test
+    public void parserPool_shouldPublishCounters() throws Exception {
+        InstrumentedParserPool pool = new ParserPoolProperties().getParserPool();
+        new ParserPoolMetrics(pool).bindTo(registry);
+
+        pool.parse(new StringReader("<root/>"));
+
+        assertEquals(1.0, registry.get("saml.parser.checkouts").functionCounter().count(), 0.0);
+        assertEquals(1.0, registry.get("saml.parser.creations").functionCounter().count(), 0.0);
+        assertEquals(1.0, registry.get("saml.parser.checkout").functionTimer().count(), 0.0);
+        assertEquals(pool.getCheckoutTime(), registry.get("saml.parser.checkout").functionTimer().totalTime(TimeUnit.NANOSECONDS), 0.0);
+        assertTrue(pool.getCheckoutTime() > 0);
+    }
+
+    private static MockHttpServletRequest request(String path) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+        request.setServletPath(path);
+        return request;
+    }
+
+}
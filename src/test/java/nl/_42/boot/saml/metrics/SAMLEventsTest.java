@@ -0,0 +1,64 @@
+package nl._42.boot.saml.metrics;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SAMLEventsTest {
+
+    @After
+    public void tearDown() {
+        SAMLEvents.clear();
+    }
+
+    @Test
+    public void begin_shouldDoNothing_whenNotRecording() {
+        assertSame(SAMLStage.NONE, SAMLEvents.begin(SAMLEvents.DECODE));
+    }
+
+    @Test
+    public void end_shouldRecordStages_withMessageOfThread() throws Exception {
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(SAMLStageEvent.NAME).withoutThreshold();
+            recording.start();
+
+            SAMLEvents.begin(SAMLEvents.DECODE).message(null, 2048).message("https://idp", -1).end(SAMLMetrics.SUCCESS);
+            SAMLEvents.begin(SAMLEvents.SIGNATURE).entityId("https://other").end(SAMLMetrics.FAILURE);
+            SAMLEvents.begin(SAMLEvents.MAPPING).end(SAMLMetrics.FAILURE);
+
+            recording.stop();
+            Path file = Files.createTempFile("saml", ".jfr");
+            try {
+                recording.dump(file);
+                events = RecordingFile.readAllEvents(file);
+            } finally {
+                Files.delete(file);
+            }
+        }
+
+        events.removeIf(event -> !SAMLStageEvent.NAME.equals(event.getEventType().getName()));
+        assertEquals(3, events.size());
+
+        assertEvent(events.get(0), SAMLEvents.DECODE, "https://idp", SAMLMetrics.SUCCESS);
+        assertEvent(events.get(1), SAMLEvents.SIGNATURE, "https://other", SAMLMetrics.FAILURE);
+        assertEvent(events.get(2), SAMLEvents.MAPPING, "https://idp", SAMLMetrics.FAILURE);
+    }
+
+    private static void assertEvent(RecordedEvent event, String stage, String entityId, String outcome) {
+        assertEquals(stage, event.getString("stage"));
+        assertEquals(entityId, event.getString("entityId"));
+        assertEquals(2048L, event.getLong("messageSize"));
+        assertEquals(outcome, event.getString("outcome"));
+    }
+
+}
@@ -0,0 +1,84 @@
+package nl._42.boot.saml.parser;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilder;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentedParserPoolTest {
+
+    @Test
+    public void parse_shouldReuseBuilders() throws Exception {
+        InstrumentedParserPool pool = build(false);
+
+        for (int index = 0; index < 10; index++) {
+            Document document = pool.parse(new StringReader("<root/>"));
+            assertEquals("root", document.getDocumentElement().getLocalName());
+        }
+
+        assertEquals(10, pool.getCheckouts());
+        assertEquals(1, pool.getMisses());
+        assertEquals(1, pool.getCreations());
+        assertTrue(pool.getCheckoutTime() > 0);
+    }
+
+    @Test
+    public void getBuilder_shouldCountMisses_whenPoolEmpty() throws Exception {
+        InstrumentedParserPool pool = build(false);
+
+        DocumentBuilder first = pool.getBuilder();
+        DocumentBuilder second = pool.getBuilder();
+        pool.returnBuilder(first);
+        pool.returnBuilder(second);
+
+        assertEquals(2, pool.getMisses());
+        assertEquals(2, pool.getCreations());
+    }
+
+    @Test
+    public void getBuilder_shouldKeepBuilderPerThread() throws Exception {
+        InstrumentedParserPool pool = build(true);
+
+        DocumentBuilder builder = pool.getBuilder();
+        pool.returnBuilder(builder);
+        assertSame(builder, pool.getBuilder());
+
+        // Nested checkouts on the same thread fall back to the shared pool
+        DocumentBuilder nested = pool.getBuilder();
+        assertNotSame(builder, nested);
+        pool.returnBuilder(nested);
+        pool.returnBuilder(builder);
+
+        assertEquals(3, pool.getCheckouts());
+        assertEquals(1, pool.getMisses());
+        assertEquals(2, pool.getCreations());
+    }
+
+    @Test
+    public void getParserPool_shouldApplyProperties() {
+        ParserPoolProperties properties = new ParserPoolProperties();
+        properties.setMaxPoolSize(32);
+        properties.setPerThread(true);
+        properties.getBuilderFeatures().put("http://apache.org/xml/features/dom/defer-node-expansion", false);
+
+        InstrumentedParserPool pool = properties.getParserPool();
+        assertEquals(32, pool.getMaxPoolSize());
+        assertTrue(pool.isPerThread());
+        assertFalse(pool.getBuilderFeatures().get("http://apache.org/xml/features/dom/defer-node-expansion"));
+        assertTrue(pool.getBuilderFeatures().get("http://apache.org/xml/features/disallow-doctype-decl"));
+    }
+
+    private static InstrumentedParserPool build(boolean perThread) {
+        ParserPoolProperties properties = new ParserPoolProperties();
+        properties.setPerThread(perThread);
+        return properties.getParserPool();
+    }
+
+}
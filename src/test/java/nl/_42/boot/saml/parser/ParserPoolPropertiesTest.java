@@ -0,0 +1,64 @@
+package nl._42.boot.saml.parser;
+
+import org.junit.Test;
+import org.opensaml.xml.parse.XMLParserException;
+
+import javax.xml.XMLConstants;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParserPoolPropertiesTest {
+
+    private static final String DISALLOW_DOCTYPE = "http://apache.org/xml/features/disallow-doctype-decl";
+    private static final String DEFER_NODE_EXPANSION = "http://apache.org/xml/features/dom/defer-node-expansion";
+
+    @Test
+    public void getParserPool_shouldApplyBuilderFeatures() {
+        ParserPoolProperties properties = new ParserPoolProperties();
+        properties.getBuilderFeatures().put(DEFER_NODE_EXPANSION, false);
+
+        InstrumentedParserPool pool = properties.getParserPool();
+
+        assertEquals(Boolean.FALSE, pool.getBuilderFeatures().get(DEFER_NODE_EXPANSION));
+        assertEquals(Boolean.TRUE, pool.getBuilderFeatures().get(DISALLOW_DOCTYPE));
+        assertEquals(Boolean.TRUE, pool.getBuilderFeatures().get(XMLConstants.FEATURE_SECURE_PROCESSING));
+    }
+
+    @Test
+    public void getParserPool_shouldAcceptSecureDefaults() {
+        ParserPoolProperties properties = new ParserPoolProperties();
+        properties.getBuilderFeatures().put(DISALLOW_DOCTYPE, true);
+
+        assertEquals(Boolean.TRUE, properties.getParserPool().getBuilderFeatures().get(DISALLOW_DOCTYPE));
+    }
+
+    @Test
+    public void getParserPool_shouldRejectDisablingSecureDefaults() {
+        ParserPoolProperties properties = new ParserPoolProperties();
+        properties.getBuilderFeatures().put(DISALLOW_DOCTYPE, false);
+
+        try {
+            properties.getParserPool();
+            fail("Expected the secure default to be enforced");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(DISALLOW_DOCTYPE));
+        }
+    }
+
+    @Test
+    public void getParserPool_shouldRejectDoctype() {
+        InstrumentedParserPool pool = new ParserPoolProperties().getParserPool();
+
+        String xml = "<?xml version=\"1.0\"?><!DOCTYPE root [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]><root>&xxe;</root>";
+        try {
+            pool.parse(new StringReader(xml));
+            fail("Expected the doctype to be rejected");
+        } catch (XMLParserException e) {
+            assertTrue(e.getCause().getMessage().contains("DOCTYPE"));
+        }
+    }
+
+}
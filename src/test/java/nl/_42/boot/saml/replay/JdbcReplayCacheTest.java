@@ -0,0 +1,75 @@
+package nl._42.boot.saml.replay;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JdbcReplayCacheTest {
+
+    private JdbcDataSource dataSource;
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:replay;DB_CLOSE_DELAY=-1");
+
+        // Keeps the in memory database open during the test
+        connection = dataSource.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE saml_assertion (id VARCHAR(255) PRIMARY KEY, expires BIGINT NOT NULL)");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE saml_assertion");
+        }
+        connection.close();
+    }
+
+    @Test
+    public void add_shouldSucceed_once() {
+        long expires = System.currentTimeMillis() + 60000L;
+
+        JdbcReplayCache cache = new JdbcReplayCache(dataSource, "saml_assertion");
+        assertTrue(cache.add("a", expires));
+        assertFalse(cache.add("a", expires));
+
+        // Other nodes share the same table
+        assertFalse(new JdbcReplayCache(dataSource, "saml_assertion").add("a", expires));
+    }
+
+    @Test
+    public void add_shouldRemoveExpired() throws Exception {
+        new JdbcReplayCache(dataSource, "saml_assertion").add("a", System.currentTimeMillis() + 60000L);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE saml_assertion SET expires = 0");
+        }
+
+        new JdbcReplayCache(dataSource, "saml_assertion").add("b", System.currentTimeMillis() + 60000L);
+
+        try (Statement statement = connection.createStatement(); ResultSet result = statement.executeQuery("SELECT id FROM saml_assertion")) {
+            assertTrue(result.next());
+            assertEquals("b", result.getString(1));
+            assertFalse(result.next());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void table_shouldFail_whenInvalid() {
+        new JdbcReplayCache(dataSource, "saml_assertion; DROP TABLE users");
+    }
+
+}
@@ -0,0 +1,84 @@
+package nl._42.boot.saml.replay;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimeWheelReplayCacheTest {
+
+    private final AtomicLong time = new AtomicLong(1000000L);
+
+    private final Clock clock = new Clock() {
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(time.get());
+        }
+
+    };
+
+    private final TimeWheelReplayCache cache = new TimeWheelReplayCache(clock);
+
+    @Test
+    public void add_shouldSucceed_once() {
+        long expires = time.get() + 60000L;
+
+        assertTrue(cache.add("a", expires));
+        assertFalse(cache.add("a", expires));
+        assertTrue(cache.add("b", expires));
+    }
+
+    @Test
+    public void add_shouldFail_whenExpired() {
+        assertFalse(cache.add("a", time.get()));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void add_shouldRemoveExpired() {
+        for (int index = 0; index < 100; index++) {
+            cache.add("assertion-" + index, time.get() + 60000L);
+        }
+        assertEquals(100, cache.size());
+
+        time.addAndGet(61000L);
+        for (int index = 0; index < 100; index++) {
+            cache.add("other-" + index, time.get() + 60000L);
+        }
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void add_shouldKeep_whenBeyondWheel() {
+        long expires = time.get() + 3600000L;
+        assertTrue(cache.add("a", expires));
+
+        // Passes the slot of the assertion several times before it expires
+        for (int minute = 1; minute < 60; minute++) {
+            time.addAndGet(60000L);
+            assertFalse(cache.add("a", expires));
+        }
+
+        time.addAndGet(61000L);
+        assertTrue(cache.add("a", time.get() + 60000L));
+    }
+
+}
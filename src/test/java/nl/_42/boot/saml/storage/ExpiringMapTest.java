@@ -0,0 +1,105 @@
+package nl._42.boot.saml.storage;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExpiringMapTest {
+
+    private final AtomicLong time = new AtomicLong();
+
+    private final Clock clock = new Clock() {
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(time.get());
+        }
+
+    };
+
+    @Test
+    public void get_shouldSucceed_untilExpired() {
+        ExpiringMap<String> map = new ExpiringMap<>(Duration.ofSeconds(60), 100, clock);
+        map.put("a", "value");
+
+        time.addAndGet(59999);
+        assertEquals("value", map.get("a"));
+        assertEquals("value", map.get("a"));
+
+        time.addAndGet(1);
+        assertNull(map.get("a"));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void put_shouldReplace_andRenewExpiration() {
+        ExpiringMap<String> map = new ExpiringMap<>(Duration.ofSeconds(60), 100, clock);
+        map.put("a", "first");
+
+        time.addAndGet(30000);
+        map.put("a", "second");
+
+        time.addAndGet(40000);
+        assertEquals("second", map.get("a"));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void remove_shouldSucceed_once() {
+        ExpiringMap<String> map = new ExpiringMap<>(Duration.ofSeconds(60), 100, clock);
+        map.put("a", "value");
+
+        assertEquals("value", map.remove("a"));
+        assertNull(map.remove("a"));
+    }
+
+    @Test
+    public void remove_shouldSkip_whenValueReplaced() {
+        ExpiringMap<String> map = new ExpiringMap<>(Duration.ofSeconds(60), 100, clock);
+        String first = new String("value");
+        String second = new String("value");
+        map.put("a", first);
+        map.put("a", second);
+
+        assertFalse(map.remove("a", first));
+        assertTrue(map.remove("a", second));
+        assertNull(map.get("a"));
+    }
+
+    @Test
+    public void put_shouldSpreadOverSegments() {
+        ExpiringMap<String> map = new ExpiringMap<>(Duration.ofSeconds(60), 16, clock);
+        for (int index = 0; index < 1000; index++) {
+            map.put("_" + index, "value");
+        }
+
+        // One entry per segment remains, so all segments were used
+        assertEquals(16, map.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_shouldFail_withoutSize() {
+        new ExpiringMap<>(Duration.ofSeconds(60), 0, clock);
+    }
+
+}
@@ -0,0 +1,95 @@
+package nl._42.boot.saml.storage;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.saml2.core.AuthnRequest;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static nl._42.boot.saml.storage.JdbcMessageStorageTest.request;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class InMemoryMessageStorageTest {
+
+    private final AtomicLong time = new AtomicLong();
+
+    private final Clock clock = new Clock() {
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(time.get());
+        }
+
+    };
+
+    @BeforeClass
+    public static void bootstrap() throws Exception {
+        DefaultBootstrap.bootstrap();
+    }
+
+    @Test
+    public void retrieve_shouldSucceed_once() {
+        InMemoryMessageStorage storage = new InMemoryMessageStorage(Duration.ofSeconds(60), 100, clock);
+
+        AuthnRequest request = request("a");
+        storage.storeMessage("a", request);
+
+        assertSame(request, storage.retrieveMessage("a"));
+        assertNull(storage.retrieveMessage("a"));
+        assertNull(storage.retrieveMessage("unknown"));
+    }
+
+    @Test
+    public void retrieve_shouldSkip_whenExpired() {
+        InMemoryMessageStorage storage = new InMemoryMessageStorage(Duration.ofSeconds(60), 100, clock);
+        storage.storeMessage("a", request("a"));
+
+        time.addAndGet(60000);
+        assertNull(storage.retrieveMessage("a"));
+    }
+
+    @Test
+    public void store_shouldEvict_whenExpired() {
+        InMemoryMessageStorage storage = new InMemoryMessageStorage(Duration.ofSeconds(60), 100, clock);
+        for (int index = 0; index < 50; index++) {
+            storage.storeMessage("message-" + index, request("message-" + index));
+        }
+
+        time.addAndGet(60000);
+        for (int index = 0; index < 50; index++) {
+            storage.storeMessage("other-" + index, request("other-" + index));
+        }
+
+        assertEquals(50, storage.size());
+    }
+
+    @Test
+    public void store_shouldEvictOldest_whenFull() {
+        InMemoryMessageStorage storage = new InMemoryMessageStorage(Duration.ofSeconds(60), 16, clock);
+        for (int index = 0; index < 1000; index++) {
+            storage.storeMessage("message-" + index, request("message-" + index));
+        }
+
+        assertEquals(16, storage.size());
+        assertNull(storage.retrieveMessage("message-0"));
+    }
+
+}
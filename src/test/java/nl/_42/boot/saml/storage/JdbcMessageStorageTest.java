@@ -0,0 +1,116 @@
+package nl._42.boot.saml.storage;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.saml2.core.AuthnRequest;
+import org.opensaml.saml2.core.Issuer;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.XMLObjectBuilder;
+import org.opensaml.xml.parse.StaticBasicParserPool;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class JdbcMessageStorageTest {
+
+    private JdbcDataSource dataSource;
+
+    private Connection connection;
+
+    private JdbcMessageStorage storage;
+
+    @BeforeClass
+    public static void bootstrap() throws Exception {
+        DefaultBootstrap.bootstrap();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:saml;DB_CLOSE_DELAY=-1");
+
+        // Keeps the in memory database open during the test
+        connection = dataSource.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE saml_message (id VARCHAR(255) PRIMARY KEY, message CLOB NOT NULL, expires BIGINT NOT NULL)");
+        }
+
+        StaticBasicParserPool parserPool = new StaticBasicParserPool();
+        parserPool.initialize();
+
+        storage = new JdbcMessageStorage(dataSource, parserPool, "saml_message", Duration.ofSeconds(60));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE saml_message");
+        }
+        connection.close();
+    }
+
+    @Test
+    public void retrieve_shouldSucceed_once() {
+        storage.storeMessage("a", request("a"));
+
+        AuthnRequest request = (AuthnRequest) storage.retrieveMessage("a");
+        assertEquals("a", request.getID());
+        assertEquals("https://sp", request.getIssuer().getValue());
+
+        assertNull(storage.retrieveMessage("a"));
+        assertNull(storage.retrieveMessage("unknown"));
+    }
+
+    @Test
+    public void retrieve_shouldSkip_whenExpired() throws Exception {
+        storage.storeMessage("a", request("a"));
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE saml_message SET expires = 0");
+        }
+
+        assertNull(storage.retrieveMessage("a"));
+    }
+
+    @Test
+    public void store_shouldRemoveExpired() throws Exception {
+        storage.storeMessage("a", request("a"));
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE saml_message SET expires = 0");
+        }
+
+        new JdbcMessageStorage(dataSource, new StaticBasicParserPool(), "saml_message", Duration.ofSeconds(60)).storeMessage("b", request("b"));
+
+        try (Statement statement = connection.createStatement(); ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM saml_message")) {
+            result.next();
+            assertEquals(1, result.getInt(1));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void table_shouldFail_whenInvalid() {
+        new JdbcMessageStorage(dataSource, new StaticBasicParserPool(), "saml_message; DROP TABLE users", Duration.ofSeconds(60));
+    }
+
+    @SuppressWarnings("unchecked")
+    static AuthnRequest request(String id) {
+        XMLObjectBuilder<AuthnRequest> builder = Configuration.getBuilderFactory().getBuilder(AuthnRequest.DEFAULT_ELEMENT_NAME);
+        AuthnRequest request = builder.buildObject(AuthnRequest.DEFAULT_ELEMENT_NAME);
+        request.setID(id);
+
+        XMLObjectBuilder<Issuer> issuerBuilder = Configuration.getBuilderFactory().getBuilder(Issuer.DEFAULT_ELEMENT_NAME);
+        Issuer issuer = issuerBuilder.buildObject(Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setValue("https://sp");
+        request.setIssuer(issuer);
+        return request;
+    }
+
+}
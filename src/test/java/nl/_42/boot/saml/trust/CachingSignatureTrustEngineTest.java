@@ -0,0 +1,159 @@
+package nl._42.boot.saml.trust;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl._42.boot.saml.metrics.MicrometerSAMLMetrics;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.saml2.core.AuthnRequest;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.security.MetadataCriteria;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.XMLObjectBuilder;
+import org.opensaml.xml.security.Criteria;
+import org.opensaml.xml.security.CriteriaSet;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.credential.CredentialResolver;
+import org.opensaml.xml.security.credential.UsageType;
+import org.opensaml.xml.security.criteria.EntityIDCriteria;
+import org.opensaml.xml.security.criteria.UsageCriteria;
+import org.opensaml.xml.security.keyinfo.KeyInfoHelper;
+import org.opensaml.xml.security.x509.BasicX509Credential;
+import org.opensaml.xml.security.x509.X509Credential;
+import org.opensaml.xml.signature.KeyInfo;
+import org.opensaml.xml.signature.Signature;
+import org.opensaml.xml.signature.SignatureConstants;
+import org.opensaml.xml.signature.Signer;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.security.saml.key.JKSKeyManager;
+import org.springframework.security.saml.key.KeyManager;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingSignatureTrustEngineTest {
+
+    private static final String ENTITY_ID = "https://idp";
+
+    private X509Credential signing;
+
+    private X509Credential other;
+
+    private CredentialResolver resolver;
+
+    private CachingSignatureTrustEngine engine;
+
+    @BeforeClass
+    public static void bootstrap() throws Exception {
+        DefaultBootstrap.bootstrap();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        KeyManager keyManager = new JKSKeyManager(new ClassPathResource("simple-saml.jks"), "nalle123", Collections.singletonMap("apollo", "nalle123"), "apollo");
+        signing = (X509Credential) keyManager.getCredential("apollo");
+        other = (X509Credential) keyManager.getCredential("startcom");
+
+        BasicX509Credential trusted = new BasicX509Credential();
+        trusted.setEntityId(ENTITY_ID);
+        trusted.setEntityCertificate(signing.getEntityCertificate());
+        trusted.setPublicKey(signing.getPublicKey());
+
+        resolver = mock(CredentialResolver.class);
+        when(resolver.resolve(any())).thenAnswer(invocation -> Collections.<Credential>singletonList(trusted));
+
+        engine = new CachingSignatureTrustEngine(resolver, Configuration.getGlobalSecurityConfiguration().getDefaultKeyInfoCredentialResolver());
+    }
+
+    @Test
+    public void resolve_shouldCache_untilMetadataChanges() throws Exception {
+        Iterable<Credential> first = engine.getCredentialResolver().resolve(criteria());
+        assertSame(first, engine.getCredentialResolver().resolve(criteria()));
+        verify(resolver, times(1)).resolve(any());
+
+        engine.onEvent(null);
+        engine.getCredentialResolver().resolve(criteria());
+        verify(resolver, times(2)).resolve(any());
+    }
+
+    @Test
+    public void resolve_shouldSkipCache_whenUnknownCriteria() throws Exception {
+        CriteriaSet criteria = criteria();
+        criteria.add(new BasicCriteria());
+
+        engine.getCredentialResolver().resolve(criteria);
+        engine.getCredentialResolver().resolve(criteria);
+        verify(resolver, times(2)).resolve(any());
+    }
+
+    @Test
+    public void evaluateTrust_shouldOnlyTrustKnownCertificates() throws Exception {
+        Iterable<Credential> trusted = engine.getCredentialResolver().resolve(criteria());
+
+        assertTrue(engine.evaluateTrust(signing, trusted));
+        assertTrue(engine.evaluateTrust(signing, trusted));
+        assertFalse(engine.evaluateTrust(other, trusted));
+    }
+
+    @Test
+    public void validate_shouldVerifySignature_whenTrustCached() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        engine.setMetrics(new MicrometerSAMLMetrics(registry));
+
+        AuthnRequest valid = sign("valid");
+        assertTrue(engine.validate(valid.getSignature(), criteria()));
+
+        AuthnRequest tampered = sign("tampered");
+        tampered.getDOM().setAttributeNS(null, "ID", "other");
+        assertFalse(engine.validate(tampered.getSignature(), criteria()));
+
+        assertEquals(1, registry.get(CachingSignatureTrustEngine.VALIDATION).tag("outcome", "success").tag("trusted", "true").timer().count());
+        assertEquals(1, registry.get(CachingSignatureTrustEngine.VALIDATION).tag("outcome", "success").tag("trusted", "false").timer().count());
+    }
+
+    private static CriteriaSet criteria() {
+        CriteriaSet criteria = new CriteriaSet();
+        criteria.add(new EntityIDCriteria(ENTITY_ID));
+        criteria.add(new MetadataCriteria(IDPSSODescriptor.DEFAULT_ELEMENT_NAME, "urn:oasis:names:tc:SAML:2.0:protocol"));
+        criteria.add(new UsageCriteria(UsageType.SIGNING));
+        return criteria;
+    }
+
+    @SuppressWarnings("unchecked")
+    private AuthnRequest sign(String id) throws Exception {
+        XMLObjectBuilder<AuthnRequest> requestBuilder = Configuration.getBuilderFactory().getBuilder(AuthnRequest.DEFAULT_ELEMENT_NAME);
+        AuthnRequest request = requestBuilder.buildObject(AuthnRequest.DEFAULT_ELEMENT_NAME);
+        request.setID(id);
+
+        XMLObjectBuilder<Signature> signatureBuilder = Configuration.getBuilderFactory().getBuilder(Signature.DEFAULT_ELEMENT_NAME);
+        Signature signature = signatureBuilder.buildObject(Signature.DEFAULT_ELEMENT_NAME);
+        signature.setSigningCredential(signing);
+        signature.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+        signature.setCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+
+        XMLObjectBuilder<KeyInfo> keyInfoBuilder = Configuration.getBuilderFactory().getBuilder(KeyInfo.DEFAULT_ELEMENT_NAME);
+        KeyInfo keyInfo = keyInfoBuilder.buildObject(KeyInfo.DEFAULT_ELEMENT_NAME);
+        KeyInfoHelper.addCertificate(keyInfo, signing.getEntityCertificate());
+        signature.setKeyInfo(keyInfo);
+
+        request.setSignature(signature);
+        Configuration.getMarshallerFactory().getMarshaller(request).marshall(request);
+        Signer.signObject(signature);
+        return request;
+    }
+
+    private static final class BasicCriteria implements Criteria {
+    }
+
+}
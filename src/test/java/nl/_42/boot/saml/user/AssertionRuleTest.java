@@ -0,0 +1,85 @@
+package nl._42.boot.saml.user;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+public class AssertionRuleTest {
+
+    private final Function<String, Set<String>> attributes = attributes();
+
+    @Test
+    public void matches_shouldMatchLiterals() {
+        Assert.assertTrue(AssertionRule.matches("memberOf", "staff|admins").test(attributes));
+        Assert.assertFalse(AssertionRule.matches("memberOf", "admins").test(attributes));
+    }
+
+    @Test
+    public void matches_shouldMatchWholeValue() {
+        Assert.assertTrue(AssertionRule.matches("memberOf", "st.ff").test(attributes));
+        Assert.assertFalse(AssertionRule.matches("memberOf", "sta").test(attributes));
+        Assert.assertFalse(AssertionRule.matches("memberOf", "st.").test(attributes));
+    }
+
+    @Test
+    public void matches_shouldMatchRegex() {
+        Assert.assertTrue(AssertionRule.matches("memberOf", "stu[a-z]+").test(attributes));
+        Assert.assertFalse(AssertionRule.matches("organisation", "[a-z]+").test(attributes));
+    }
+
+    @Test
+    public void anyValue_shouldMatchPredicate() {
+        Assert.assertTrue(AssertionRule.anyValue("memberOf", "a student group", value -> value.startsWith("stud")).test(attributes));
+        Assert.assertFalse(AssertionRule.anyValue("organisation", value -> value.endsWith(".com")).test(attributes));
+    }
+
+    @Test
+    public void combine() {
+        AssertionRule staff = AssertionRule.oneOf("memberOf", "staff");
+        AssertionRule admin = AssertionRule.oneOf("memberOf", "admins");
+        AssertionRule organisation = AssertionRule.oneOf("organisation", "vorsen.nl", "42.nl");
+
+        Assert.assertTrue(staff.and(organisation).test(attributes));
+        Assert.assertFalse(admin.and(organisation).test(attributes));
+        Assert.assertTrue(admin.or(staff).test(attributes));
+        Assert.assertTrue(admin.negate().test(attributes));
+    }
+
+    @Test
+    public void combine_shouldShortCircuit() {
+        AssertionRule failing = (values) -> {
+            throw new IllegalStateException("Should not be evaluated");
+        };
+
+        Assert.assertTrue(AssertionRule.oneOf("memberOf", "staff").or(failing).test(attributes));
+        Assert.assertFalse(AssertionRule.oneOf("memberOf", "admins").and(failing).test(attributes));
+    }
+
+    @Test
+    public void toString_shouldDescribeRule() {
+        AssertionRule staff = AssertionRule.matches("memberOf", "staff|admins");
+        AssertionRule organisation = AssertionRule.oneOf("organisation", "vorsen.nl", "42.nl");
+        AssertionRule custom = AssertionRule.named("custom", values -> true);
+
+        Assert.assertEquals("memberOf matches 'staff|admins'", staff.toString());
+        Assert.assertEquals("organisation is one of [42.nl, vorsen.nl]", organisation.toString());
+        Assert.assertEquals("(memberOf matches 'staff|admins' and not organisation is one of [42.nl, vorsen.nl])", staff.and(organisation.negate()).toString());
+        Assert.assertEquals("(custom or memberOf matches 'st.ff')", custom.or(AssertionRule.matches("memberOf", "st.ff")).toString());
+        Assert.assertEquals("any value of memberOf matches a predicate", AssertionRule.anyValue("memberOf", value -> true).toString());
+        Assert.assertEquals("any value of memberOf matches a staff group", AssertionRule.anyValue("memberOf", "a staff group", value -> value.startsWith("staff")).toString());
+    }
+
+    private static Function<String, Set<String>> attributes() {
+        Map<String, Set<String>> values = new HashMap<>();
+        values.put("memberOf", new HashSet<>(Arrays.asList("staff", "students")));
+        values.put("organisation", new HashSet<>(Arrays.asList("42.nl")));
+        return values::get;
+    }
+
+}
@@ -3,7 +3,9 @@ package nl._42.boot.saml.user;
 import nl._42.boot.saml.UserNotAllowedException;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 
 public class AssertionsTest {
 
@@ -21,6 +23,39 @@ public class AssertionsTest {
         assertions.verify((name) -> Collections.singleton("jaja.nl"));
     }
 
+    @Test
+    public void verify_shouldSucceed_whenWildcard() {
+        assertions.verify((name) -> Collections.singleton("vorsen-nl"));
+    }
+
+    @Test
+    public void verify_shouldSucceed_whenAnyOf() {
+        assertions.verify((name) -> new HashSet<>(Arrays.asList("jaja.nl", "harvard-example.edu")));
+    }
+
+    @Test(expected = UserNotAllowedException.class)
+    public void verify_shouldThrow_whenMissing() {
+        assertions.verify((name) -> null);
+    }
+
+    @Test
+    public void verify_shouldSucceed_whenRegex() {
+        Assertions assertions = new Assertions(
+            Collections.singletonMap("memberOf", "cn=.*,ou=staff")
+        );
+
+        assertions.verify((name) -> new HashSet<>(Arrays.asList("cn=students", "cn=developers,ou=staff")));
+    }
+
+    @Test(expected = UserNotAllowedException.class)
+    public void verify_shouldThrow_whenNoneOfLiterals() {
+        Assertions assertions = new Assertions(
+            Collections.singletonMap("memberOf", "admins|developers")
+        );
+
+        assertions.verify((name) -> new HashSet<>(Arrays.asList("students", "admins-old")));
+    }
+
     @Test
     public void verify_shouldSucceed_whenEmpty() {
         Assertions assertions = new Assertions(
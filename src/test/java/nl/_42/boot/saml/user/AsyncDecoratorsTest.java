@@ -0,0 +1,173 @@
+package nl._42.boot.saml.user;
+
+import nl._42.boot.saml.metrics.SAMLMetrics;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncDecoratorsTest {
+
+    private static final UserDetails USER = new User("henk", "", Collections.emptyList());
+
+    private AsyncDecorators decorators;
+
+    @After
+    public void tearDown() {
+        if (decorators != null) {
+            decorators.shutdown();
+        }
+    }
+
+    @Test
+    public void complete_shouldRunIndependentDecoratorsInParallel() {
+        CountDownLatch started = new CountDownLatch(2);
+        decorators = build(1000,
+            new Decorator("hr", details -> await(started, "ROLE_HR")),
+            new Decorator("entitlements", details -> await(started, "ROLE_ENTITLED"))
+        );
+
+        UserDetails user = decorators.start(USER, new MapSAMLResponse(), SAMLMetrics.NONE).complete(USER);
+        assertEquals(Arrays.asList("ROLE_ENTITLED", "ROLE_HR"), names(user));
+    }
+
+    @Test
+    public void complete_shouldApplyDependenciesFirst() {
+        List<String> seen = Collections.synchronizedList(new ArrayList<>());
+        decorators = build(1000,
+            new Decorator("entitlements", details -> {
+                seen.add(names(details).toString());
+                return authority("ROLE_ENTITLED");
+            }, "hr"),
+            new Decorator("hr", details -> authority("ROLE_HR"))
+        );
+
+        UserDetails user = decorators.start(USER, new MapSAMLResponse(), SAMLMetrics.NONE).complete(USER);
+        assertEquals(Arrays.asList("ROLE_ENTITLED", "ROLE_HR"), names(user));
+        assertEquals(Collections.singletonList("[ROLE_HR]"), seen);
+    }
+
+    @Test
+    public void complete_shouldApplyFallback_onTimeout() {
+        Decorator slow = new Slow() {
+
+            @Override
+            public UnaryOperator<UserDetails> fallback(UserDetails details, Throwable failure) {
+                assertTrue(failure instanceof TimeoutException);
+                return authority("ROLE_FALLBACK");
+            }
+
+        };
+        decorators = build(50, slow);
+
+        UserDetails user = decorators.start(USER, new MapSAMLResponse(), SAMLMetrics.NONE).complete(USER);
+        assertEquals(Collections.singletonList("ROLE_FALLBACK"), names(user));
+    }
+
+    @Test(expected = AuthenticationServiceException.class)
+    public void complete_shouldFail_onTimeoutWithoutFallback() {
+        decorators = build(50, new Slow());
+        decorators.start(USER, new MapSAMLResponse(), SAMLMetrics.NONE).complete(USER);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void build_shouldFail_onCyclicDependencies() {
+        decorators = build(1000,
+            new Decorator("a", details -> authority("ROLE_A"), "b"),
+            new Decorator("b", details -> authority("ROLE_B"), "a")
+        );
+    }
+
+    private static AsyncDecorators build(long timeout, SAMLAsyncUserDecorator... decorators) {
+        return new AsyncDecorators(Arrays.asList(decorators), new DecoratorProperties().getExecutor(), timeout);
+    }
+
+    private static UnaryOperator<UserDetails> await(CountDownLatch latch, String authority) {
+        latch.countDown();
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Not started in parallel");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return authority(authority);
+    }
+
+    private static UnaryOperator<UserDetails> authority(String authority) {
+        return details -> {
+            List<GrantedAuthority> authorities = new ArrayList<>(details.getAuthorities());
+            authorities.add(new SimpleGrantedAuthority(authority));
+            return new User(details.getUsername(), "", authorities);
+        };
+    }
+
+    private static List<String> names(UserDetails details) {
+        Collection<? extends GrantedAuthority> authorities = details.getAuthorities();
+        return authorities.stream().map(GrantedAuthority::getAuthority).sorted().collect(Collectors.toList());
+    }
+
+    private static class Decorator implements SAMLAsyncUserDecorator {
+
+        private final String name;
+
+        private final Function<UserDetails, UnaryOperator<UserDetails>> decoration;
+
+        private final List<String> dependencies;
+
+        private Decorator(String name, Function<UserDetails, UnaryOperator<UserDetails>> decoration, String... dependencies) {
+            this.name = name;
+            this.decoration = decoration;
+            this.dependencies = Arrays.asList(dependencies);
+        }
+
+        @Override
+        public CompletableFuture<UnaryOperator<UserDetails>> decorate(UserDetails details, SAMLResponse response) {
+            return CompletableFuture.completedFuture(decoration.apply(details));
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Collection<String> getDependencies() {
+            return dependencies;
+        }
+
+    }
+
+    private static class Slow extends Decorator {
+
+        private Slow() {
+            super("slow", details -> authority("ROLE_SLOW"));
+        }
+
+        @Override
+        public CompletableFuture<UnaryOperator<UserDetails>> decorate(UserDetails details, SAMLResponse response) {
+            return new CompletableFuture<>();
+        }
+
+    }
+
+}
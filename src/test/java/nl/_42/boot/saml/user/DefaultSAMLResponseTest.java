@@ -3,14 +3,24 @@ package nl._42.boot.saml.user;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.opensaml.saml2.core.Assertion;
 import org.opensaml.saml2.core.Attribute;
+import org.opensaml.saml2.core.NameID;
+import org.opensaml.xml.XMLObject;
 import org.opensaml.xml.schema.XSAny;
 import org.opensaml.xml.schema.XSString;
 import org.springframework.security.saml.SAMLCredential;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 public class DefaultSAMLResponseTest {
 
@@ -27,7 +37,8 @@ public class DefaultSAMLResponseTest {
   public void getValue_string() {
     Attribute attribute = Mockito.mock(Attribute.class);
     XSString string = Mockito.mock(XSString.class);
-    Mockito.when(credential.getAttribute("uid")).thenReturn(attribute);
+    Mockito.when(credential.getAttributes()).thenReturn(Arrays.asList(attribute));
+    Mockito.when(attribute.getName()).thenReturn("uid");
     Mockito.when(attribute.getAttributeValues()).thenReturn(Arrays.asList(string));
     Mockito.when(string.getValue()).thenReturn("jan");
 
@@ -39,7 +50,8 @@ public class DefaultSAMLResponseTest {
   public void getValue_any() {
     Attribute attribute = Mockito.mock(Attribute.class);
     XSAny any = Mockito.mock(XSAny.class);
-    Mockito.when(credential.getAttribute("uid")).thenReturn(attribute);
+    Mockito.when(credential.getAttributes()).thenReturn(Arrays.asList(attribute));
+    Mockito.when(attribute.getName()).thenReturn("uid");
     Mockito.when(attribute.getAttributeValues()).thenReturn(Arrays.asList(any));
     Mockito.when(any.getTextContent()).thenReturn("jan");
 
@@ -51,17 +63,124 @@ public class DefaultSAMLResponseTest {
   public void getValue_any_null() {
     Attribute attribute = Mockito.mock(Attribute.class);
     XSAny any = Mockito.mock(XSAny.class);
-    Mockito.when(credential.getAttribute("uid")).thenReturn(attribute);
+    Mockito.when(credential.getAttributes()).thenReturn(Arrays.asList(attribute));
+    Mockito.when(attribute.getName()).thenReturn("uid");
     Mockito.when(attribute.getAttributeValues()).thenReturn(Arrays.asList(any));
 
     String uid = response.getValue("uid").orElse("");
     assertEquals("", uid);
   }
 
+  @Test
+  public void getValues_friendlyName() {
+    Attribute attribute = Mockito.mock(Attribute.class);
+    XSString string = Mockito.mock(XSString.class);
+    Mockito.when(credential.getAttributes()).thenReturn(Arrays.asList(attribute));
+    Mockito.when(attribute.getName()).thenReturn("urn:oid:0.9.2342.19200300.100.1.1");
+    Mockito.when(attribute.getFriendlyName()).thenReturn("uid");
+    Mockito.when(attribute.getAttributeValues()).thenReturn(Arrays.asList(string));
+    Mockito.when(string.getValue()).thenReturn("jan");
+
+    assertEquals(Collections.singleton("jan"), response.getValues("uid"));
+    assertEquals(Collections.singleton("jan"), response.getValues("urn:oid:0.9.2342.19200300.100.1.1"));
+    assertSame(response.getValues("uid"), response.getValues("uid"));
+    Mockito.verify(credential, Mockito.times(1)).getAttributes();
+  }
+
+  @Test
+  public void getValue_first() {
+    Attribute first = Mockito.mock(Attribute.class);
+    Attribute second = Mockito.mock(Attribute.class);
+    XSString b = Mockito.mock(XSString.class);
+    XSString a = Mockito.mock(XSString.class);
+    XSString other = Mockito.mock(XSString.class);
+    Mockito.when(credential.getAttributes()).thenReturn(Arrays.asList(first, second));
+    Mockito.when(first.getName()).thenReturn("uid");
+    Mockito.when(first.getAttributeValues()).thenReturn(Arrays.asList(b, a));
+    Mockito.when(second.getName()).thenReturn("uid");
+    Mockito.when(second.getAttributeValues()).thenReturn(Arrays.asList(other));
+    Mockito.when(b.getValue()).thenReturn("b");
+    Mockito.when(a.getValue()).thenReturn("a");
+    Mockito.when(other.getValue()).thenReturn("other");
+
+    assertEquals("a", response.getValue("uid").orElse(""));
+    assertEquals(2, response.getValues("uid").size());
+  }
+
+  @Test
+  public void getValues_ignoreCase() {
+    Attribute role = attribute("urn:oid:role", "medewerker");
+    Mockito.when(credential.getAttributes()).thenReturn(Arrays.asList(role));
+
+    assertEquals(Collections.singleton("medewerker"), response.getValues("urn:oid:Role"));
+    assertEquals(Collections.singleton("medewerker"), response.getValues("URN:OID:ROLE"));
+  }
+
+  @Test
+  public void getValues_nameBeforeFriendlyName() {
+    Attribute mail = attribute("urn:oid:0.9.2342.19200300.100.1.3", "jan@42.nl");
+    Mockito.when(mail.getFriendlyName()).thenReturn("uid");
+    Attribute uid = attribute("uid", "jan");
+    Mockito.when(credential.getAttributes()).thenReturn(Arrays.asList(mail, uid));
+
+    assertEquals(Collections.singleton("jan"), response.getValues("uid"));
+    assertEquals(Collections.singleton("jan@42.nl"), response.getValues("urn:oid:0.9.2342.19200300.100.1.3"));
+  }
+
+  @Test
+  public void getValues_friendlyName_notMatchedByCredential() {
+    Attribute affiliation = attribute("urn:oid:1.3.6.1.4.1.5923.1.1.1.1", "employee");
+    Mockito.when(affiliation.getFriendlyName()).thenReturn("role");
+    SAMLCredential credential = new SAMLCredential(Mockito.mock(NameID.class), Mockito.mock(Assertion.class), "idp", Arrays.asList(affiliation), "sp");
+    DefaultSAMLResponse response = new DefaultSAMLResponse(credential);
+
+    assertNull(credential.getAttribute("role"));
+    assertEquals(Collections.singleton("employee"), response.getValues("role"));
+    assertEquals(Collections.singleton("employee"), response.getValues("ROLE"));
+  }
+
+  @Test
+  public void getFingerprint_shouldIgnoreOrder() {
+    Attribute uid = attribute("uid", "jan");
+    Attribute role = attribute("role", "a", "b");
+    Mockito.when(credential.getAttributes()).thenReturn(Arrays.asList(uid, role));
+    byte[] fingerprint = response.getFingerprint();
+
+    Attribute reversed = attribute("role", "b", "a");
+    SAMLCredential reordered = Mockito.mock(SAMLCredential.class);
+    Mockito.when(reordered.getAttributes()).thenReturn(Arrays.asList(reversed, uid));
+    assertArrayEquals(fingerprint, new DefaultSAMLResponse(reordered).getFingerprint());
+  }
+
+  @Test
+  public void getFingerprint_shouldChange_onValue() {
+    Attribute role = attribute("role", "a", "b");
+    Mockito.when(credential.getAttributes()).thenReturn(Arrays.asList(role));
+    byte[] fingerprint = response.getFingerprint();
+
+    Attribute removed = attribute("role", "a");
+    SAMLCredential changed = Mockito.mock(SAMLCredential.class);
+    Mockito.when(changed.getAttributes()).thenReturn(Arrays.asList(removed));
+    assertFalse(Arrays.equals(fingerprint, new DefaultSAMLResponse(changed).getFingerprint()));
+  }
+
   @Test
   public void getValue_null() {
     String uid = response.getValue("uid").orElse("");
     assertEquals("", uid);
   }
 
+  private static Attribute attribute(String name, String... values) {
+    Attribute attribute = Mockito.mock(Attribute.class);
+    Mockito.when(attribute.getName()).thenReturn(name);
+    List<XMLObject> objects = new ArrayList<>();
+    for (String value : values) {
+      XSString string = Mockito.mock(XSString.class);
+      Mockito.when(string.getValue()).thenReturn(value);
+      objects.add(string);
+    }
+    Mockito.when(attribute.getAttributeValues()).thenReturn(objects);
+    return attribute;
+  }
+
 }
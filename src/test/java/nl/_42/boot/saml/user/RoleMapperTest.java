@@ -0,0 +1,90 @@
+package nl._42.boot.saml.user;
+
+import org.junit.Test;
+import org.springframework.security.core.GrantedAuthority;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RoleMapperTest {
+
+    @Test
+    public void getAuthorities_exact() {
+        RoleMapper mapper = mapper("medewerker", "ROLE_USER", "externe", "ROLE_USER", "admin", "ROLE_ADMIN");
+
+        assertEquals(Arrays.asList("ROLE_ADMIN", "ROLE_USER"), names(mapper.getAuthorities(roles("medewerker", "externe", "admin", "unknown"))));
+        assertEquals(Collections.emptyList(), names(mapper.getAuthorities(roles("unknown"))));
+    }
+
+    @Test
+    public void getAuthorities_prefix() {
+        RoleMapper mapper = mapper("app-*", "ROLE_APP", "app-admin*", "ROLE_ADMIN");
+
+        assertEquals(Collections.singletonList("ROLE_APP"), names(mapper.getAuthorities(roles("app-"))));
+        assertEquals(Arrays.asList("ROLE_ADMIN", "ROLE_APP"), names(mapper.getAuthorities(roles("app-admins"))));
+        assertEquals(Collections.emptyList(), names(mapper.getAuthorities(roles("ap", "other-app-x"))));
+    }
+
+    @Test
+    public void getAuthorities_suffix() {
+        RoleMapper mapper = mapper("*,ou=staff,dc=42,dc=nl", "ROLE_USER");
+
+        assertEquals(Collections.singletonList("ROLE_USER"), names(mapper.getAuthorities(roles("cn=developers,ou=staff,dc=42,dc=nl"))));
+        assertEquals(Collections.emptyList(), names(mapper.getAuthorities(roles("cn=developers,ou=guests,dc=42,dc=nl"))));
+    }
+
+    @Test
+    public void getAuthorities_pattern() {
+        RoleMapper mapper = mapper("cn=*-admin,*", "ROLE_ADMIN", "*", "ROLE_ANY");
+
+        assertEquals(Arrays.asList("ROLE_ADMIN", "ROLE_ANY"), names(mapper.getAuthorities(roles("cn=app-admin,ou=staff"))));
+        assertEquals(Collections.singletonList("ROLE_ANY"), names(mapper.getAuthorities(roles("cn=app-admin"))));
+    }
+
+    @Test
+    public void getAuthorities_shouldMemoizeAndIntern() {
+        RoleMapper mapper = mapper("medewerker", "ROLE_USER", "externe", "ROLE_USER");
+
+        Collection<GrantedAuthority> first = mapper.getAuthorities(roles("medewerker", "other"));
+        assertSame(first, mapper.getAuthorities(roles("other", "medewerker")));
+
+        Collection<GrantedAuthority> second = mapper.getAuthorities(roles("externe"));
+        assertSame(first.iterator().next(), second.iterator().next());
+    }
+
+    @Test
+    public void getRole() {
+        RoleMapper mapper = mapper("admin", "ROLE_ADMIN", "adm*", "ROLE_USER");
+
+        assertEquals("ROLE_ADMIN", mapper.getRole("admin"));
+        assertEquals("ROLE_USER", mapper.getRole("administrators"));
+        assertNull(mapper.getRole("user"));
+    }
+
+    private static RoleMapper mapper(String... rules) {
+        Map<String, String> roles = new HashMap<>();
+        for (int index = 0; index < rules.length; index += 2) {
+            roles.put(rules[index], rules[index + 1]);
+        }
+        return new RoleMapper(roles);
+    }
+
+    private static Collection<String> roles(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+    private static List<String> names(Collection<GrantedAuthority> authorities) {
+        return authorities.stream().map(GrantedAuthority::getAuthority).collect(Collectors.toList());
+    }
+
+}
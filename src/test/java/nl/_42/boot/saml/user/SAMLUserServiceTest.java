@@ -4,11 +4,13 @@
 package nl._42.boot.saml.user;
 
 import nl._42.boot.saml.AbstractApplicationTest;
+import nl._42.boot.saml.SAMLProperties;
 import nl._42.boot.saml.UserNotAllowedException;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.Mockito;
+import org.opensaml.saml2.core.Attribute;
+import org.opensaml.saml2.core.NameID;
 import org.opensaml.xml.XMLObject;
 import org.opensaml.xml.schema.impl.XSStringImpl;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,12 +19,13 @@ import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.saml.SAMLCredential;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -35,16 +38,18 @@ public class SAMLUserServiceTest extends AbstractApplicationTest {
 
     @Before
     public void setUp() {
-        credential = mock(SAMLCredential.class, RETURNS_DEEP_STUBS);
+        credential = mock(SAMLCredential.class);
     }
 
     @Test
     public void success() {
         GrantedAuthority authority = new SimpleGrantedAuthority("ROLE_USER");
 
-        when(credential.getAttribute("urn:oid:user").getAttributeValues()).thenReturn(toXmlObjects("henkid"));
-        when(credential.getAttribute("urn:oid:role").getAttributeValues()).thenReturn(toXmlObjects("medewerker", "unknown"));
-        when(credential.getAttribute("urn:oid:organisation").getAttributeValues()).thenReturn(toXmlObjects("vorsen.nl"));
+        attributes(
+            attribute("urn:oid:user", "henkid"),
+            attribute("urn:oid:role", "medewerker", "unknown"),
+            attribute("urn:oid:organisation", "vorsen.nl")
+        );
 
         UserDetails user = service.loadUserBySAML(credential);
 
@@ -54,40 +59,99 @@ public class SAMLUserServiceTest extends AbstractApplicationTest {
 
     @Test(expected = UserNotAllowedException.class)
     public void fail_missingUserId() {
-        when(credential.getAttribute(Mockito.anyString())).thenReturn(null);
+        attributes();
 
         service.loadUserBySAML(credential);
     }
 
     @Test(expected = UserNotAllowedException.class)
     public void fail_missingUserValue() {
-        when(credential.getAttribute(Mockito.anyString()).getAttributeValues()).thenReturn(toXmlObjects());
-
-        when(credential.getAttribute("urn:oid:organisation").getAttributeValues()).thenReturn(toXmlObjects("vorsen.nl"));
+        attributes(
+            attribute("urn:oid:user"),
+            attribute("urn:oid:organisation", "vorsen.nl")
+        );
 
         service.loadUserBySAML(credential);
     }
 
     @Test(expected = UserNotAllowedException.class)
     public void fail_unauthorizedRole() {
-        when(credential.getAttribute(Mockito.anyString()).getAttributeValues()).thenReturn(toXmlObjects());
-
-        when(credential.getAttribute("user").getAttributeValues()).thenReturn(toXmlObjects("henkid"));
-        when(credential.getAttribute("name").getAttributeValues()).thenReturn(toXmlObjects("Henk Hendirksen"));
-        when(credential.getAttribute("role").getAttributeValues()).thenReturn(toXmlObjects("student"));
+        attributes(
+            attribute("user", "henkid"),
+            attribute("name", "Henk Hendirksen"),
+            attribute("role", "student")
+        );
 
         service.loadUserBySAML(credential);
     }
 
     @Test(expected = UserNotAllowedException.class)
     public void fail_unauthorizedOrganisation() {
-        when(credential.getAttribute("urn:oid:user").getAttributeValues()).thenReturn(toXmlObjects("henkid"));
-        when(credential.getAttribute("urn:oid:role").getAttributeValues()).thenReturn(toXmlObjects("medewerker", "unknown"));
-        when(credential.getAttribute("urn:oid:organisation").getAttributeValues()).thenReturn(toXmlObjects("microsoft.com"));
+        attributes(
+            attribute("urn:oid:user", "henkid"),
+            attribute("urn:oid:role", "medewerker", "unknown"),
+            attribute("urn:oid:organisation", "microsoft.com")
+        );
 
         service.loadUserBySAML(credential);
     }
 
+    @Test
+    public void fail_unsatisfiedRule() {
+        attributes(
+            attribute("urn:oid:user", "henkid"),
+            attribute("urn:oid:role", "medewerker"),
+            attribute("urn:oid:organisation", "vorsen.nl")
+        );
+        service.setRules(Collections.singletonList(AssertionRule.oneOf("urn:oid:role", "admin")));
+
+        try {
+            service.loadUserBySAML(credential);
+            Assert.fail("Expected the rule to fail");
+        } catch (UserNotAllowedException e) {
+            Assert.assertEquals("Assertion failure, user does not satisfy rule: urn:oid:role is one of [admin]", e.getMessage());
+        }
+    }
+
+    @Test
+    public void cache_shouldSkipDecorators_untilAttributesChange() {
+        SAMLProperties properties = new SAMLProperties();
+        properties.setRoleRequired(false);
+        properties.getUserCache().setEnabled(true);
+
+        AtomicInteger decorations = new AtomicInteger();
+        SAMLUserService cached = new SAMLUserService(properties);
+        cached.setDecorators(Collections.singletonList((details, response) -> {
+            decorations.incrementAndGet();
+            return details;
+        }));
+
+        NameID nameId = mock(NameID.class);
+        when(nameId.getValue()).thenReturn("henkid");
+        when(credential.getNameID()).thenReturn(nameId);
+        when(credential.getRemoteEntityID()).thenReturn("https://idp");
+        attributes(attribute("urn:oid:role", "medewerker"));
+
+        UserDetails user = cached.loadUserBySAML(credential);
+        Assert.assertSame(user, cached.loadUserBySAML(credential));
+        Assert.assertEquals(1, decorations.get());
+
+        attributes(attribute("urn:oid:role", "medewerker", "manager"));
+        Assert.assertNotSame(user, cached.loadUserBySAML(credential));
+        Assert.assertEquals(2, decorations.get());
+    }
+
+    private void attributes(Attribute... attributes) {
+        when(credential.getAttributes()).thenReturn(Arrays.asList(attributes));
+    }
+
+    private Attribute attribute(String name, String... values) {
+        Attribute attribute = mock(Attribute.class);
+        when(attribute.getName()).thenReturn(name);
+        when(attribute.getAttributeValues()).thenReturn(toXmlObjects(values));
+        return attribute;
+    }
+
     private List<XMLObject> toXmlObjects(String... values) {
         return Stream.of(values).map(SimpleXMLString::new).collect(Collectors.toList());
     }
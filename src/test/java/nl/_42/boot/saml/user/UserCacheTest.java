@@ -0,0 +1,114 @@
+package nl._42.boot.saml.user;
+
+import nl._42.boot.saml.metrics.SAMLMetrics;
+import org.junit.Test;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class UserCacheTest {
+
+    private static final byte[] FINGERPRINT = "a".getBytes(StandardCharsets.UTF_8);
+
+    private final AtomicLong time = new AtomicLong();
+
+    private final Clock clock = new Clock() {
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(time.get());
+        }
+
+    };
+
+    private final List<String> results = new ArrayList<>();
+
+    private final SAMLMetrics metrics = new SAMLMetrics() {
+
+        @Override
+        public void record(String name, long nanos, String... tags) {
+        }
+
+        @Override
+        public void increment(String name, String... tags) {
+            assertEquals(UserCache.NAME, name);
+            results.add(tags[1]);
+        }
+
+    };
+
+    @Test
+    public void get_shouldSucceed_whenFingerprintMatches() {
+        UserCache cache = new UserCache(Duration.ofSeconds(60), 100, clock);
+        assertNull(cache.get("henk", FINGERPRINT, metrics));
+
+        UserDetails user = user("henk");
+        cache.put("henk", FINGERPRINT, user);
+
+        assertSame(user, cache.get("henk", FINGERPRINT, metrics));
+        assertSame(user, cache.get("henk", FINGERPRINT.clone(), metrics));
+        assertEquals(Arrays.asList(UserCache.MISS, UserCache.HIT, UserCache.HIT), results);
+    }
+
+    @Test
+    public void get_shouldInvalidate_whenFingerprintChanged() {
+        UserCache cache = new UserCache(Duration.ofSeconds(60), 100, clock);
+        cache.put("henk", FINGERPRINT, user("henk"));
+
+        assertNull(cache.get("henk", "b".getBytes(StandardCharsets.UTF_8), metrics));
+        assertNull(cache.get("henk", FINGERPRINT, metrics));
+        assertEquals(0, cache.size());
+        assertEquals(Arrays.asList(UserCache.CHANGED, UserCache.MISS), results);
+    }
+
+    @Test
+    public void get_shouldSkip_whenExpired() {
+        UserCache cache = new UserCache(Duration.ofSeconds(60), 100, clock);
+        cache.put("henk", FINGERPRINT, user("henk"));
+
+        time.addAndGet(60000);
+        assertNull(cache.get("henk", FINGERPRINT, metrics));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void put_shouldEvictOldest_whenFull() {
+        UserCache cache = new UserCache(Duration.ofSeconds(60), 16, clock);
+        for (int index = 0; index < 1000; index++) {
+            cache.put("user-" + index, FINGERPRINT, user("user-" + index));
+        }
+
+        assertEquals(16, cache.size());
+        assertNull(cache.get("user-0", FINGERPRINT, metrics));
+    }
+
+    private static UserDetails user(String name) {
+        return new User(name, "", Collections.emptyList());
+    }
+
+}
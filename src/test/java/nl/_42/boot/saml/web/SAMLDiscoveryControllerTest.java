@@ -34,7 +34,7 @@ public class SAMLDiscoveryControllerTest extends AbstractWebTest {
     @Test
     public void ok() throws Exception {
         when(metadata.getIDPEntityNames()).thenReturn(Stream.of("a", "b", "c").collect(Collectors.toSet()));
-        when(properties.getIdpUrl()).thenReturn("http://www.idp.com/login");
+        when(properties.getDefaultIdpUrl()).thenReturn("http://www.idp.com/login");
 
         this.webClient.perform(MockMvcRequestBuilders.get("/saml/idpSelection")
                 .requestAttr("javax.servlet.forward.request_uri", "http://www.origin.com"))
@@ -1,11 +1,171 @@
 package nl._42.boot.saml.web;
 
+import org.junit.Before;
 import org.junit.Test;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.saml.key.KeyManager;
+import org.springframework.security.saml.metadata.MetadataManager;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class SAMLMetadataDisplayFilterTest {
 
+  private static final String METADATA = "<md:EntityDescriptor entityID=\"sp\"/>";
+
+  private final MetadataManager manager = mock(MetadataManager.class);
+
+  private EntityDescriptor descriptor = mock(EntityDescriptor.class);
+
+  private CountingFilter filter;
+
+  @Before
+  public void setUp() throws Exception {
+    when(manager.getHostedSPName()).thenReturn("sp");
+    when(manager.getEntityDescriptor("sp")).thenAnswer(invocation -> descriptor);
+
+    filter = new CountingFilter();
+    filter.setManager(manager);
+    filter.setKeyManager(mock(KeyManager.class));
+  }
+
+  @Test
+  public void display_shouldSerializeOnce() throws Exception {
+    MockHttpServletResponse first = display(new MockHttpServletRequest());
+    MockHttpServletResponse second = display(new MockHttpServletRequest());
+
+    assertEquals(METADATA, first.getContentAsString());
+    assertEquals(METADATA, second.getContentAsString());
+    assertEquals("attachment; filename=\"demo-ascme-nl.xml\"", first.getHeader(HttpHeaders.CONTENT_DISPOSITION));
+    assertEquals(first.getHeader(HttpHeaders.ETAG), second.getHeader(HttpHeaders.ETAG));
+    assertEquals(1, filter.serialized);
+  }
+
+  @Test
+  public void display_shouldSerialize_whenDescriptorChanged() throws Exception {
+    String etag = display(new MockHttpServletRequest()).getHeader(HttpHeaders.ETAG);
+
+    descriptor = mock(EntityDescriptor.class);
+    display(new MockHttpServletRequest());
+
+    assertEquals(2, filter.serialized);
+    assertEquals(etag, display(new MockHttpServletRequest()).getHeader(HttpHeaders.ETAG));
+  }
+
+  @Test
+  public void display_shouldNotModify_whenMatchingEtag() throws Exception {
+    String etag = display(new MockHttpServletRequest()).getHeader(HttpHeaders.ETAG);
+
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\", " + etag);
+    MockHttpServletResponse response = display(request);
+
+    assertEquals(304, response.getStatus());
+    assertEquals(0, response.getContentLength());
+  }
+
+  @Test
+  public void display_shouldCompress_whenAcceptsGzip() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+    MockHttpServletResponse response = display(request);
+
+    assertEquals("gzip", response.getHeader(HttpHeaders.CONTENT_ENCODING));
+    try (InputStream content = new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))) {
+      byte[] expected = METADATA.getBytes("UTF-8");
+      byte[] actual = new byte[expected.length];
+      assertEquals(expected.length, content.read(actual));
+      assertArrayEquals(expected, actual);
+    }
+
+    assertNull(display(new MockHttpServletRequest()).getHeader(HttpHeaders.CONTENT_ENCODING));
+  }
+
+  @Test
+  public void display_shouldModify_whenEtagOfOtherEncoding() throws Exception {
+    MockHttpServletRequest gzip = new MockHttpServletRequest();
+    gzip.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+    String etag = display(gzip).getHeader(HttpHeaders.ETAG);
+
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+    MockHttpServletResponse response = display(request);
+
+    assertEquals(200, response.getStatus());
+    assertNull(response.getHeader(HttpHeaders.CONTENT_ENCODING));
+    assertEquals(METADATA, response.getContentAsString());
+  }
+
+  @Test
+  public void display_shouldNotModify_whenMatchingGzipEtag() throws Exception {
+    MockHttpServletRequest gzip = new MockHttpServletRequest();
+    gzip.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+    String etag = display(gzip).getHeader(HttpHeaders.ETAG);
+
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+    request.addHeader(HttpHeaders.IF_NONE_MATCH, "W/" + etag);
+
+    assertEquals(304, display(request).getStatus());
+  }
+
+  @Test
+  public void display_shouldNegotiateEncoding() throws Exception {
+    assertEncoding("gzip", "gzip");
+    assertEncoding("gzip", "GZIP;q=0.5");
+    assertEncoding("gzip", "x-gzip");
+    assertEncoding("gzip", "*");
+    assertEncoding("gzip", "deflate, gzip;q=1.0, *;q=0.5");
+    assertEncoding("gzip", "identity;q=0.5, gzip");
+    assertEncoding(null, "gzip;q=0");
+    assertEncoding(null, "gzip;q=0.0");
+    assertEncoding(null, "gzip; q=0");
+    assertEncoding(null, "gzip;q=0.000, deflate");
+    assertEncoding(null, "gzip;q=0, *");
+    assertEncoding(null, "*;q=0");
+    assertEncoding(null, "identity, gzip;q=0.5");
+    assertEncoding(null, "deflate, br");
+    assertEncoding(null, "agzip");
+  }
+
+  private void assertEncoding(String expected, String acceptEncoding) throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+    assertEquals(acceptEncoding, expected, display(request).getHeader(HttpHeaders.CONTENT_ENCODING));
+  }
+
+  private MockHttpServletResponse display(MockHttpServletRequest request) throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    filter.processMetadataDisplay(request, response);
+    return response;
+  }
+
+  private static class CountingFilter extends SAMLMetadataDisplayFilter {
+
+    private int serialized;
+
+    CountingFilter() {
+      super("https://demo.ascme.nl");
+    }
+
+    @Override
+    protected String getMetadataAsString(EntityDescriptor descriptor) {
+      serialized++;
+      return METADATA;
+    }
+
+  }
+
   @Test
   public void getMetadataFileName_shouldSucceed_withProviderAndPath() {
     String fileName = SAMLMetadataDisplayFilter.getMetadataFileName("https://demo.ascme.nl/api/saml/ssl");
@@ -0,0 +1,84 @@
+package nl._42.boot.saml.web;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import javax.servlet.Filter;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+public class SAMLRequestRouterTest {
+
+  private final Filter login = mock(Filter.class);
+  private final Filter sso = mock(Filter.class);
+  private final Filter ssoHoK = mock(Filter.class);
+
+  private final SAMLRequestRouter router = new SAMLRequestRouter();
+
+  public SAMLRequestRouterTest() {
+    router.on("/saml/login/**", login);
+    router.on("/saml/SSO/**", sso);
+    router.on("/saml/SSOHoK/**", ssoHoK);
+  }
+
+  @Test
+  public void getFilter_shouldMatch_subPath() {
+    assertSame(login, router.getFilter(request("/saml/login", null)));
+    assertSame(login, router.getFilter(request("/saml/login/", null)));
+    assertSame(login, router.getFilter(request("/saml/login/alias/idp", null)));
+    assertSame(sso, router.getFilter(request("/saml/SSO", null)));
+    assertSame(ssoHoK, router.getFilter(request("/saml/SSOHoK", null)));
+  }
+
+  @Test
+  public void getFilter_shouldMatch_pathInfo() {
+    assertSame(sso, router.getFilter(request("/saml", "/SSO/alias")));
+    assertSame(sso, router.getFilter(request("", "/saml/SSO")));
+  }
+
+  @Test
+  public void getFilter_shouldSkip_otherPaths() {
+    assertNull(router.getFilter(request("/api/users", null)));
+    assertNull(router.getFilter(request("/saml", null)));
+    assertNull(router.getFilter(request("/saml/loginx", null)));
+    assertNull(router.getFilter(request("/saml/sso", null)));
+    assertNull(router.getFilter(request("", null)));
+  }
+
+  @Test
+  public void getFilter_shouldPrefer_firstRegistration() {
+    Filter first = mock(Filter.class);
+    Filter second = mock(Filter.class);
+
+    SAMLRequestRouter router = new SAMLRequestRouter();
+    router.on("/saml/**", first);
+    router.on("/saml/login/**", second);
+
+    assertSame(first, router.getFilter(request("/saml/login", null)));
+  }
+
+  @Test
+  public void getFilter_shouldMatch_patterns() {
+    Filter pattern = mock(Filter.class);
+    Filter all = mock(Filter.class);
+
+    SAMLRequestRouter router = new SAMLRequestRouter();
+    router.on("/saml/*/metadata", pattern);
+    router.on("/saml/login/**", login);
+    router.on("/**", all);
+
+    assertSame(pattern, router.getFilter(request("/saml/alias/metadata", null)));
+    assertSame(login, router.getFilter(request("/saml/login", null)));
+    assertSame(all, router.getFilter(request("/api/users", null)));
+  }
+
+  private static MockHttpServletRequest request(String servletPath, String pathInfo) {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setServletPath(servletPath);
+    request.setPathInfo(pathInfo);
+    return request;
+  }
+
+}
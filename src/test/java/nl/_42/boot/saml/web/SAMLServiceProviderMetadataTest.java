@@ -0,0 +1,133 @@
+package nl._42.boot.saml.web;
+
+import nl._42.boot.saml.AbstractApplicationTest;
+import nl._42.boot.saml.key.ReloadingKeyManager;
+import nl._42.boot.saml.metadata.SAMLMetadataManager;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.SPSSODescriptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.saml.SAMLBootstrap;
+import org.springframework.security.saml.key.JKSKeyManager;
+import org.springframework.security.saml.key.KeyManager;
+import org.springframework.security.saml.metadata.ExtendedMetadata;
+import org.springframework.security.saml.metadata.MetadataManager;
+
+import java.io.File;
+import java.io.InputStream;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class SAMLServiceProviderMetadataTest extends AbstractApplicationTest {
+
+  private static final String PASSWORD = "nalle123";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Autowired
+  private SAMLServiceProviderMetadata metadata;
+
+  @Autowired
+  private MetadataManager manager;
+
+  @Test
+  public void register_shouldHostServiceProvider_onStartup() throws Exception {
+    assertEquals("urn:nl:vu:uas:local:sp", metadata.getEntityId());
+    assertEquals(metadata.getEntityId(), manager.getHostedSPName());
+
+    SPSSODescriptor descriptor = manager.getEntityDescriptor(metadata.getEntityId()).getSPSSODescriptor("urn:oasis:names:tc:SAML:2.0:protocol");
+    assertNotNull(descriptor);
+    assertEquals("http://unit-test/api/saml/SSO", descriptor.getAssertionConsumerServices().get(0).getLocation());
+  }
+
+  @Test
+  public void register_shouldPublishReloadedCertificate() throws Exception {
+    // Other tests may have bootstrapped OpenSAML again, without the metadata key info generator
+    new SAMLBootstrap().postProcessBeanFactory(null);
+
+    KeyStore original = KeyStore.getInstance("JKS");
+    try (InputStream is = new ClassPathResource("simple-saml.jks").getInputStream()) {
+      original.load(is, PASSWORD.toCharArray());
+    }
+    Key key = original.getKey("apollo", PASSWORD.toCharArray());
+    Certificate apollo = original.getCertificate("apollo");
+    Certificate rotated = original.getCertificate("startcom");
+
+    File file = folder.newFile("keys");
+    AtomicReference<String> alias = new AtomicReference<>("apollo");
+    ReloadingKeyManager keyManager = new ReloadingKeyManager(() -> {
+      boolean rotate = "rotated".equals(alias.get());
+      return build(alias.get(), key, rotate ? rotated : apollo);
+    }, Collections.singletonList(file));
+
+    SAMLMetadataGenerator generator = new SAMLMetadataGenerator();
+    generator.setEntityId("urn:nl:42:reloading:sp");
+    generator.setEntityBaseURL("http://unit-test/api");
+    generator.setKeyManager(keyManager);
+
+    SAMLMetadataManager manager = new SAMLMetadataManager(Collections.emptyList());
+    manager.setKeyManager(keyManager);
+    try {
+      SAMLServiceProviderMetadata reloading = SAMLServiceProviderMetadata.register(generator, manager, keyManager);
+
+      SAMLMetadataDisplayFilter filter = new SAMLMetadataDisplayFilter("http://unit-test");
+      filter.setManager(manager);
+      filter.setKeyManager(keyManager);
+
+      String before = display(filter);
+      assertTrue(before.contains(encode(apollo)));
+      ExtendedMetadata extendedMetadata = reloading.getExtendedMetadata();
+      EntityDescriptor descriptor = manager.getEntityDescriptor(reloading.getEntityId());
+
+      alias.set("rotated");
+      assertTrue(keyManager.reload());
+
+      String after = display(filter);
+      assertTrue(after.contains(encode(rotated)));
+      assertFalse(after.contains(encode(apollo)));
+      assertNotSame(extendedMetadata, reloading.getExtendedMetadata());
+      assertNotSame(descriptor, manager.getEntityDescriptor(reloading.getEntityId()));
+      assertEquals(reloading.getEntityId(), manager.getHostedSPName());
+    } finally {
+      manager.destroy();
+    }
+  }
+
+  private static KeyManager build(String alias, Key key, Certificate certificate) {
+    try {
+      KeyStore keyStore = KeyStore.getInstance("JKS");
+      keyStore.load(null, null);
+      keyStore.setKeyEntry(alias, key, PASSWORD.toCharArray(), new Certificate[] { certificate });
+      return new JKSKeyManager(keyStore, Collections.singletonMap(alias, PASSWORD), alias);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String display(SAMLMetadataDisplayFilter filter) throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    filter.processMetadataDisplay(new MockHttpServletRequest(), response);
+    return response.getContentAsString();
+  }
+
+  private static String encode(Certificate certificate) throws Exception {
+    return Base64.getEncoder().encodeToString(certificate.getEncoded()).substring(0, 64);
+  }
+
+}
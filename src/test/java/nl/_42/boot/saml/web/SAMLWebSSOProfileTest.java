@@ -0,0 +1,18 @@
+package nl._42.boot.saml.web;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SAMLWebSSOProfileTest {
+
+    @Test
+    public void stripWww_shouldOnlyStripHost() {
+        assertEquals("https://sp.nl/awww-x/saml/SSO", SAMLWebSSOProfile.stripWww("https://www.sp.nl/awww-x/saml/SSO"));
+        assertEquals("https://sp.nl:8443/saml/SSO", SAMLWebSSOProfile.stripWww("https://WWW.sp.nl:8443/saml/SSO"));
+        assertEquals("https://www@sp.nl/saml/SSO", SAMLWebSSOProfile.stripWww("https://www@www.sp.nl/saml/SSO"));
+        assertEquals("https://awww.sp.nl/www./SSO", SAMLWebSSOProfile.stripWww("https://awww.sp.nl/www./SSO"));
+        assertEquals("/saml/SSO", SAMLWebSSOProfile.stripWww("/saml/SSO"));
+    }
+
+}